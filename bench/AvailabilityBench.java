@@ -0,0 +1,41 @@
+package bench;
+
+import server.Availability;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bitmap availability: booking and releasing a range, checking a range, and rendering the text grid
+final class AvailabilityBench {
+    private static final LocalDateTime START = LocalDateTime.of(2026, 10, 21, 9, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2026, 10, 21, 17, 30);
+    private static final List<DayOfWeek> ONE_DAY = Arrays.asList(DayOfWeek.WEDNESDAY);
+    private static final List<DayOfWeek> ALL_DAYS = Arrays.asList(DayOfWeek.values());
+
+    private AvailabilityBench() {
+    }
+
+    static List<Bench.Benchmark> benchmarks() {
+        Availability availability = new Availability();
+        // A partly booked week, so checks and rendering see both states
+        for (int day = 0; day < 7; day++) {
+            LocalDateTime morning = LocalDateTime.of(2026, 10, 19 + day, 8, 0);
+            availability.markBooked(morning, morning.plusMinutes(90));
+        }
+        Availability scratch = new Availability();
+
+        List<Bench.Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Bench.Benchmark("availability.mark", () -> {
+            scratch.markBooked(START, END);
+            scratch.markAvailable(START, END);
+            return scratch;
+        }));
+        benchmarks.add(new Bench.Benchmark("availability.check", () -> availability.isAvailable(START, END)));
+        benchmarks.add(new Bench.Benchmark("availability.toString.day", () -> availability.toString(ONE_DAY)));
+        benchmarks.add(new Bench.Benchmark("availability.toString.week", () -> availability.toString(ALL_DAYS)));
+        return benchmarks;
+    }
+}
@@ -0,0 +1,132 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// Small benchmark harness: timed warmup and measurement iterations on the calling thread, reporting
+// throughput and bytes allocated per operation (from the JVM's per-thread allocation counter).
+// Run with ./run_bench.sh [-warmup n] [-iterations n] [-time ms] [name filter...]
+public final class Bench {
+    private static final int CALLS_BETWEEN_CLOCK_CHECKS = 256;
+
+    public interface Body {
+        Object run(); // The result is consumed so the JIT cannot drop the work
+    }
+
+    public static final class Benchmark {
+        private final String name;
+        private final Body body;
+
+        public Benchmark(String name, Body body) {
+            this.name = name;
+            this.body = body;
+        }
+    }
+
+    private static final PrintStream RESULTS = System.out;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static Object sink; // Results are stored here so they escape and cannot be optimised away
+
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private long iterationMillis = 1000;
+    private final List<String> filters = new ArrayList<>();
+
+    public static void main(String[] args) {
+        Bench bench = new Bench();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-warmup":
+                    bench.warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-iterations":
+                    bench.measurementIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-time":
+                    bench.iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    bench.filters.add(args[i]);
+            }
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.addAll(MarshallerBench.benchmarks());
+        benchmarks.addAll(AvailabilityBench.benchmarks());
+        benchmarks.addAll(RequestHandlerBench.benchmarks());
+
+        RESULTS.println(String.format("%-48s %5s %14s %12s %12s", "Benchmark", "Cnt", "Score", "Error", "Alloc"));
+        // The handler benchmarks turn server logging off; anything else printed to System.out is discarded so it
+        // cannot interleave with the results
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (Benchmark benchmark : benchmarks) {
+            if (bench.selected(benchmark.name)) {
+                bench.run(benchmark);
+            }
+        }
+    }
+
+    private boolean selected(String name) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (name.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void run(Benchmark benchmark) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(benchmark.body);
+        }
+        double[] opsPerMs = new double[measurementIterations];
+        long totalOps = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long[] result = iteration(benchmark.body);
+            opsPerMs[i] = result[0] / (result[1] / 1_000_000.0);
+            totalOps += result[0];
+            totalBytes += result[2];
+        }
+        double mean = 0;
+        for (double score : opsPerMs) {
+            mean += score;
+        }
+        mean /= opsPerMs.length;
+        double variance = 0;
+        for (double score : opsPerMs) {
+            variance += (score - mean) * (score - mean);
+        }
+        double error = opsPerMs.length > 1 ? 2 * Math.sqrt(variance / (opsPerMs.length - 1)) : Double.NaN; // ~95% interval
+        RESULTS.println(String.format("%-48s %5d %14.3f %12.3f %12s", benchmark.name, measurementIterations, mean, error,
+                String.format("%.1f", (double) totalBytes / totalOps)) + "  ops/ms, B/op");
+    }
+
+    // Returns {operations, elapsed nanos, allocated bytes}
+    private long[] iteration(Body body) {
+        long threadId = Thread.currentThread().getId();
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long ops = 0;
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int i = 0; i < CALLS_BETWEEN_CLOCK_CHECKS; i++) {
+                sink = body.run();
+            }
+            ops += CALLS_BETWEEN_CLOCK_CHECKS;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new long[]{ops, now - start, allocated};
+    }
+}
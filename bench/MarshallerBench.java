@@ -0,0 +1,124 @@
+package bench;
+
+import shared.Marshaller;
+import shared.NameTable;
+import shared.constants.OperationType;
+
+import java.nio.ByteBuffer;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Encode and decode of every request type, and of replies, through the byte[] API ("array") and the
+// in-place ByteBuffer API ("buffer"), so the two can be compared on throughput and allocation.
+final class MarshallerBench {
+    private static final String FACILITY = "Room101";
+    private static final NameTable NAMES = new NameTable(Arrays.asList("Room101", "LectureHallA"));
+    private static final List<DayOfWeek> DAYS = Arrays.asList(DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY, DayOfWeek.FRIDAY);
+    private static final LocalDateTime START = LocalDateTime.of(2026, 10, 19, 9, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2026, 10, 19, 10, 30);
+    private static final String CONFIRMATION_ID = UUID.randomUUID().toString();
+    private static final byte[] REPLY_PAYLOAD = new byte[180];
+
+    private MarshallerBench() {
+    }
+
+    static List<Bench.Benchmark> benchmarks() {
+        ByteBuffer out = ByteBuffer.allocate(1024); // Send buffers are heap buffers, receive buffers direct
+        List<Bench.Benchmark> benchmarks = new ArrayList<>();
+
+        add(benchmarks, OperationType.QUERY_AVAILABILITY, Marshaller.marshalQueryAvailabilityRequest(1, FACILITY, DAYS),
+                () -> Marshaller.marshalQueryAvailabilityRequest(1, FACILITY, DAYS),
+                () -> {
+                    out.clear();
+                    Marshaller.writeQueryAvailabilityRequest(out, 1, FACILITY, DAYS, (byte) 0);
+                    return out;
+                },
+                Marshaller::unmarshalQueryAvailabilityRequest,
+                message -> Marshaller.readQueryAvailabilityRequest(message, NAMES));
+        add(benchmarks, OperationType.BOOK_FACILITY, Marshaller.marshalBookFacilityRequest(1, FACILITY, START, END),
+                () -> Marshaller.marshalBookFacilityRequest(1, FACILITY, START, END),
+                () -> {
+                    out.clear();
+                    Marshaller.writeBookFacilityRequest(out, 1, FACILITY, START, END, (byte) 0);
+                    return out;
+                },
+                Marshaller::unmarshalBookFacilityRequest,
+                message -> Marshaller.readBookFacilityRequest(message, NAMES));
+        add(benchmarks, OperationType.CHANGE_BOOKING, Marshaller.marshalChangeBookingRequest(1, CONFIRMATION_ID, 30),
+                () -> Marshaller.marshalChangeBookingRequest(1, CONFIRMATION_ID, 30),
+                () -> {
+                    out.clear();
+                    Marshaller.writeChangeBookingRequest(out, 1, CONFIRMATION_ID, 30, (byte) 0);
+                    return out;
+                },
+                // The array API leaves UUID parsing to the caller, so include it for a like-for-like comparison
+                message -> UUID.fromString(Marshaller.unmarshalChangeBookingRequest(message).getConfirmationId()),
+                message -> Marshaller.readChangeBookingRequest(message).getConfirmationUuid());
+        add(benchmarks, OperationType.MONITOR_AVAILABILITY, Marshaller.marshalMonitorAvailabilityRequest(1, FACILITY, 10),
+                () -> Marshaller.marshalMonitorAvailabilityRequest(1, FACILITY, 10),
+                () -> {
+                    out.clear();
+                    Marshaller.writeMonitorAvailabilityRequest(out, 1, FACILITY, 10, (byte) 0);
+                    return out;
+                },
+                Marshaller::unmarshalMonitorAvailabilityRequest,
+                message -> Marshaller.readMonitorAvailabilityRequest(message, NAMES));
+        add(benchmarks, OperationType.GET_SERVER_STATUS, Marshaller.marshalGetServerStatusRequest(1),
+                () -> Marshaller.marshalGetServerStatusRequest(1),
+                () -> {
+                    out.clear();
+                    Marshaller.writeGetServerStatusRequest(out, 1, (byte) 0);
+                    return out;
+                },
+                Marshaller::unmarshalHeader,
+                Marshaller::readOperationType);
+        add(benchmarks, OperationType.EXTEND_BOOKING, Marshaller.marshalExtendBookingRequest(1, CONFIRMATION_ID, 30),
+                () -> Marshaller.marshalExtendBookingRequest(1, CONFIRMATION_ID, 30),
+                () -> {
+                    out.clear();
+                    Marshaller.writeExtendBookingRequest(out, 1, CONFIRMATION_ID, 30, (byte) 0);
+                    return out;
+                },
+                message -> UUID.fromString(Marshaller.unmarshalExtendBookingRequest(message).getConfirmationId()),
+                message -> Marshaller.readExtendBookingRequest(message).getConfirmationUuid());
+
+        benchmarks.add(new Bench.Benchmark("marshal.reply.encode.array",
+                () -> Marshaller.marshalReply(1, OperationType.QUERY_AVAILABILITY, REPLY_PAYLOAD)));
+        benchmarks.add(new Bench.Benchmark("marshal.reply.encode.buffer", () -> {
+            out.clear();
+            Marshaller.writeReply(out, 1, OperationType.QUERY_AVAILABILITY, REPLY_PAYLOAD, (byte) 0);
+            return out;
+        }));
+        return benchmarks;
+    }
+
+    interface ArrayDecoder {
+        Object decode(byte[] message);
+    }
+
+    interface BufferDecoder {
+        Object decode(ByteBuffer message);
+    }
+
+    private static void add(List<Bench.Benchmark> benchmarks, OperationType operationType, byte[] message,
+                            Bench.Body encodeArray, Bench.Body encodeBuffer, ArrayDecoder decodeArray, BufferDecoder decodeBuffer) {
+        String prefix = "marshal." + operationType.name().toLowerCase() + ".";
+        // Decode from a direct buffer, as the server receives it; the array API needs a copy first
+        ByteBuffer received = ByteBuffer.allocateDirect(message.length);
+        received.put(message).flip();
+        benchmarks.add(new Bench.Benchmark(prefix + "encode.array", encodeArray));
+        benchmarks.add(new Bench.Benchmark(prefix + "encode.buffer", encodeBuffer));
+        benchmarks.add(new Bench.Benchmark(prefix + "decode.array", () -> {
+            byte[] copy = new byte[received.limit()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = received.get(i);
+            }
+            return decodeArray.decode(copy);
+        }));
+        benchmarks.add(new Bench.Benchmark(prefix + "decode.buffer", () -> decodeBuffer.decode(received)));
+    }
+}
@@ -0,0 +1,115 @@
+package bench;
+
+import server.Booking;
+import server.FacilityService;
+import server.MessageService;
+import server.ReplyCache;
+import server.RequestHandler;
+import server.RequestHistory;
+import server.logging.Log;
+import server.logging.LogLevel;
+import shared.Marshaller;
+import shared.constants.ArgumentConstants;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// End to end through RequestHandler.processRequest, from a received buffer to the marshalled reply,
+// under both invocation semantics. Replies are handed to a MessageService that discards them.
+final class RequestHandlerBench {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+
+    private RequestHandlerBench() {
+    }
+
+    // Counts replies instead of sending them
+    static final class StubMessageService extends MessageService {
+        long replies;
+
+        StubMessageService(FacilityService facilityService) {
+            super(facilityService);
+        }
+
+        @Override
+        public void sendMessage(byte[] replyMessage, InetSocketAddress clientAddress, boolean simulatePacketLoss) {
+            replies++;
+        }
+    }
+
+    static List<Bench.Benchmark> benchmarks() {
+        List<Bench.Benchmark> benchmarks = new ArrayList<>();
+        for (ArgumentConstants.Semantics semantics : ArgumentConstants.Semantics.values()) {
+            String suffix = semantics == ArgumentConstants.Semantics.AT_LEAST_ONCE ? ".alo" : ".amo";
+            benchmarks.add(new Bench.Benchmark("handler.query" + suffix, newRequests(semantics,
+                    Marshaller.marshalQueryAvailabilityRequest(0, "Room101", Arrays.asList(DayOfWeek.MONDAY, DayOfWeek.TUESDAY)))));
+            benchmarks.add(new Bench.Benchmark("handler.status" + suffix, newRequests(semantics,
+                    Marshaller.marshalGetServerStatusRequest(0))));
+            benchmarks.add(new Bench.Benchmark("handler.change" + suffix, changeRequests(semantics)));
+            benchmarks.add(new Bench.Benchmark("handler.duplicate" + suffix, duplicateRequests(semantics,
+                    Marshaller.marshalQueryAvailabilityRequest(1, "Room101", Arrays.asList(DayOfWeek.MONDAY)))));
+        }
+        return benchmarks;
+    }
+
+    private static RequestHandler newHandler(FacilityService facilityService, ArgumentConstants.Semantics semantics) {
+        RequestHandler requestHandler = new RequestHandler(facilityService, new StubMessageService(facilityService),
+                new RequestHistory(), new ReplyCache());
+        requestHandler.setSemantics(semantics);
+        // The handler logs every request through the log ring, whose writer thread would compete with the measured
+        // thread; turned off so only handling is measured
+        Log.setLevel(LogLevel.OFF);
+        return requestHandler;
+    }
+
+    // The same request with a fresh request ID every time
+    private static Bench.Body newRequests(ArgumentConstants.Semantics semantics, byte[] template) {
+        RequestHandler requestHandler = newHandler(new FacilityService(), semantics);
+        ByteBuffer message = received(template);
+        int[] requestId = {0};
+        return () -> {
+            message.putInt(0, ++requestId[0]);
+            requestHandler.processRequest(message, CLIENT);
+            return message;
+        };
+    }
+
+    // Retransmissions of one request: replayed from the reply cache (at-least-once) or dropped (at-most-once)
+    private static Bench.Body duplicateRequests(ArgumentConstants.Semantics semantics, byte[] template) {
+        RequestHandler requestHandler = newHandler(new FacilityService(), semantics);
+        ByteBuffer message = received(template);
+        return () -> {
+            requestHandler.processRequest(message, CLIENT);
+            return message;
+        };
+    }
+
+    // Moves one booking 15 minutes later and back again, so every request succeeds and changes availability
+    private static Bench.Body changeRequests(ArgumentConstants.Semantics semantics) {
+        FacilityService facilityService = new FacilityService();
+        LocalDateTime start = LocalDateTime.now().with(TemporalAdjusters.next(DayOfWeek.WEDNESDAY))
+                .withHour(9).withMinute(0).withSecond(0).withNano(0);
+        Booking booking = facilityService.bookFacility("Room101", start, start.plusHours(1));
+        RequestHandler requestHandler = newHandler(facilityService, semantics);
+        ByteBuffer later = received(Marshaller.marshalChangeBookingRequest(0, booking.getConfirmationIdAsString(), 15));
+        ByteBuffer earlier = received(Marshaller.marshalChangeBookingRequest(0, booking.getConfirmationIdAsString(), -15));
+        int[] requestId = {0};
+        return () -> {
+            ByteBuffer message = (requestId[0] & 1) == 0 ? later : earlier;
+            message.putInt(0, ++requestId[0]);
+            requestHandler.processRequest(message, CLIENT);
+            return message;
+        };
+    }
+
+    private static ByteBuffer received(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(message.length);
+        buffer.put(message).flip();
+        return buffer;
+    }
+}
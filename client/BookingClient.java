@@ -6,29 +6,35 @@ import shared.constants.ProtocolConstants;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class BookingClient {
     private DatagramSocket socket;
-    private InetAddress serverAddress;
-    private int serverPort;
+    private RequestSender requestSender; // Timeouts, retries and simulated loss, shared with the load generator
     private int requestCounter = 0;
     private boolean atLeastOnceSemanticsEnabled = false;
     private double packetLossProbability = 0.0; // Packet loss simulation probability
+    private boolean binaryAvailability = false; // Ask the server for compact binary availability and render it locally
+    private ShardRouter shardRouter; // Null when talking to a single server
 
     public BookingClient(String serverAddressStr, int serverPort) {
         try {
-            this.serverAddress = InetAddress.getByName(serverAddressStr);
-            this.serverPort = serverPort;
             this.socket = new DatagramSocket();
+            this.requestSender = new RequestSender(socket, InetAddress.getByName(serverAddressStr), serverPort, new Random());
         } catch (UnknownHostException e) {
             System.err.println("Error: Unknown host: " + serverAddressStr);
             System.exit(1);
@@ -43,6 +49,12 @@ public class BookingClient {
         int serverPort = ProtocolConstants.SERVER_PORT; // Default port
         String semanticsArg = null;
         String lossProbArg = null;
+        String availabilityFormatArg = null;
+        String clusterArg = null;
+        String timeoutArg = null;
+        String attemptsArg = null;
+        String minRtoArg = null;
+        String retryBudgetArg = null;
 
         for (int i = 0; i < args.length; i++) {
             if ("-server".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
@@ -61,6 +73,24 @@ public class BookingClient {
             } else if ("-loss".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
                 lossProbArg = args[i+1];
                 i++;
+            } else if ("-availability-format".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                availabilityFormatArg = args[i + 1];
+                i++;
+            } else if ("-cluster".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                clusterArg = args[i + 1];
+                i++;
+            } else if ("-timeout".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                timeoutArg = args[i + 1];
+                i++;
+            } else if ("-attempts".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                attemptsArg = args[i + 1];
+                i++;
+            } else if ("-min-rto".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                minRtoArg = args[i + 1];
+                i++;
+            } else if ("-retry-budget".equalsIgnoreCase(args[i]) && i + 1 < args.length) {
+                retryBudgetArg = args[i + 1];
+                i++;
             }
         }
 
@@ -79,6 +109,7 @@ public class BookingClient {
                     System.err.println("Invalid packet loss probability. Using default: 0.0");
                     client.packetLossProbability = 0.0;
                 } else {
+                    client.requestSender.setPacketLossProbability(client.packetLossProbability);
                     System.out.println("Simulating packet loss with probability: " + client.packetLossProbability);
                 }
             } catch (NumberFormatException e) {
@@ -86,23 +117,91 @@ public class BookingClient {
             }
         }
 
+        if (timeoutArg != null) {
+            try {
+                int timeoutMillis = Integer.parseInt(timeoutArg);
+                client.requestSender.setAtMostOnceTimeoutMillis(timeoutMillis);
+                client.requestSender.setRetryTimeoutMillis(timeoutMillis);
+                System.out.println("Using a fixed reply timeout of " + timeoutMillis + " ms.");
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid timeout. Using adaptive timeouts.");
+            }
+        }
+        if (attemptsArg != null) {
+            try {
+                client.requestSender.setMaxAttempts(Integer.parseInt(attemptsArg));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid attempts. Using default: " + RequestSender.DEFAULT_MAX_ATTEMPTS);
+            }
+        }
+        if (minRtoArg != null) {
+            try {
+                client.requestSender.setMinRtoMillis(Integer.parseInt(minRtoArg));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid minimum RTO. Using default: " + RequestSender.DEFAULT_MIN_RTO_MILLIS);
+            }
+        }
+        if (retryBudgetArg != null) {
+            try {
+                client.requestSender.setRetryBudgetMillis(Integer.parseInt(retryBudgetArg));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid retry budget. Using default: " + RequestSender.DEFAULT_RETRY_BUDGET_MILLIS);
+            }
+        }
+
+        if ("binary".equalsIgnoreCase(availabilityFormatArg)) {
+            client.binaryAvailability = true;
+            System.out.println("Requesting availability in binary format.");
+        }
+
+        if (clusterArg != null) {
+            try {
+                client.shardRouter = new ShardRouter(ShardRing.load(Paths.get(clusterArg)));
+            } catch (IOException e) {
+                System.err.println("Error loading cluster config: " + e.getMessage());
+                System.exit(1);
+            }
+            client.requestSender.setRouter(client.shardRouter);
+            System.out.println("Routing requests over " + client.shardRouter.getRing().getShards().size() + " shards from " + clusterArg + ".");
+        }
+
         client.start();
     }
 
     private void start() {
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
-                System.out.print("Enter command (query, book, change, monitor, status, extend, exit): ");
+                System.out.print("Enter command (query, book, change, monitor, status, metrics, extend, batch, stats, exit): ");
                 String command = scanner.nextLine().trim().toLowerCase();
 
                 if (command.equals("exit")) {
                     System.out.println("Exiting client.");
                     break;
                 }
+                if (command.equals("stats")) {
+                    // Local: this client's own requests, no server involved
+                    System.out.println(requestSender.getStatsReport());
+                    continue;
+                }
 
                 byte[] request = createRequest(command, scanner);
-                if (request != null) {
-                    byte[] responseData = sendRequest(request);
+                if (request != null && binaryAvailability) {
+                    Marshaller.addFlags(request, ProtocolConstants.FLAG_BINARY_AVAILABILITY);
+                }
+                if (request != null && command.startsWith("monitor")) {
+                    // No reply is sent for a registration; the server starts pushing updates straight away
+                    listenForMonitorUpdates(request, Integer.parseInt(command.split("\\s+")[2]));
+                } else if (request != null && shardRouter != null && (command.equals("status") || command.equals("metrics"))) {
+                    // Each shard reports on its own facilities
+                    for (ShardRing.Shard shard : shardRouter.getRing().getShards()) {
+                        System.out.println("--- " + shard + " ---");
+                        byte[] responseData = sendRequest(request, shard.getAddress());
+                        if (responseData != null) {
+                            processResponse(responseData);
+                        }
+                    }
+                } else if (request != null) {
+                    byte[] responseData = sendRequest(request, requestSender.destinationOf(request));
                     if (responseData != null) {
                         processResponse(responseData);
                     }
@@ -117,10 +216,6 @@ public class BookingClient {
         }
     }
 
-    private boolean simulatePacketLoss() {
-        return Math.random() < packetLossProbability;
-    }
-
     private byte[] createRequest(String command, Scanner scanner) {
         requestCounter++;
         int requestId = requestCounter;
@@ -136,8 +231,12 @@ public class BookingClient {
                 return createMonitorAvailabilityRequest(requestId, command, scanner);
             } else if (command.equals("status")) {
                 return Marshaller.marshalGetServerStatusRequest(requestId);
+            } else if (command.equals("metrics")) {
+                return Marshaller.marshalGetServerMetricsRequest(requestId);
             } else if (command.startsWith("extend")) {
                 return createExtendBookingRequest(requestId, command, scanner);
+            } else if (command.startsWith("batch")) {
+                return createBatchBookingRequest(requestId, command, scanner);
             } else {
                 System.out.println("Unknown command.");
                 return null;
@@ -148,78 +247,58 @@ public class BookingClient {
         }
     }
 
-    private byte[] sendRequest(byte[] request) {
+    private byte[] sendRequest(byte[] request, InetSocketAddress destination) {
         try {
-            if (atLeastOnceSemanticsEnabled) {
-                return sendWithRetry(request, Marshaller.unmarshalHeader(request).getRequestId());
-            } else {
-                return sendAtMostOnce(request);
+            byte[] reply = atLeastOnceSemanticsEnabled
+                    ? requestSender.sendWithRetry(request, destination)
+                    : requestSender.sendAtMostOnce(request, destination);
+            if (reply != null) {
+                System.out.printf("Reply in %.1f ms after %d attempt(s) (RTO now %.1f ms).%n",
+                        requestSender.getLastLatencyMicros() / 1000.0, requestSender.getLastAttempts(),
+                        requestSender.estimatorFor(destination).getRtoMicros() / 1000.0);
             }
+            return reply;
         } catch (IOException e) {
             System.err.println("Network error: " + e.getMessage());
             return null;
         }
     }
 
-    private byte[] sendAtMostOnce(byte[] request) throws IOException {
-        DatagramPacket packet = new DatagramPacket(request, request.length, serverAddress, serverPort);
-
-        if (simulatePacketLoss()) {
-            System.out.println("[SIMULATED PACKET LOSS - CLIENT SEND]");
-            return null;
-        }
-
-        socket.send(packet);
-        socket.setSoTimeout(5000);
-        byte[] buffer = new byte[ProtocolConstants.MAX_MESSAGE_SIZE];
-        DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-
+    private void listenForMonitorUpdates(byte[] request, int intervalMinutes) {
+        long deadline = System.currentTimeMillis() + intervalMinutes * 60 * 1000L;
         try {
-            socket.receive(responsePacket);
-            if (simulatePacketLoss()) {
-                System.out.println("[SIMULATED PACKET LOSS - CLIENT RECEIVE]");
-                return null;
+            if (!requestSender.sendOnly(request)) {
+                return;
             }
-            // Trim the received data to the actual length
-            return Arrays.copyOf(responsePacket.getData(), responsePacket.getLength());
-        } catch (SocketTimeoutException e) {
-            System.out.println("Timeout waiting for server response (At-Most-Once). Request might be lost or server is unavailable.");
-            return null;
-        } catch (IOException e) {
-            System.err.println("Error receiving response: " + e.getMessage());
-            return null;
-        }
-    }
-
-    private byte[] sendWithRetry(byte[] request, int requestId) throws IOException {
-        int retries = 3;
-        while (retries-- > 0) {
-            try {
-                DatagramPacket packet = new DatagramPacket(request, request.length, serverAddress, serverPort);
-                if (simulatePacketLoss()) {
-                    System.out.println("[SIMULATED PACKET LOSS - CLIENT SEND (Retry " + (3 - retries) + ")]");
-                    continue;
-                }
+            System.out.println("Monitoring for " + intervalMinutes + " minutes...");
 
-                socket.send(packet);
-                socket.setSoTimeout(2000);
-                byte[] buffer = new byte[ProtocolConstants.MAX_MESSAGE_SIZE];
-                DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-                socket.receive(responsePacket);
-                if (simulatePacketLoss()) {
-                    System.out.println("[SIMULATED PACKET LOSS - CLIENT RECEIVE (Retry " + (3 - retries) + ")]");
-                    continue;
+            byte[] buffer = new byte[ProtocolConstants.MAX_MESSAGE_SIZE];
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                DatagramPacket updatePacket = new DatagramPacket(buffer, buffer.length);
+                socket.setSoTimeout((int) remaining);
+                try {
+                    socket.receive(updatePacket);
+                } catch (SocketTimeoutException e) {
+                    break;
                 }
-                return Arrays.copyOf(responsePacket.getData(), responsePacket.getLength());
-            } catch (SocketTimeoutException e) {
-                System.out.println("Timeout for request ID: " + requestId + ", retry " + (3 - retries) + "...");
-                if (retries == 0) {
-                    System.out.println("Server unavailable after multiple retries (At-Least-Once).");
-                    throw e;
+                byte[] updateData = Arrays.copyOf(updatePacket.getData(), updatePacket.getLength());
+                MessageHeader header = Marshaller.unmarshalHeader(updateData);
+                if (header.getOperationType() == OperationType.MONITOR_AVAILABILITY && header.getRequestId() == -1) {
+                    Marshaller.AvailabilityUpdateData update = Marshaller.unmarshalAvailabilityUpdate(updateData);
+                    byte[] availabilityData = update.getAvailabilityData();
+                    String availabilityInfo = update.isBinary()
+                            ? Marshaller.unmarshalAvailabilityBitmap(availabilityData, 0, availabilityData.length).toString()
+                            : new String(availabilityData, StandardCharsets.UTF_8);
+                    System.out.println("\nReceived availability update for " + update.getFacilityName() + ":\n" + availabilityInfo);
+                } else if (header.getPayloadLength() > 0) {
+                    processResponse(updateData); // e.g. an error reply to the registration
                 }
             }
+            System.out.println("Monitoring period ended.");
+        } catch (IOException e) {
+            System.err.println("Error during monitoring: " + e.getMessage());
         }
-        return null;
     }
 
     private void processResponse(byte[] responseData) {
@@ -229,10 +308,16 @@ public class BookingClient {
 
         if (payloadLength > 0) {
             // Use exact payload length rather than the entire array
-            byte[] payload = Arrays.copyOfRange(responseData, 7, 7 + payloadLength);
+            int payloadOffset = ProtocolConstants.HEADER_SIZE;
+            byte[] payload = Arrays.copyOfRange(responseData, payloadOffset, payloadOffset + payloadLength);
             switch (operationType) {
                 case QUERY_AVAILABILITY:
-                    System.out.println(new String(payload, StandardCharsets.UTF_8));
+                    if (header.getBinaryAvailability()) {
+                        // Compact bitmap, rendered here instead of on the server
+                        System.out.println(Marshaller.unmarshalAvailabilityBitmap(payload, 0, payload.length, header.getAbsoluteDates()));
+                    } else {
+                        System.out.println(new String(payload, StandardCharsets.UTF_8));
+                    }
                     break;
                 case BOOK_FACILITY:
                     System.out.println("Booking Confirmation ID: " + new String(payload, StandardCharsets.UTF_8));
@@ -244,11 +329,18 @@ public class BookingClient {
                     // Monitor updates are handled separately
                     break;
                 case GET_SERVER_STATUS:
+                case GET_SERVER_METRICS:
                     System.out.println(new String(payload, StandardCharsets.UTF_8));
                     break;
                 case EXTEND_BOOKING:
                     System.out.println(new String(payload, StandardCharsets.UTF_8));
                     break;
+                case BATCH_BOOKING:
+                    List<Marshaller.BatchItemResult> results = Marshaller.unmarshalBatchBookingReply(payload, 0, payload.length);
+                    for (int i = 0; i < results.size(); i++) {
+                        System.out.println("Item " + (i + 1) + ": " + results.get(i));
+                    }
+                    break;
                 default:
                     System.out.println("Server response: " + new String(payload, StandardCharsets.UTF_8));
             }
@@ -259,12 +351,23 @@ public class BookingClient {
 
     // --- Request Creation Helpers ---
 
+    // Days are either days of the week (the next occurrence of each) or dates such as 2026-10-20
     private byte[] createQueryAvailabilityRequest(int requestId, String command, Scanner scanner) {
         String[] parts = command.split("\\s+");
         if (parts.length < 3) {
-            throw new IllegalArgumentException("Usage: query <facility_name> <day1> <day2> ...");
+            throw new IllegalArgumentException("Usage: query <facility_name> <day1|yyyy-mm-dd> <day2|yyyy-mm-dd> ...");
         }
         String facilityName = parts[1];
+        if (isDate(parts[2])) {
+            try {
+                List<LocalDate> dates = Arrays.stream(parts).skip(2)
+                        .map(LocalDate::parse)
+                        .collect(Collectors.toList());
+                return Marshaller.marshalQueryAvailabilityByDateRequest(requestId, facilityName, dates);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid date. Use format like '2026-10-20'");
+            }
+        }
         List<DayOfWeek> days = Arrays.stream(parts).skip(2)
                 .map(String::toUpperCase)
                 .map(DayOfWeek::valueOf)
@@ -275,19 +378,21 @@ public class BookingClient {
 
     private byte[] createBookFacilityRequest(int requestId, String command, Scanner scanner) {
         String[] parts = command.split("\\s+");
-        // Expecting: book <facility_name> <start_day> <start_time> <end_day> <end_time>
+        // Expecting: book <facility_name> <start_day> <start_time> <end_day> <end_time>, where a day may also be a date
         if (parts.length != 6) {
-            throw new IllegalArgumentException("Usage: book <facility_name> <start_day> <start_time> <end_day> <end_time>");
+            throw new IllegalArgumentException("Usage: book <facility_name> <start_day|yyyy-mm-dd> <start_time> <end_day|yyyy-mm-dd> <end_time>");
         }
         String facilityName = parts[1];
         LocalDateTime startTime, endTime;
         try {
             startTime = parseDateTime(parts[2] + " " + parts[3]);
             endTime = parseDateTime(parts[4] + " " + parts[5]);
-        } catch (DateTimeParseException e) {
-            throw new IllegalArgumentException("Invalid date/time format. Use format like 'MONDAY 09:00'");
+        } catch (DateTimeException e) { // Also covers out-of-range hours and minutes
+            throw new IllegalArgumentException("Invalid date/time format. Use format like 'MONDAY 09:00' or '2026-10-20 09:00'");
         }
-        return Marshaller.marshalBookFacilityRequest(requestId, facilityName, startTime, endTime);
+        // Dates are sent as they are; days of the week alone keep the original encoding older servers understand
+        boolean absoluteDates = isDate(parts[2]) || isDate(parts[4]);
+        return Marshaller.marshalBookFacilityRequest(requestId, facilityName, startTime, endTime, absoluteDates);
     }
 
     private byte[] createChangeBookingRequest(int requestId, String command, Scanner scanner) {
@@ -337,20 +442,81 @@ public class BookingClient {
         return Marshaller.marshalExtendBookingRequest(requestId, confirmationId, extendMinutes);
     }
 
+    // Items follow on their own lines, ended by an empty line:
+    //   book <start_day|yyyy-mm-dd> <start_time> <end_day|yyyy-mm-dd> <end_time> [weeks]
+    //   change <confirmation_id> <offset_minutes>
+    //   extend <confirmation_id> <extend_minutes>
+    // A book item with weeks books the same times that many weeks in a row, e.g. a recurring class.
+    private byte[] createBatchBookingRequest(int requestId, String command, Scanner scanner) {
+        String[] parts = command.split("\\s+");
+        // Expecting: batch <facility_name> <all|each>
+        if (parts.length != 3 || !(parts[2].equals("all") || parts[2].equals("each"))) {
+            throw new IllegalArgumentException("Usage: batch <facility_name> <all|each>, then one item per line and an empty line");
+        }
+        String facilityName = parts[1];
+        boolean allOrNothing = parts[2].equals("all");
+        System.out.println("Enter items (book, change, extend), then an empty line:");
+        List<Marshaller.BatchItem> items = new ArrayList<>();
+        String line;
+        while (scanner.hasNextLine() && !(line = scanner.nextLine().trim().toLowerCase()).isEmpty()) {
+            items.addAll(parseBatchItems(line));
+        }
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("A batch needs at least one item.");
+        }
+        if (items.size() > ProtocolConstants.MAX_BATCH_ITEMS) {
+            throw new IllegalArgumentException("A batch holds at most " + ProtocolConstants.MAX_BATCH_ITEMS + " items.");
+        }
+        // Days of the week are resolved here, so every time is sent as a date
+        return Marshaller.marshalBatchBookingRequest(requestId, facilityName, allOrNothing, items, true);
+    }
+
+    private List<Marshaller.BatchItem> parseBatchItems(String line) {
+        String[] parts = line.split("\\s+");
+        try {
+            if (parts[0].equals("book") && (parts.length == 5 || parts.length == 6)) {
+                LocalDateTime startTime = parseDateTime(parts[1] + " " + parts[2]);
+                LocalDateTime endTime = parseDateTime(parts[3] + " " + parts[4]);
+                int weeks = parts.length == 6 ? Integer.parseInt(parts[5]) : 1;
+                List<Marshaller.BatchItem> items = new ArrayList<>(Math.max(weeks, 0));
+                for (int week = 0; week < weeks; week++) {
+                    items.add(Marshaller.BatchItem.book(startTime.plusWeeks(week), endTime.plusWeeks(week)));
+                }
+                return items;
+            } else if (parts[0].equals("change") && parts.length == 3) {
+                return List.of(Marshaller.BatchItem.change(UUID.fromString(parts[1]), Integer.parseInt(parts[2])));
+            } else if (parts[0].equals("extend") && parts.length == 3) {
+                return List.of(Marshaller.BatchItem.extend(UUID.fromString(parts[1]), Integer.parseInt(parts[2])));
+            }
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid date/time format in '" + line + "'. Use format like 'MONDAY 09:00' or '2026-10-20 09:00'");
+        } catch (IllegalArgumentException e) { // Also NumberFormatException
+            throw new IllegalArgumentException("Invalid batch item '" + line + "': " + e.getMessage());
+        }
+        throw new IllegalArgumentException("Unknown batch item '" + line + "'. Use book, change or extend.");
+    }
+
     private LocalDateTime parseDateTime(String dateTimeStr) throws DateTimeParseException {
-        String[] parts = dateTimeStr.split("\\s+"); // Expecting: [DAY, TIME]
+        String[] parts = dateTimeStr.split("\\s+"); // Expecting: [DAY, TIME] or [DATE, TIME]
         if (parts.length != 2) {
             throw new DateTimeParseException("Invalid date time format", dateTimeStr, 0);
         }
-        DayOfWeek dayOfWeek = DayOfWeek.valueOf(parts[0].toUpperCase());
         String[] timeParts = parts[1].split(":");
         if (timeParts.length != 2) {
             throw new DateTimeParseException("Invalid time format", parts[1], 0);
         }
         int hour = Integer.parseInt(timeParts[0]);
         int minute = Integer.parseInt(timeParts[1]);
+        if (isDate(parts[0])) {
+            return LocalDate.parse(parts[0]).atTime(hour, minute);
+        }
+        DayOfWeek dayOfWeek = DayOfWeek.valueOf(parts[0].toUpperCase());
         LocalDateTime base = LocalDateTime.now().withHour(hour).withMinute(minute).withSecond(0).withNano(0);
         base = base.with(TemporalAdjusters.nextOrSame(dayOfWeek));
         return base;
     }
+
+    private static boolean isDate(String value) {
+        return !value.isEmpty() && Character.isDigit(value.charAt(0));
+    }
 }
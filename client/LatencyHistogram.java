@@ -0,0 +1,145 @@
+package client;
+
+import java.io.PrintStream;
+
+// Log-linear latency histogram in microseconds, laid out like HdrHistogram with 2 significant digits:
+// values below 128 have a bucket each, above that every power of two is split into 64 buckets, so the
+// recorded value is off by under 1.6%. Recording is an array increment; one histogram per client thread,
+// merged with add() for the report.
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 128;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int SUB_BUCKET_BITS = 7; // log2(SUB_BUCKETS)
+    private static final int MAX_EXPONENT = 64 - SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[SUB_BUCKETS + MAX_EXPONENT * HALF_SUB_BUCKETS];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+    private double sumOfSquares;
+
+    public void record(long valueMicros) {
+        long value = Math.max(0, valueMicros);
+        counts[indexOf(value)]++;
+        totalCount++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        sumOfSquares += (double) value * value;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    public double getStdDeviation() {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        return Math.sqrt(Math.max(0, sumOfSquares / totalCount - mean * mean));
+    }
+
+    // Smallest recorded bucket (reported by its highest value) that covers the given percentile, 0-100
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    // Same layout as HdrHistogram's outputPercentileDistribution, so the file can be fed to its plotter.
+    // Percentiles step in halving distances to 100%, five ticks per half.
+    public void outputPercentileDistribution(PrintStream out, double valueUnitScale) {
+        out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        out.println();
+        if (totalCount > 0) {
+            double percentile = 0;
+            long lastValue = -1;
+            while (true) {
+                long value = getValueAtPercentile(percentile);
+                long countAtValue = countAtOrBelow(value);
+                double reachedPercentile = 100.0 * countAtValue / totalCount;
+                if (value != lastValue || reachedPercentile >= 100.0) {
+                    printRow(out, value / valueUnitScale, reachedPercentile / 100.0, countAtValue);
+                    lastValue = value;
+                }
+                if (reachedPercentile >= 100.0) {
+                    break;
+                }
+                double remaining = 100.0 - percentile;
+                int halves = (int) (Math.log(100.0 / remaining) / Math.log(2)) + 1;
+                double tick = 100.0 / (Math.pow(2, halves) * 5);
+                percentile = Math.max(percentile + tick, reachedPercentile);
+            }
+        }
+        out.println(String.format("#[Mean    = %12.3f, StdDeviation   = %12.3f]", getMean() / valueUnitScale, getStdDeviation() / valueUnitScale));
+        out.println(String.format("#[Max     = %12.3f, Total count    = %12d]", max / valueUnitScale, totalCount));
+        out.println(String.format("#[Buckets = %12d, SubBuckets     = %12d]", MAX_EXPONENT + 1, SUB_BUCKETS));
+    }
+
+    private static void printRow(PrintStream out, double value, double percentile, long totalCount) {
+        if (percentile < 1.0) {
+            out.println(String.format("%12.3f %2.12f %10d %14.2f", value, percentile, totalCount, 1 / (1 - percentile)));
+        } else {
+            out.println(String.format("%12.3f %2.12f %10d", value, percentile, totalCount));
+        }
+    }
+
+    private long countAtOrBelow(long value) {
+        long seen = 0;
+        int last = indexOf(value);
+        for (int i = 0; i <= last; i++) {
+            seen += counts[i];
+        }
+        return seen;
+    }
+
+    // --- Bucket layout ---
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1); // >= 1
+        int subBucket = (int) (value >>> exponent); // In [64, 128)
+        return SUB_BUCKETS + (exponent - 1) * HALF_SUB_BUCKETS + (subBucket - HALF_SUB_BUCKETS);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+}
@@ -0,0 +1,483 @@
+package client;
+
+import shared.Marshaller;
+import shared.MessageHeader;
+import shared.ShardRing;
+import shared.constants.ProtocolConstants;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+// Headless closed-loop load generator. Each virtual client owns a socket and sends one request at a time through
+// the same RequestSender as the interactive client, so retries, timeouts and simulated loss behave the same.
+// With a target rate, latency is measured from when a request was due rather than when it was sent, so a stalled
+// server shows up in the percentiles instead of silently lowering the offered load (coordinated omission).
+public class LoadGenerator {
+    private static final String[] DEFAULT_FACILITIES = {"Room101", "LectureHallA"};
+    private static final int MAX_KNOWN_BOOKINGS = 32; // Per client, for change and extend requests
+    private static final int MONITOR_INTERVAL_MINUTES = 1;
+    private static final int SLOT_MINUTES = 15;
+
+    enum Operation {
+        QUERY, BOOK, CHANGE, EXTEND, MONITOR, STATUS
+    }
+
+    private InetAddress serverAddress;
+    private int serverPort = ProtocolConstants.SERVER_PORT;
+    private int clientCount = 8;
+    private int durationSeconds = 10;
+    private double targetRate = 0; // Requests per second over all clients, 0 for as fast as replies come back
+    private double packetLossProbability = 0.0;
+    private boolean atLeastOnceSemanticsEnabled = false;
+    private boolean binaryAvailability = false;
+    private int timeoutMillis = -1; // -1 keeps the adaptive RequestSender timeouts
+    private int maxAttempts = RequestSender.DEFAULT_MAX_ATTEMPTS;
+    private int minRtoMillis = RequestSender.DEFAULT_MIN_RTO_MILLIS;
+    private int retryBudgetMillis = RequestSender.DEFAULT_RETRY_BUDGET_MILLIS;
+    private String histogramFile;
+    private String[] facilities = DEFAULT_FACILITIES;
+    private ShardRouter shardRouter; // Null when loading a single server
+    private final int[] mixWeights = {50, 20, 10, 10, 5, 5}; // Indexed by Operation.ordinal()
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        String serverAddressStr = "127.0.0.1";
+
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                System.err.println("Missing value for argument: " + args[i]);
+                break;
+            }
+            String value = args[i + 1];
+            try {
+                if ("-server".equalsIgnoreCase(args[i])) {
+                    serverAddressStr = value;
+                } else if ("-port".equalsIgnoreCase(args[i])) {
+                    generator.serverPort = Integer.parseInt(value);
+                } else if ("-clients".equalsIgnoreCase(args[i])) {
+                    generator.clientCount = Math.max(1, Integer.parseInt(value));
+                } else if ("-duration".equalsIgnoreCase(args[i])) {
+                    generator.durationSeconds = Math.max(1, Integer.parseInt(value));
+                } else if ("-rate".equalsIgnoreCase(args[i])) {
+                    generator.targetRate = Math.max(0, Double.parseDouble(value));
+                } else if ("-mix".equalsIgnoreCase(args[i])) {
+                    generator.parseMix(value);
+                } else if ("-loss".equalsIgnoreCase(args[i])) {
+                    double loss = Double.parseDouble(value);
+                    if (loss < 0 || loss > 1) {
+                        System.err.println("Invalid packet loss probability. Using default: 0.0");
+                    } else {
+                        generator.packetLossProbability = loss;
+                    }
+                } else if ("-semantics".equalsIgnoreCase(args[i])) {
+                    generator.atLeastOnceSemanticsEnabled = "at-least-once".equalsIgnoreCase(value);
+                } else if ("-availability-format".equalsIgnoreCase(args[i])) {
+                    generator.binaryAvailability = "binary".equalsIgnoreCase(value);
+                } else if ("-timeout".equalsIgnoreCase(args[i])) {
+                    generator.timeoutMillis = Math.max(1, Integer.parseInt(value));
+                } else if ("-attempts".equalsIgnoreCase(args[i])) {
+                    generator.maxAttempts = Math.max(1, Integer.parseInt(value));
+                } else if ("-min-rto".equalsIgnoreCase(args[i])) {
+                    generator.minRtoMillis = Math.max(1, Integer.parseInt(value));
+                } else if ("-retry-budget".equalsIgnoreCase(args[i])) {
+                    generator.retryBudgetMillis = Math.max(1, Integer.parseInt(value));
+                } else if ("-histogram".equalsIgnoreCase(args[i])) {
+                    generator.histogramFile = value;
+                } else if ("-catalog".equalsIgnoreCase(args[i])) {
+                    generator.facilities = readCatalog(value);
+                } else if ("-cluster".equalsIgnoreCase(args[i])) {
+                    generator.shardRouter = new ShardRouter(ShardRing.load(Paths.get(value)));
+                } else {
+                    System.err.println("Unknown argument: " + args[i]);
+                    continue;
+                }
+                i++;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid value for " + args[i] + ": " + value + ". Using default.");
+                i++;
+            } catch (IOException e) {
+                System.err.println("Error reading " + value + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        try {
+            generator.serverAddress = InetAddress.getByName(serverAddressStr);
+        } catch (UnknownHostException e) {
+            System.err.println("Error: Unknown host: " + serverAddressStr);
+            System.exit(1);
+        }
+        generator.run();
+    }
+
+    // Facility names in the server's catalog format: one per line, blank lines and lines starting with '#' skipped
+    private static String[] readCatalog(String file) throws IOException {
+        String[] names = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8).stream().map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#")).toArray(String[]::new);
+        if (names.length == 0) {
+            throw new IOException("Catalog has no facilities");
+        }
+        return names;
+    }
+
+    // e.g. "query=50,book=20,change=10,extend=10,monitor=5,status=5"; operations left out get weight 0
+    private void parseMix(String mix) {
+        int[] weights = new int[Operation.values().length];
+        int total = 0;
+        for (String part : mix.split(",")) {
+            String[] entry = part.trim().split("=");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            int weight = Integer.parseInt(entry[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + part);
+            }
+            weights[Operation.valueOf(entry[0].trim().toUpperCase()).ordinal()] = weight;
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Mix has no operations");
+        }
+        System.arraycopy(weights, 0, mixWeights, 0, weights.length);
+    }
+
+    private void run() {
+        String target = shardRouter != null ? shardRouter.getRing().getShards().size() + " shards"
+                : serverAddress.getHostAddress() + ":" + serverPort;
+        System.out.println("Load: " + clientCount + " clients for " + durationSeconds + "s against " + target + ", " + facilities.length + " facilities"
+                + ", " + (targetRate > 0 ? targetRate + " req/s" : "unthrottled")
+                + ", " + (atLeastOnceSemanticsEnabled ? "at-least-once" : "at-most-once")
+                + ", loss " + packetLossProbability + ", mix " + describeMix());
+
+        List<VirtualClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            try {
+                clients.add(new VirtualClient(i));
+            } catch (SocketException e) {
+                System.err.println("Error creating socket: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (VirtualClient client : clients) {
+            Thread thread = new Thread(() -> {
+                try {
+                    startSignal.await();
+                    client.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "load-client-" + client.id);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        for (VirtualClient client : clients) {
+            client.startNanos = startNanos;
+            client.endNanos = startNanos + durationSeconds * 1_000_000_000L;
+        }
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        report(clients, elapsedSeconds);
+    }
+
+    private void report(List<VirtualClient> clients, double elapsedSeconds) {
+        Operation[] operations = Operation.values();
+        LatencyHistogram total = new LatencyHistogram();
+        LatencyHistogram[] perOperation = new LatencyHistogram[operations.length];
+        long[] sent = new long[operations.length];
+        long[] completed = new long[operations.length];
+        long[] rejected = new long[operations.length];
+        long[] failed = new long[operations.length];
+        long attempts = 0;
+        long[] answeredByAttempts = new long[maxAttempts + 1];
+        long srttMicros = 0, rttvarMicros = 0, rtoMicros = 0, backoffs = 0;
+        int estimators = 0;
+        for (int op = 0; op < operations.length; op++) {
+            perOperation[op] = new LatencyHistogram();
+        }
+        for (VirtualClient client : clients) {
+            total.add(client.latency);
+            for (int op = 0; op < operations.length; op++) {
+                perOperation[op].add(client.latencyByOperation[op]);
+                sent[op] += client.sent[op];
+                completed[op] += client.completed[op];
+                rejected[op] += client.rejected[op];
+                failed[op] += client.failed[op];
+            }
+            attempts += client.attempts;
+            long[] clientAttempts = client.requestSender.getAnsweredByAttempts();
+            if (clientAttempts.length > answeredByAttempts.length) {
+                answeredByAttempts = Arrays.copyOf(answeredByAttempts, clientAttempts.length);
+            }
+            for (int i = 0; i < clientAttempts.length; i++) {
+                answeredByAttempts[i] += clientAttempts[i];
+            }
+            for (RttEstimator estimator : client.requestSender.getEstimators().values()) {
+                srttMicros += estimator.getSrttMicros();
+                rttvarMicros += estimator.getRttvarMicros();
+                rtoMicros += estimator.getRtoMicros();
+                backoffs += estimator.getBackoffs();
+                estimators++;
+            }
+        }
+
+        long totalSent = 0, totalCompleted = 0, totalRejected = 0, totalFailed = 0;
+        System.out.println(String.format("%-8s %9s %9s %9s %9s %10s %10s %10s", "op", "sent", "ok", "rejected", "failed", "p50 ms", "p99 ms", "p99.9 ms"));
+        for (Operation operation : operations) {
+            int op = operation.ordinal();
+            if (sent[op] == 0) {
+                continue;
+            }
+            totalSent += sent[op];
+            totalCompleted += completed[op];
+            totalRejected += rejected[op];
+            totalFailed += failed[op];
+            LatencyHistogram histogram = perOperation[op];
+            System.out.println(String.format("%-8s %9d %9d %9d %9d %10s %10s %10s", operation.name().toLowerCase(), sent[op],
+                    completed[op] - rejected[op], rejected[op], failed[op],
+                    percentile(histogram, 50), percentile(histogram, 99), percentile(histogram, 99.9)));
+        }
+        System.out.println(String.format("%-8s %9d %9d %9d %9d %10s %10s %10s", "all", totalSent, totalCompleted - totalRejected, totalRejected, totalFailed,
+                percentile(total, 50), percentile(total, 99), percentile(total, 99.9)));
+        System.out.println(String.format("Throughput: %.1f req/s, goodput: %.1f accepted/s, %.3f attempts per request, max latency %.3f ms",
+                totalSent / elapsedSeconds, (totalCompleted - totalRejected) / elapsedSeconds,
+                totalSent == 0 ? 0.0 : (double) attempts / totalSent, total.getMax() / 1000.0));
+        System.out.println("Transmissions per answered request: " + RequestSender.describeAttempts(answeredByAttempts));
+        if (estimators > 0 && timeoutMillis <= 0) {
+            System.out.println(String.format("Retransmission timers at the end (mean over %d): SRTT %.3f ms, RTTVAR %.3f ms, RTO %.1f ms; %d timeouts backed off",
+                    estimators, srttMicros / 1000.0 / estimators, rttvarMicros / 1000.0 / estimators, rtoMicros / 1000.0 / estimators, backoffs));
+        }
+        System.out.println("Monitor registrations are sent without waiting for a reply and are left out of the latencies. "
+                + "Rejected requests got a reply refusing them, e.g. a booking conflict; failed requests got no reply.");
+
+        if (histogramFile != null) {
+            try (PrintStream out = new PrintStream(histogramFile)) {
+                total.outputPercentileDistribution(out, 1000.0); // Microseconds recorded, milliseconds written
+                System.out.println("Latency distribution (ms) written to " + histogramFile);
+            } catch (FileNotFoundException e) {
+                System.err.println("Error writing histogram: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String percentile(LatencyHistogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? "-" : String.format("%.3f", histogram.getValueAtPercentile(percentile) / 1000.0);
+    }
+
+    private String describeMix() {
+        StringBuilder mix = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            if (mixWeights[operation.ordinal()] > 0) {
+                mix.append(mix.length() == 0 ? "" : ",").append(operation.name().toLowerCase()).append('=').append(mixWeights[operation.ordinal()]);
+            }
+        }
+        return mix.toString();
+    }
+
+    // One closed-loop client: waits for each reply (or gives up on it) before sending the next request
+    private class VirtualClient {
+        private final int id;
+        private final Random random;
+        private final RequestSender requestSender;
+        private final List<String> knownBookings = new ArrayList<>();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram[] latencyByOperation = new LatencyHistogram[Operation.values().length];
+        private final long[] sent = new long[Operation.values().length];
+        private final long[] completed = new long[Operation.values().length];
+        private final long[] rejected = new long[Operation.values().length];
+        private final long[] failed = new long[Operation.values().length];
+        private final int totalWeight;
+        private long attempts;
+        private int requestCounter = 0;
+        private volatile long startNanos;
+        private volatile long endNanos;
+
+        VirtualClient(int id) throws SocketException {
+            this.id = id;
+            this.random = new Random(id * 7919L + System.nanoTime());
+            this.requestSender = new RequestSender(new DatagramSocket(), serverAddress, serverPort, random);
+            requestSender.setVerbose(false);
+            requestSender.setRouter(shardRouter);
+            requestSender.setPacketLossProbability(packetLossProbability);
+            requestSender.setMaxAttempts(maxAttempts);
+            requestSender.setMinRtoMillis(minRtoMillis);
+            requestSender.setRetryBudgetMillis(retryBudgetMillis);
+            if (timeoutMillis > 0) {
+                requestSender.setAtMostOnceTimeoutMillis(timeoutMillis);
+                requestSender.setRetryTimeoutMillis(timeoutMillis);
+            }
+            int weight = 0;
+            for (int i = 0; i < mixWeights.length; i++) {
+                latencyByOperation[i] = new LatencyHistogram();
+                weight += mixWeights[i];
+            }
+            this.totalWeight = weight;
+        }
+
+        void run() {
+            // Clients are staggered over one interval so a target rate is not offered in bursts
+            long intervalNanos = targetRate > 0 ? (long) (clientCount * 1e9 / targetRate) : 0;
+            long intendedStart = startNanos + (intervalNanos * id) / clientCount;
+            try {
+                while (true) {
+                    if (intervalNanos > 0) {
+                        long wait = intendedStart - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                    } else {
+                        intendedStart = System.nanoTime();
+                    }
+                    if (intendedStart >= endNanos) {
+                        break;
+                    }
+                    sendNext(intendedStart);
+                    intendedStart += intervalNanos;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                requestSender.getSocket().close();
+            }
+        }
+
+        private void sendNext(long intendedStart) {
+            Operation operation = nextOperation();
+            if ((operation == Operation.CHANGE || operation == Operation.EXTEND) && knownBookings.isEmpty()) {
+                operation = Operation.BOOK; // Nothing to change yet
+            }
+            int op = operation.ordinal();
+            byte[] request = createRequest(operation, ++requestCounter);
+            if (binaryAvailability) {
+                Marshaller.addFlags(request, ProtocolConstants.FLAG_BINARY_AVAILABILITY);
+            }
+            sent[op]++;
+            try {
+                if (operation == Operation.MONITOR) {
+                    requestSender.sendOnly(request);
+                    attempts += requestSender.getLastAttempts();
+                    completed[op]++;
+                    return;
+                }
+                byte[] reply = atLeastOnceSemanticsEnabled ? requestSender.sendWithRetry(request) : requestSender.sendAtMostOnce(request);
+                attempts += requestSender.getLastAttempts();
+                if (reply == null) {
+                    failed[op]++;
+                    return;
+                }
+                long micros = (System.nanoTime() - intendedStart) / 1000;
+                latency.record(micros);
+                latencyByOperation[op].record(micros);
+                completed[op]++;
+                if (!accept(operation, reply)) {
+                    rejected[op]++;
+                }
+            } catch (SocketTimeoutException e) {
+                attempts += requestSender.getLastAttempts();
+                failed[op]++;
+            } catch (IOException e) {
+                failed[op]++;
+            }
+        }
+
+        private Operation nextOperation() {
+            int pick = random.nextInt(totalWeight);
+            for (Operation operation : Operation.values()) {
+                pick -= mixWeights[operation.ordinal()];
+                if (pick < 0) {
+                    return operation;
+                }
+            }
+            return Operation.STATUS;
+        }
+
+        private byte[] createRequest(Operation operation, int requestId) {
+            String facility = facilities[random.nextInt(facilities.length)];
+            switch (operation) {
+                case QUERY:
+                    List<DayOfWeek> days = new ArrayList<>(List.of(DayOfWeek.values()));
+                    Collections.shuffle(days, random);
+                    return Marshaller.marshalQueryAvailabilityRequest(requestId, facility, days.subList(0, 1 + random.nextInt(3)));
+                case BOOK:
+                    // A slot-aligned booking of 15 to 60 minutes within one of the next seven days, sent with its date
+                    int slotsPerDay = 24 * 60 / SLOT_MINUTES;
+                    int lengthSlots = 1 + random.nextInt(4);
+                    int startSlot = random.nextInt(slotsPerDay - lengthSlots);
+                    LocalDateTime startTime = LocalDate.now().plusDays(1 + random.nextInt(7)).atStartOfDay().plusMinutes((long) startSlot * SLOT_MINUTES);
+                    return Marshaller.marshalBookFacilityRequest(requestId, facility, startTime, startTime.plusMinutes((long) lengthSlots * SLOT_MINUTES), true);
+                case CHANGE:
+                    int offsetMinutes = (random.nextBoolean() ? 1 : -1) * SLOT_MINUTES * (1 + random.nextInt(4));
+                    return Marshaller.marshalChangeBookingRequest(requestId, knownBooking(), offsetMinutes);
+                case EXTEND:
+                    return Marshaller.marshalExtendBookingRequest(requestId, knownBooking(), SLOT_MINUTES * (1 + random.nextInt(2)));
+                case MONITOR:
+                    return Marshaller.marshalMonitorAvailabilityRequest(requestId, facility, MONITOR_INTERVAL_MINUTES);
+                default:
+                    return Marshaller.marshalGetServerStatusRequest(requestId);
+            }
+        }
+
+        private String knownBooking() {
+            return knownBookings.get(random.nextInt(knownBookings.size()));
+        }
+
+        // Replies carry no status code, so a refusal is recognised by the payload of the successful reply
+        private boolean accept(Operation operation, byte[] reply) {
+            MessageHeader header = Marshaller.unmarshalHeader(reply);
+            String payload = new String(reply, ProtocolConstants.HEADER_SIZE, Math.min(header.getPayloadLength(), reply.length - ProtocolConstants.HEADER_SIZE), StandardCharsets.UTF_8);
+            switch (operation) {
+                case BOOK:
+                    try {
+                        UUID.fromString(payload);
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                    if (knownBookings.size() == MAX_KNOWN_BOOKINGS) {
+                        knownBookings.set(random.nextInt(MAX_KNOWN_BOOKINGS), payload);
+                    } else {
+                        knownBookings.add(payload);
+                    }
+                    return true;
+                case CHANGE:
+                case EXTEND:
+                    return payload.endsWith("successfully.");
+                case QUERY:
+                    return header.getBinaryAvailability() || payload.startsWith("Availability:");
+                default:
+                    return true;
+            }
+        }
+    }
+}
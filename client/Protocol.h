@@ -30,7 +30,9 @@ enum OperationType
     CHANGE_BOOKING = 3,
     MONITOR_AVAILABILITY = 4,
     GET_SERVER_STATUS = 5,
-    EXTEND_BOOKING = 6
+    EXTEND_BOOKING = 6,
+    BATCH_BOOKING = 7, // Not sent by this client yet
+    GET_SERVER_METRICS = 8 // Not sent by this client yet
 };
 
 // Day of week enum matching Java's DayOfWeek
@@ -0,0 +1,314 @@
+package client;
+
+import shared.Marshaller;
+import shared.constants.ProtocolConstants;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Sends a request over UDP and waits for its reply, once (at-most-once) or with retransmissions on timeout
+// (at-least-once). Client-side packet loss is simulated with a fixed probability on both send and receive.
+// Replies are matched on request ID, so late replies to earlier requests and monitor updates are skipped.
+// With a ShardRouter each request goes to the shard that owns it instead of the one server address.
+//
+// Timeouts follow each server's measured round-trip time (see RttEstimator) unless a fixed timeout is set. A
+// retransmission waits the current RTO, doubled after every timeout, plus up to JITTER of it at random so clients
+// that lost packets together do not retransmit together; a request gets at most maxAttempts transmissions within
+// retryBudgetMillis. An at-most-once request is sent once and waited for as long as those retransmissions would
+// take. Attempts and latency of every request are recorded for getStatsReport.
+// Not thread-safe: each client thread needs its own sender.
+public class RequestSender {
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final int DEFAULT_RETRY_BUDGET_MILLIS = 10_000;
+    public static final int DEFAULT_INITIAL_RTO_MILLIS = 1000; // Before anything is measured, as in RFC 6298
+    public static final int DEFAULT_MIN_RTO_MILLIS = 100; // Keeps server-side stalls (fsync, GC) from causing retransmissions
+    private static final int MAX_RTO_MILLIS = 8000;
+    private static final double JITTER = 0.25;
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress serverAddress;
+    private ShardRouter router; // Null: every request goes to serverAddress
+    private final Random random;
+    private final byte[] receiveBuffer = new byte[ProtocolConstants.MAX_BATCH_REPLY_SIZE]; // Batch replies are the largest
+    private final Map<InetSocketAddress, RttEstimator> estimators = new HashMap<>(); // One per server
+    private double packetLossProbability = 0.0;
+    private int atMostOnceTimeoutMillis = 0; // 0: adaptive
+    private int retryTimeoutMillis = 0; // 0: adaptive
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private int retryBudgetMillis = DEFAULT_RETRY_BUDGET_MILLIS;
+    private int minRtoMillis = DEFAULT_MIN_RTO_MILLIS;
+    private boolean verbose = true; // Print timeouts and simulated losses
+    private int lastAttempts; // Transmissions made by the last call
+    private long lastLatencyMicros; // From the first transmission to the reply, for the last call that got one
+
+    private final LatencyHistogram latency = new LatencyHistogram(); // Of answered requests, in microseconds
+    private long[] answeredByAttempts = new long[DEFAULT_MAX_ATTEMPTS + 1]; // Indexed by transmissions needed
+    private long unanswered;
+
+    public RequestSender(DatagramSocket socket, InetAddress serverAddress, int serverPort, Random random) {
+        this.socket = socket;
+        this.serverAddress = new InetSocketAddress(serverAddress, serverPort);
+        this.random = random;
+    }
+
+    public void setPacketLossProbability(double packetLossProbability) {
+        this.packetLossProbability = packetLossProbability;
+    }
+
+    // A fixed wait for at-most-once replies instead of the adaptive one; 0 restores adaptive
+    public void setAtMostOnceTimeoutMillis(int atMostOnceTimeoutMillis) {
+        this.atMostOnceTimeoutMillis = Math.max(0, atMostOnceTimeoutMillis);
+    }
+
+    // A fixed timeout for every at-least-once transmission, without backoff, instead of the adaptive one
+    public void setRetryTimeoutMillis(int retryTimeoutMillis) {
+        this.retryTimeoutMillis = Math.max(0, retryTimeoutMillis);
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    // Total time a request may take over all its transmissions
+    public void setRetryBudgetMillis(int retryBudgetMillis) {
+        this.retryBudgetMillis = Math.max(1, retryBudgetMillis);
+    }
+
+    // Applies to servers not contacted yet
+    public void setMinRtoMillis(int minRtoMillis) {
+        this.minRtoMillis = Math.max(1, minRtoMillis);
+    }
+
+    public void setRouter(ShardRouter router) {
+        this.router = router;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    public long getLastLatencyMicros() {
+        return lastLatencyMicros;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    // Answered requests by the number of transmissions they needed, index 0 unused
+    public long[] getAnsweredByAttempts() {
+        return answeredByAttempts;
+    }
+
+    public long getUnanswered() {
+        return unanswered;
+    }
+
+    public Map<InetSocketAddress, RttEstimator> getEstimators() {
+        return estimators;
+    }
+
+    public RttEstimator estimatorFor(InetSocketAddress destination) {
+        return estimators.computeIfAbsent(destination, address -> new RttEstimator(DEFAULT_INITIAL_RTO_MILLIS * 1000L,
+                minRtoMillis * 1000L, MAX_RTO_MILLIS * 1000L));
+    }
+
+    public DatagramSocket getSocket() {
+        return socket;
+    }
+
+    public boolean simulatePacketLoss() {
+        return packetLossProbability > 0 && random.nextDouble() < packetLossProbability;
+    }
+
+    public InetSocketAddress destinationOf(byte[] request) {
+        return router != null ? router.route(request) : serverAddress;
+    }
+
+    // Sends the request without waiting for a reply, e.g. a monitor registration
+    public boolean sendOnly(byte[] request) throws IOException {
+        lastAttempts = 1;
+        if (simulatePacketLoss()) {
+            log("[SIMULATED PACKET LOSS - CLIENT SEND]");
+            return false;
+        }
+        socket.send(new DatagramPacket(request, request.length, destinationOf(request)));
+        return true;
+    }
+
+    // Returns the reply, or null if the request or reply was lost or timed out
+    public byte[] sendAtMostOnce(byte[] request) throws IOException {
+        return sendAtMostOnce(request, destinationOf(request));
+    }
+
+    public byte[] sendAtMostOnce(byte[] request, InetSocketAddress destination) throws IOException {
+        lastAttempts = 1;
+        int requestId = Marshaller.unmarshalHeader(request).getRequestId();
+        RttEstimator estimator = estimatorFor(destination);
+        if (simulatePacketLoss()) {
+            log("[SIMULATED PACKET LOSS - CLIENT SEND]");
+            unanswered++;
+            return null;
+        }
+
+        long startNanos = System.nanoTime();
+        long timeoutMicros = atMostOnceTimeoutMillis > 0 ? atMostOnceTimeoutMillis * 1000L
+                : Math.min(estimator.getScheduleMicros(maxAttempts), retryBudgetMillis * 1000L);
+        socket.send(new DatagramPacket(request, request.length, destination));
+        try {
+            byte[] reply = receiveReply(requestId, timeoutMicros);
+            if (simulatePacketLoss()) {
+                log("[SIMULATED PACKET LOSS - CLIENT RECEIVE]");
+                unanswered++;
+                return null;
+            }
+            recordReply(estimator, startNanos, 1);
+            return reply;
+        } catch (SocketTimeoutException e) {
+            estimator.backOff();
+            unanswered++;
+            log("Timeout after " + timeoutMicros / 1000 + " ms waiting for server response (At-Most-Once). "
+                    + "Request might be lost or server is unavailable.");
+            return null;
+        }
+    }
+
+    // Retransmits the same request (same ID) until a reply arrives; throws the last timeout once every attempt, or the
+    // retry budget, is used. A request lost to simulated loss also waits out the timeout, as a real lost datagram would.
+    public byte[] sendWithRetry(byte[] request) throws IOException {
+        return sendWithRetry(request, destinationOf(request));
+    }
+
+    public byte[] sendWithRetry(byte[] request, InetSocketAddress destination) throws IOException {
+        int requestId = Marshaller.unmarshalHeader(request).getRequestId();
+        RttEstimator estimator = estimatorFor(destination);
+        long startNanos = System.nanoTime();
+        long budgetDeadline = startNanos + retryBudgetMillis * 1_000_000L;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            lastAttempts = attempt;
+            boolean sent = !simulatePacketLoss();
+            if (sent) {
+                socket.send(new DatagramPacket(request, request.length, destination));
+            } else {
+                log("[SIMULATED PACKET LOSS - CLIENT SEND (Retry " + attempt + ")]");
+            }
+            long timeoutMicros = retryTimeoutMillis > 0 ? retryTimeoutMillis * 1000L
+                    : estimator.getRtoMicros() + (long) (random.nextDouble() * JITTER * estimator.getRtoMicros());
+            long remainingMicros = (budgetDeadline - System.nanoTime()) / 1000;
+            boolean lastAttempt = attempt == maxAttempts || timeoutMicros >= remainingMicros;
+            timeoutMicros = Math.max(1, Math.min(timeoutMicros, remainingMicros));
+            try {
+                byte[] reply = receiveReply(requestId, timeoutMicros);
+                if (simulatePacketLoss()) {
+                    log("[SIMULATED PACKET LOSS - CLIENT RECEIVE (Retry " + attempt + ")]");
+                    if (lastAttempt) {
+                        break;
+                    }
+                    continue;
+                }
+                recordReply(estimator, startNanos, attempt);
+                return reply;
+            } catch (SocketTimeoutException e) {
+                if (retryTimeoutMillis == 0) {
+                    estimator.backOff();
+                }
+                log("Timeout after " + timeoutMicros / 1000 + " ms for request ID: " + requestId + ", attempt " + attempt + "...");
+                if (lastAttempt) {
+                    log("Server unavailable after " + attempt + " attempts in " + (System.nanoTime() - startNanos) / 1_000_000
+                            + " ms (At-Least-Once).");
+                    unanswered++;
+                    throw e;
+                }
+            }
+        }
+        unanswered++;
+        return null;
+    }
+
+    // Only a reply to a single transmission is an RTT sample: after a retransmission it may answer either copy
+    private void recordReply(RttEstimator estimator, long startNanos, int attempts) {
+        lastLatencyMicros = (System.nanoTime() - startNanos) / 1000;
+        if (attempts == 1) {
+            estimator.recordSample(lastLatencyMicros);
+        } else {
+            estimator.recordReply();
+        }
+        latency.record(lastLatencyMicros);
+        if (attempts >= answeredByAttempts.length) {
+            answeredByAttempts = Arrays.copyOf(answeredByAttempts, attempts + 1);
+        }
+        answeredByAttempts[attempts]++;
+    }
+
+    // Answered and unanswered requests, latency percentiles, attempts needed and each server's timer
+    public String getStatsReport() {
+        long answered = latency.getTotalCount();
+        StringBuilder report = new StringBuilder();
+        report.append("Requests: ").append(answered).append(" answered, ").append(unanswered).append(" unanswered.\n");
+        if (answered > 0) {
+            report.append(String.format("Latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms.%n",
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0));
+            report.append("Attempts: ").append(describeAttempts(answeredByAttempts)).append(".\n");
+        }
+        for (Map.Entry<InetSocketAddress, RttEstimator> entry : estimators.entrySet()) {
+            report.append("Server ").append(entry.getKey().getHostString()).append(':').append(entry.getKey().getPort())
+                    .append(": ").append(entry.getValue()).append(".\n");
+        }
+        return report.toString().trim();
+    }
+
+    // e.g. "1: 950 (95.0%), 2: 45 (4.5%), 3: 5 (0.5%)"
+    public static String describeAttempts(long[] answeredByAttempts) {
+        long total = 0;
+        for (long count : answeredByAttempts) {
+            total += count;
+        }
+        StringBuilder description = new StringBuilder();
+        for (int attempts = 1; attempts < answeredByAttempts.length; attempts++) {
+            if (answeredByAttempts[attempts] == 0) {
+                continue;
+            }
+            description.append(description.length() == 0 ? "" : ", ").append(attempts).append(": ").append(answeredByAttempts[attempts])
+                    .append(String.format(" (%.1f%%)", answeredByAttempts[attempts] * 100.0 / total));
+        }
+        return description.length() == 0 ? "none" : description.toString();
+    }
+
+    // Waits up to timeoutMicros in total for the reply carrying requestId
+    private byte[] receiveReply(int requestId, long timeoutMicros) throws IOException {
+        long deadline = System.nanoTime() + timeoutMicros * 1000;
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Receive timed out");
+            }
+            socket.setSoTimeout((int) Math.max(1, (remaining + 999_999) / 1_000_000)); // Whole milliseconds, rounded up
+            DatagramPacket responsePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+            socket.receive(responsePacket);
+            if (responsePacket.getLength() >= ProtocolConstants.HEADER_SIZE
+                    && Marshaller.unmarshalHeader(receiveBuffer).getRequestId() == requestId) {
+                // Trim the received data to the actual length
+                return Arrays.copyOf(responsePacket.getData(), responsePacket.getLength());
+            }
+        }
+    }
+
+    private void log(String message) {
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+}
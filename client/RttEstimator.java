@@ -0,0 +1,103 @@
+package client;
+
+// Retransmission timeout for one server, from its measured round-trip times as TCP computes it (Jacobson/Karels,
+// RFC 6298): a smoothed RTT and a smoothed mean deviation, RTO = SRTT + 4 * RTTVAR, clamped to [minRto, maxRto].
+// Only replies to requests sent once are measured (Karn's algorithm): replies carry the request ID alone, so a reply
+// after a retransmission could answer either copy. A timeout doubles the RTO, and the doubled value is kept for the
+// next request until the server answers again, so a server that stopped answering is not flooded. Any reply ends
+// the backoff, as QUIC does, not only a measured one: with random loss, waiting for a measurement would leave the
+// RTO near its maximum after a few unlucky requests.
+// Times are in microseconds. Not thread-safe, like the RequestSender that owns it.
+public class RttEstimator {
+    private static final int ALPHA_SHIFT = 3; // SRTT gain 1/8
+    private static final int BETA_SHIFT = 2; // RTTVAR gain 1/4
+    private static final int K = 4;
+    private static final long CLOCK_GRANULARITY_MICROS = 1000;
+
+    private final long initialRtoMicros;
+    private final long minRtoMicros;
+    private final long maxRtoMicros;
+    private long srttMicros; // 0 until the first measurement
+    private long rttvarMicros;
+    private long rtoMicros; // Before backoff
+    private int backoffShift; // Timeouts since the server last answered
+    private long samples;
+    private long backoffs;
+
+    public RttEstimator(long initialRtoMicros, long minRtoMicros, long maxRtoMicros) {
+        this.minRtoMicros = minRtoMicros;
+        this.maxRtoMicros = Math.max(minRtoMicros, maxRtoMicros);
+        this.initialRtoMicros = clamp(initialRtoMicros);
+        this.rtoMicros = this.initialRtoMicros;
+    }
+
+    public void recordSample(long rttMicros) {
+        long rtt = Math.max(1, rttMicros);
+        if (samples == 0) {
+            srttMicros = rtt;
+            rttvarMicros = rtt / 2;
+        } else {
+            rttvarMicros += (Math.abs(srttMicros - rtt) - rttvarMicros) >> BETA_SHIFT; // Uses SRTT before its update
+            srttMicros += (rtt - srttMicros) >> ALPHA_SHIFT;
+        }
+        samples++;
+        rtoMicros = clamp(srttMicros + Math.max(CLOCK_GRANULARITY_MICROS, K * rttvarMicros));
+        backoffShift = 0;
+    }
+
+    // The server answered, though perhaps not in a way that can be measured
+    public void recordReply() {
+        backoffShift = 0;
+    }
+
+    // A transmission timed out
+    public void backOff() {
+        if (getRtoMicros() < maxRtoMicros) {
+            backoffShift++;
+        }
+        backoffs++;
+    }
+
+    public long getRtoMicros() {
+        return clamp(rtoMicros << backoffShift);
+    }
+
+    // How long the given number of transmissions would wait in all if every one timed out and backed off
+    public long getScheduleMicros(int attempts) {
+        long total = 0;
+        long timeout = getRtoMicros();
+        for (int i = 0; i < attempts; i++) {
+            total += timeout;
+            timeout = clamp(timeout * 2);
+        }
+        return total;
+    }
+
+    public long getSrttMicros() {
+        return srttMicros;
+    }
+
+    public long getRttvarMicros() {
+        return rttvarMicros;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getBackoffs() {
+        return backoffs;
+    }
+
+    private long clamp(long micros) {
+        return Math.min(maxRtoMicros, Math.max(minRtoMicros, micros));
+    }
+
+    @Override
+    public String toString() {
+        return samples == 0
+                ? String.format("no RTT measured yet, RTO %.1f ms", getRtoMicros() / 1000.0)
+                : String.format("SRTT %.2f ms, RTTVAR %.2f ms, RTO %.1f ms (%d samples, %d backoffs)",
+                srttMicros / 1000.0, rttvarMicros / 1000.0, getRtoMicros() / 1000.0, samples, backoffs);
+    }
+}
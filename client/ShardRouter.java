@@ -0,0 +1,52 @@
+package client;
+
+import shared.Marshaller;
+import shared.ShardRing;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+// Picks the shard a marshalled request goes to: requests on a facility go to the shard owning its name, changes
+// and extensions to the shard whose id the confirmation ID starts with, and status requests to the lowest shard.
+// Requests that cannot be routed (e.g. a malformed confirmation ID) also go to the lowest shard, which replies
+// with the error.
+public class ShardRouter {
+    private final ShardRing ring;
+    private final ShardRing.Shard defaultShard;
+
+    public ShardRouter(ShardRing ring) {
+        this.ring = ring;
+        this.defaultShard = ring.getShards().get(0);
+    }
+
+    public ShardRing getRing() {
+        return ring;
+    }
+
+    public InetSocketAddress route(byte[] request) {
+        ByteBuffer message = ByteBuffer.wrap(request);
+        try {
+            switch (Marshaller.readOperationType(message)) {
+                case QUERY_AVAILABILITY:
+                case BOOK_FACILITY:
+                case MONITOR_AVAILABILITY:
+                case BATCH_BOOKING:
+                    return ring.shardOf(Marshaller.readFacilityName(message)).getAddress();
+                case CHANGE_BOOKING:
+                    return routeBooking(Marshaller.readChangeBookingRequest(message).getConfirmationUuid());
+                case EXTEND_BOOKING:
+                    return routeBooking(Marshaller.readExtendBookingRequest(message).getConfirmationUuid());
+                default:
+                    return defaultShard.getAddress();
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return defaultShard.getAddress();
+        }
+    }
+
+    private InetSocketAddress routeBooking(UUID bookingId) {
+        ShardRing.Shard shard = ring.getShard(ShardRing.shardIdOf(bookingId));
+        return (shard != null ? shard : defaultShard).getAddress();
+    }
+}
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# Micro-benchmarks of marshalling, availability and request handling.
+# Arguments are passed to the harness: [-warmup n] [-iterations n] [-time ms] [name filter...]
+# e.g. ./run_bench.sh marshal.book handler.query
+javac shared/*.java server/*.java bench/*.java
+java -Xms512m -Xmx512m bench.Bench "$@"
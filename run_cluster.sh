@@ -0,0 +1,35 @@
+#!/bin/bash
+
+# Starts one server per shard of a cluster config (default cluster.conf) on this machine, each logging to
+# shard-<id>.log, and stops them all on Ctrl-C. Further arguments are passed to every server, e.g.
+# ./run_cluster.sh cluster.conf -semantics at-least-once -workers 4 -catalog facilities.txt
+# Each shard keeps its bookings in data/shard-<id> when -persist is the first of them.
+# Start clients with -cluster <config> so each request goes to the shard that owns it.
+config="cluster.conf"
+if [ -n "$1" ] && [ "${1#-}" = "$1" ]; then
+  config="$1"
+  shift
+fi
+persist=0
+if [ "$1" = "-persist" ]; then
+  persist=1
+  shift
+fi
+
+javac shared/*.java server/*.java
+
+pids=()
+trap 'kill "${pids[@]}" 2>/dev/null' EXIT
+while read -r id host port || [ -n "$id" ]; do
+  case "$id" in
+    ''|'#'*) continue ;;
+  esac
+  data=()
+  if [ "$persist" = 1 ]; then
+    data=(-data-dir "data/shard-$id")
+  fi
+  echo "Starting shard $id on $host:$port (log: shard-$id.log)"
+  java server.BookingServer -cluster "$config" -shard "$id" "${data[@]}" "$@" > "shard-$id.log" 2>&1 &
+  pids+=($!)
+done < "$config"
+wait
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# Closed-loop load against a running server (see run_server.sh).
+# Arguments are passed to the generator, e.g.
+# ./run_loadgen.sh -clients 32 -duration 30 -rate 5000 -semantics at-least-once -loss 0.01 -histogram latency.hgrm
+javac shared/*.java client/*.java
+java client.LoadGenerator "$@"
@@ -1,53 +1,189 @@
 package server;
 
+import java.nio.LongBuffer;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Arrays;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
 import java.util.List;
 
 public class Availability {
-    private boolean[][] weeklyAvailability; // [DayOfWeek (0-6)][Hour (0-23)] - true if available, false if booked
+    public static final int DEFAULT_SLOT_MINUTES = 15;
+    public static final int DEFAULT_HORIZON_DAYS = 28;
+    public static final int MAX_HORIZON_DAYS = 366;
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int MINUTES_PER_DAY = 24 * MINUTES_PER_HOUR;
+    private static final String HOUR_HEADER = buildHourHeader(); // Same for every day, so it is built only once
+    private static final int FIRST_DAY_WORD = 0; // Epoch day of the first date in the horizon
+    private static final int VERSION_COUNTER_WORD = 1; // Last version handed out to a page
+    private static final int PAGES_BASE = 2;
+
+    private final int slotMinutes;
+    private final int slotsPerDay;
+    private final int wordsPerDay;
+    private final int horizonDays;
+    private final int pageWords;
+    // A calendar of horizonDays consecutive dates starting at the first day, kept as a ring of day pages: the page of
+    // date d is at floorMod(d.toEpochDay(), horizonDays), so the horizon rolls forward by clearing the pages of the days
+    // that ended instead of moving anything. A page has one bit per slot, set when the slot is booked, so checks,
+    // bookings and releases are word-masked operations instead of cell-by-cell walks, followed by the page's version.
+    // The words live on the heap, or in a facility's stride of an AvailabilityStore.
+    private final LongBuffer words;
 
     public Availability() {
-        weeklyAvailability = new boolean[7][24];
-        for (int i = 0; i < 7; i++) {
-            Arrays.fill(weeklyAvailability[i], true); // Initially all slots are available
+        this(DEFAULT_SLOT_MINUTES);
+    }
+
+    public Availability(int slotMinutes) {
+        this(slotMinutes, DEFAULT_HORIZON_DAYS, LongBuffer.allocate(wordCount(slotMinutes, DEFAULT_HORIZON_DAYS)), LocalDate.now());
+    }
+
+    // Uses the first wordCount(slotMinutes, horizonDays) words of the buffer, which must be zero for an empty calendar
+    public Availability(int slotMinutes, int horizonDays, LongBuffer words, LocalDate firstDay) {
+        if (slotMinutes <= 0 || MINUTES_PER_HOUR % slotMinutes != 0) {
+            throw new IllegalArgumentException("Slot length must divide an hour evenly: " + slotMinutes);
+        }
+        if (horizonDays < DAYS_PER_WEEK || horizonDays > MAX_HORIZON_DAYS) {
+            // Every day of the week must have a date inside the horizon for the weekday view below
+            throw new IllegalArgumentException("Horizon must be between " + DAYS_PER_WEEK + " and " + MAX_HORIZON_DAYS + " days: " + horizonDays);
         }
+        this.slotMinutes = slotMinutes;
+        this.slotsPerDay = MINUTES_PER_DAY / slotMinutes;
+        this.wordsPerDay = (slotsPerDay + Long.SIZE - 1) / Long.SIZE;
+        this.horizonDays = horizonDays;
+        this.pageWords = wordsPerDay + 1;
+        this.words = words;
+        words.put(FIRST_DAY_WORD, firstDay.toEpochDay());
     }
 
-    public boolean isSlotAvailable(DayOfWeek dayOfWeek, int hour) {
-        return weeklyAvailability[dayOfWeek.getValue() - 1][hour];
+    // Words of slot bits and page versions that one facility needs
+    public static int wordCount(int slotMinutes, int horizonDays) {
+        int slotsPerDay = MINUTES_PER_DAY / slotMinutes;
+        return PAGES_BASE + horizonDays * ((slotsPerDay + Long.SIZE - 1) / Long.SIZE + 1);
     }
 
-    public void markBooked(LocalDateTime startTime, LocalDateTime endTime) {
-        // We do not allow for overnight booking, exception is thrown in request handler before parsing into lower layers
-        // Similarly, we do the checking for startTime and endTime in request handler.
-        int startDay = startTime.getDayOfWeek().getValue();
-        int startHour = startTime.getHour();
-        int endDay = endTime.getDayOfWeek().getValue();
-        int endHour = endTime.getHour();
-        // Note that if user books from say 09:00 to 10:00, both the 09:00 and 10:00 slots will be unavailable
-        for (int i = startDay - 1; i < endDay; i++) {
-            for (int j = startHour; j <= endHour; j++) {
-                weeklyAvailability[i][j] = false;
+    public int getSlotMinutes() {
+        return slotMinutes;
+    }
+
+    public int getHorizonDays() {
+        return horizonDays;
+    }
+
+    public LocalDate getFirstDay() {
+        return LocalDate.ofEpochDay(words.get(FIRST_DAY_WORD));
+    }
+
+    public LocalDate getLastDay() {
+        return LocalDate.ofEpochDay(words.get(FIRST_DAY_WORD) + horizonDays - 1);
+    }
+
+    public boolean covers(LocalDate date) {
+        long offset = date.toEpochDay() - words.get(FIRST_DAY_WORD);
+        return offset >= 0 && offset < horizonDays;
+    }
+
+    // True if every date touched by [startTime, endTime) is inside the horizon
+    public boolean covers(LocalDateTime startTime, LocalDateTime endTime) {
+        LocalDate lastDate = endTime.toLocalTime().equals(LocalTime.MIDNIGHT) && endTime.isAfter(startTime)
+                ? endTime.toLocalDate().minusDays(1) : endTime.toLocalDate();
+        return covers(startTime.toLocalDate()) && covers(lastDate);
+    }
+
+    // The date a day of the week refers to: its next or same occurrence from the first day of the horizon
+    public LocalDate dateOf(DayOfWeek dayOfWeek) {
+        return getFirstDay().with(TemporalAdjusters.nextOrSame(dayOfWeek));
+    }
+
+    // Moves the first day of the horizon forward to today. Each day that ended hands its page over to the date that
+    // enters the horizon at the other end, cleared and with a fresh version, so rolling costs one page per day no
+    // matter how long the horizon or how many bookings there are. Returns the number of days that entered.
+    public int advanceTo(LocalDate today) {
+        long firstDay = words.get(FIRST_DAY_WORD);
+        long days = today.toEpochDay() - firstDay;
+        if (days <= 0) {
+            return 0;
+        }
+        int retired = (int) Math.min(days, horizonDays);
+        for (int i = 0; i < retired; i++) {
+            int page = pageBase(firstDay + i);
+            for (int word = 0; word < wordsPerDay; word++) {
+                words.put(page + word, 0L);
             }
+            bumpVersion(page);
         }
+        words.put(FIRST_DAY_WORD, today.toEpochDay());
+        return retired;
     }
 
-    public void markAvailable(LocalDateTime startTime, LocalDateTime endTime) { // Reverses markBooked - for Change Booking or Cancellation if needed
-        int startDay = startTime.getDayOfWeek().getValue();
-        int startHour = startTime.getHour();
-        int endDay = endTime.getDayOfWeek().getValue();
-        int endHour = endTime.getHour();
-        // Note that if user releases slot from 09:00 to 10:00, both the 09:00 and 10:00 slots will become available
-        for (int i = startDay - 1; i < endDay; i++) {
-            for (int j = startHour; j <= endHour; j++) {
-                weeklyAvailability[i][j] = true;
+    // Frees every slot of the horizon, each page with a fresh version
+    public void clear() {
+        for (int day = 0; day < horizonDays; day++) {
+            int page = PAGES_BASE + day * pageWords;
+            for (int word = 0; word < wordsPerDay; word++) {
+                words.put(page + word, 0L);
             }
+            bumpVersion(page);
         }
     }
 
-    public boolean[][] getWeeklyAvailability() {
+    // An hour is available only if every slot inside it is available
+    public boolean isSlotAvailable(DayOfWeek dayOfWeek, int hour) {
+        return isSlotAvailable(dateOf(dayOfWeek), hour);
+    }
+
+    public boolean isSlotAvailable(LocalDate date, int hour) {
+        int slotsPerHour = MINUTES_PER_HOUR / slotMinutes;
+        return isRangeFree(pageOf(date), hour * slotsPerHour, (hour + 1) * slotsPerHour);
+    }
+
+    public boolean isSlotAvailable(DayOfWeek dayOfWeek, int hour, int minute) {
+        int slot = (hour * MINUTES_PER_HOUR + minute) / slotMinutes;
+        return isRangeFree(pageOf(dateOf(dayOfWeek)), slot, slot + 1);
+    }
+
+    // Bookings cover [startTime, endTime), widened to whole slots, so a 09:00-10:00 booking leaves 10:00 free.
+    // We do not allow for overnight booking, exception is thrown in request handler before parsing into lower layers.
+    // Ranges that do cross midnight (e.g. after a change) are split per date. Dates outside the horizon are never free.
+    public boolean isAvailable(LocalDateTime startTime, LocalDateTime endTime) {
+        if (!covers(startTime, endTime)) {
+            return false;
+        }
+        long day = startTime.toLocalDate().toEpochDay();
+        int fromSlot = startSlot(startTime);
+        long remaining = slotSpan(startTime, endTime);
+        while (remaining > 0) {
+            int toSlot = (int) Math.min(slotsPerDay, fromSlot + remaining);
+            if (!isRangeFree(pageBase(day), fromSlot, toSlot)) {
+                return false;
+            }
+            remaining -= toSlot - fromSlot;
+            day++;
+            fromSlot = 0;
+        }
+        return true;
+    }
+
+    // Marking clips the range to the horizon, e.g. for a recovered booking that started yesterday
+    public void markBooked(LocalDateTime startTime, LocalDateTime endTime) {
+        // We do the checking for startTime and endTime in request handler.
+        updateRange(startTime, endTime, true);
+    }
+
+    public void markAvailable(LocalDateTime startTime, LocalDateTime endTime) { // Reverses markBooked - for Change Booking or Cancellation if needed
+        updateRange(startTime, endTime, false);
+    }
+
+    public boolean[][] getWeeklyAvailability() { // Hourly view: [DayOfWeek (0-6)][Hour (0-23)] - true if available, false if booked
+        boolean[][] weeklyAvailability = new boolean[DAYS_PER_WEEK][24];
+        for (DayOfWeek day : DayOfWeek.values()) {
+            for (int hour = 0; hour < 24; hour++) {
+                weeklyAvailability[day.getValue() - 1][hour] = isSlotAvailable(day, hour);
+            }
+        }
         return weeklyAvailability;
     }
 
@@ -55,17 +191,171 @@ public class Availability {
         StringBuilder availabilityInfo = new StringBuilder("Availability:");
         availabilityInfo.append("\n");
         for (DayOfWeek day : days) {
-            availabilityInfo.append(day).append(":\n");
-            availabilityInfo.append("     ");
-            for (int hour = 0; hour < 24; hour++) {
-                availabilityInfo.append(String.format("%02d ", hour));
+            appendDay(availabilityInfo, day);
+        }
+        return availabilityInfo.toString();
+    }
+
+    // One day of the availability grid, e.g. "MONDAY:\n     00 01 ... 23 \n      O  X ...\n"
+    public void appendDay(StringBuilder availabilityInfo, DayOfWeek day) {
+        availabilityInfo.append(day).append(":\n");
+        appendGrid(availabilityInfo, dateOf(day));
+    }
+
+    // Same as appendDay with the date in the label, e.g. "2026-10-19 MONDAY:\n..."
+    public void appendDate(StringBuilder availabilityInfo, LocalDate date) {
+        availabilityInfo.append(date).append(' ').append(date.getDayOfWeek()).append(":\n");
+        appendGrid(availabilityInfo, date);
+    }
+
+    // The hour header and hour row of one date, without a label
+    public void appendGrid(StringBuilder availabilityInfo, LocalDate date) {
+        availabilityInfo.append(HOUR_HEADER);
+        int base = pageOf(date);
+        int slotsPerHour = MINUTES_PER_HOUR / slotMinutes;
+        int loadedWord = -1;
+        long bits = 0;
+        for (int hour = 0; hour < 24; hour++) {
+            int fromSlot = hour * slotsPerHour;
+            int lastSlot = fromSlot + slotsPerHour - 1;
+            boolean available;
+            if (fromSlot >>> 6 == lastSlot >>> 6) {
+                // Hours within one word test a mask of the word loaded for the previous hour
+                if (fromSlot >>> 6 != loadedWord) {
+                    loadedWord = fromSlot >>> 6;
+                    bits = words.get(base + loadedWord);
+                }
+                available = (bits & (-1L << fromSlot) & (-1L >>> (63 - (lastSlot & 63)))) == 0;
+            } else {
+                available = isRangeFree(base, fromSlot, lastSlot + 1);
             }
-            availabilityInfo.append("\n     ");
-            for (int hour = 0; hour < 24; hour++) {
-                availabilityInfo.append(weeklyAvailability[day.getValue() - 1][hour] ? " O " : " X ");
+            availabilityInfo.append(available ? " O " : " X ");
+        }
+        availabilityInfo.append("\n");
+    }
+
+    // Slot bits of one day as bytes, least significant bit first, for the binary availability encoding
+    public byte[] toDayBitmap(DayOfWeek day) {
+        return toDateBitmap(dateOf(day));
+    }
+
+    public byte[] toDateBitmap(LocalDate date) {
+        byte[] bitmap = new byte[(slotsPerDay + 7) / 8];
+        int base = pageOf(date);
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = (byte) (words.get(base + (i >>> 3)) >>> ((i & 7) * 8));
+        }
+        return bitmap;
+    }
+
+    // Changes whenever the date's slots change. Readers remember the version they rendered and compare later,
+    // so several of them (snapshots, monitor updates) can each tell which days changed since they last looked.
+    // Versions come from one counter per facility, so a page reused for a later date never repeats an old version.
+    public long getDayVersion(DayOfWeek day) {
+        return getDateVersion(dateOf(day));
+    }
+
+    public long getDateVersion(LocalDate date) {
+        return words.get(pageOf(date) + wordsPerDay);
+    }
+
+    private static String buildHourHeader() {
+        StringBuilder header = new StringBuilder("     ");
+        for (int hour = 0; hour < 24; hour++) {
+            header.append(hour < 10 ? "0" : "").append(hour).append(' ');
+        }
+        return header.append("\n     ").toString();
+    }
+
+    // --- Slot bitmap helpers ---
+
+    private int pageBase(long epochDay) {
+        return PAGES_BASE + (int) Math.floorMod(epochDay, (long) horizonDays) * pageWords;
+    }
+
+    private int pageOf(LocalDate date) {
+        if (!covers(date)) {
+            throw new IllegalArgumentException("Date " + date + " is outside the booking horizon " + getFirstDay() + " to " + getLastDay() + ".");
+        }
+        return pageBase(date.toEpochDay());
+    }
+
+    private void bumpVersion(int page) {
+        long version = words.get(VERSION_COUNTER_WORD) + 1;
+        words.put(VERSION_COUNTER_WORD, version);
+        words.put(page + wordsPerDay, version);
+    }
+
+    private int startSlot(LocalDateTime time) {
+        return (time.getHour() * MINUTES_PER_HOUR + time.getMinute()) / slotMinutes;
+    }
+
+    // Number of slots touched by [startTime, endTime), zero for an empty or reversed range
+    private long slotSpan(LocalDateTime startTime, LocalDateTime endTime) {
+        long minutes = ChronoUnit.MINUTES.between(startTime, endTime);
+        if (minutes <= 0) {
+            return 0;
+        }
+        long startMinute = startTime.getHour() * MINUTES_PER_HOUR + startTime.getMinute();
+        long fromSlot = startMinute / slotMinutes;
+        long toSlot = (startMinute + minutes + slotMinutes - 1) / slotMinutes; // Round a partial last slot up
+        return toSlot - fromSlot;
+    }
+
+    private void updateRange(LocalDateTime startTime, LocalDateTime endTime, boolean booked) {
+        long firstDay = words.get(FIRST_DAY_WORD);
+        long day = startTime.toLocalDate().toEpochDay();
+        int fromSlot = startSlot(startTime);
+        long remaining = slotSpan(startTime, endTime);
+        while (remaining > 0 && day < firstDay + horizonDays) {
+            int toSlot = (int) Math.min(slotsPerDay, fromSlot + remaining);
+            if (day >= firstDay) {
+                updateRange(pageBase(day), fromSlot, toSlot, booked);
             }
-            availabilityInfo.append("\n");
+            remaining -= toSlot - fromSlot;
+            day++;
+            fromSlot = 0;
+        }
+    }
+
+    // Slots [fromSlot, toSlot) of the page at base
+    private boolean isRangeFree(int base, int fromSlot, int toSlot) {
+        int lastSlot = toSlot - 1;
+        int fromWord = fromSlot >>> 6;
+        int toWord = lastSlot >>> 6;
+        long firstMask = -1L << fromSlot;        // Shift distance is taken mod 64
+        long lastMask = -1L >>> (63 - (lastSlot & 63));
+        if (fromWord == toWord) {
+            return (words.get(base + fromWord) & firstMask & lastMask) == 0;
+        }
+        if ((words.get(base + fromWord) & firstMask) != 0) {
+            return false;
+        }
+        for (int word = fromWord + 1; word < toWord; word++) {
+            if (words.get(base + word) != 0) {
+                return false;
+            }
+        }
+        return (words.get(base + toWord) & lastMask) == 0;
+    }
+
+    private void updateRange(int base, int fromSlot, int toSlot, boolean booked) {
+        bumpVersion(base);
+        int lastSlot = toSlot - 1;
+        int fromWord = fromSlot >>> 6;
+        int toWord = lastSlot >>> 6;
+        long firstMask = -1L << fromSlot;
+        long lastMask = -1L >>> (63 - (lastSlot & 63));
+        for (int word = fromWord; word <= toWord; word++) {
+            long mask = -1L;
+            if (word == fromWord) {
+                mask &= firstMask;
+            }
+            if (word == toWord) {
+                mask &= lastMask;
+            }
+            long current = words.get(base + word);
+            words.put(base + word, booked ? current | mask : current & ~mask);
         }
-        return availabilityInfo.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package server;
+
+import shared.Marshaller;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable, pre-encoded availability of one facility at a given version. Queries only copy the cached
+// bytes of the requested days; formatting happens once per change instead of once per query.
+public final class AvailabilitySnapshot {
+    private static final byte[] HEADER = "Availability:\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[][] DAY_LABELS = dayLabels(); // "MONDAY:\n" etc., indexed by DayOfWeek.getValue() - 1
+    private static final int DAYS_PER_WEEK = 7;
+
+    private final long version;
+    private final int slotMinutes;
+    private final LocalDate firstDay;
+    private final byte[][] encodedGrids; // Indexed by days since firstDay, the hour grid without a label
+    private final byte[][] dateBitmaps; // Same indexing, slot bitmaps for the binary encoding
+    private final long[] dateVersions; // Same indexing, Availability.getDateVersion at build time
+    private final long[] dayVersions; // Indexed by DayOfWeek.getValue() - 1, Availability.getDayVersion at build time
+
+    private AvailabilitySnapshot(long version, int slotMinutes, LocalDate firstDay, byte[][] encodedGrids, byte[][] dateBitmaps,
+                                 long[] dateVersions, long[] dayVersions) {
+        this.version = version;
+        this.slotMinutes = slotMinutes;
+        this.firstDay = firstDay;
+        this.encodedGrids = encodedGrids;
+        this.dateBitmaps = dateBitmaps;
+        this.dateVersions = dateVersions;
+        this.dayVersions = dayVersions;
+    }
+
+    // Must be called under the facility's lock. Dates that have not changed since the previous snapshot
+    // reuse its encoded bytes; only changed dates (and dates that entered the horizon) are re-rendered.
+    static AvailabilitySnapshot build(Availability availability, long version, AvailabilitySnapshot previous) {
+        int horizonDays = availability.getHorizonDays();
+        LocalDate firstDay = availability.getFirstDay();
+        byte[][] encodedGrids = new byte[horizonDays][];
+        byte[][] dateBitmaps = new byte[horizonDays][];
+        long[] dateVersions = new long[horizonDays];
+        StringBuilder gridText = new StringBuilder(192);
+        for (int index = 0; index < horizonDays; index++) {
+            LocalDate date = firstDay.plusDays(index);
+            dateVersions[index] = availability.getDateVersion(date);
+            int previousIndex = previous != null ? previous.indexOf(date) : -1;
+            if (previousIndex >= 0 && previous.dateVersions[previousIndex] == dateVersions[index]) {
+                encodedGrids[index] = previous.encodedGrids[previousIndex];
+                dateBitmaps[index] = previous.dateBitmaps[previousIndex];
+            } else {
+                gridText.setLength(0);
+                availability.appendGrid(gridText, date);
+                encodedGrids[index] = gridText.toString().getBytes(StandardCharsets.UTF_8);
+                dateBitmaps[index] = availability.toDateBitmap(date);
+            }
+        }
+        long[] dayVersions = new long[DAYS_PER_WEEK];
+        for (DayOfWeek day : DayOfWeek.values()) {
+            dayVersions[day.getValue() - 1] = availability.getDayVersion(day);
+        }
+        return new AvailabilitySnapshot(version, availability.getSlotMinutes(), firstDay, encodedGrids, dateBitmaps,
+                dateVersions, dayVersions);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    public boolean covers(LocalDate date) {
+        return indexOf(date) >= 0;
+    }
+
+    // Days whose slots changed between an older snapshot of the same facility and this one, in week order.
+    // Every day counts as changed when there is no older snapshot. A day whose date moved on with the horizon
+    // counts as changed too, since its page carries a version the older snapshot never saw. Only the coming week is
+    // compared, as that is all monitors are sent: a change on a later date of the horizon finds no changed day.
+    public List<DayOfWeek> changedDaysSince(AvailabilitySnapshot older) {
+        List<DayOfWeek> changed = new ArrayList<>(DAYS_PER_WEEK);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            int index = day.getValue() - 1;
+            if (older == null || older.dayVersions[index] != dayVersions[index]) {
+                changed.add(day);
+            }
+        }
+        return changed;
+    }
+
+    // Binary encoding of the requested days, see Marshaller.marshalAvailabilityBitmap
+    public byte[] renderBinary(List<DayOfWeek> days) {
+        byte[][] dayBitmaps = new byte[DAYS_PER_WEEK][];
+        for (DayOfWeek day : days) {
+            dayBitmaps[day.getValue() - 1] = dateBitmaps[weekdayIndex(day)];
+        }
+        return Marshaller.marshalAvailabilityBitmap(slotMinutes, days, dayBitmaps);
+    }
+
+    // Binary encoding of the requested dates, see Marshaller.marshalAvailabilityBitmapForDates.
+    // Every date must be inside the snapshot's horizon.
+    public byte[] renderBinaryDates(List<LocalDate> dates) {
+        List<byte[]> bitmaps = new ArrayList<>(dates.size());
+        for (LocalDate date : dates) {
+            bitmaps.add(dateBitmaps[indexOf(date)]);
+        }
+        return Marshaller.marshalAvailabilityBitmapForDates(slotMinutes, dates, bitmaps);
+    }
+
+    // Size of render(days) without rendering
+    public int renderedLength(List<DayOfWeek> days) {
+        int length = HEADER.length;
+        for (DayOfWeek day : days) {
+            length += DAY_LABELS[day.getValue() - 1].length + encodedGrids[weekdayIndex(day)].length;
+        }
+        return length;
+    }
+
+    // Same bytes as Availability.toString(days) encoded in UTF-8
+    public byte[] render(List<DayOfWeek> days) {
+        byte[] rendered = new byte[renderedLength(days)];
+        System.arraycopy(HEADER, 0, rendered, 0, HEADER.length);
+        int offset = HEADER.length;
+        for (DayOfWeek day : days) {
+            offset = append(rendered, offset, DAY_LABELS[day.getValue() - 1]);
+            offset = append(rendered, offset, encodedGrids[weekdayIndex(day)]);
+        }
+        return rendered;
+    }
+
+    // Text grid of the requested dates, labelled with the date, e.g. "2026-10-19 MONDAY:".
+    // Every date must be inside the snapshot's horizon.
+    public byte[] renderDates(List<LocalDate> dates) {
+        byte[][] labels = new byte[dates.size()][];
+        int length = HEADER.length;
+        for (int i = 0; i < dates.size(); i++) {
+            LocalDate date = dates.get(i);
+            labels[i] = (date + " " + date.getDayOfWeek() + ":\n").getBytes(StandardCharsets.UTF_8);
+            length += labels[i].length + encodedGrids[indexOf(date)].length;
+        }
+        byte[] rendered = new byte[length];
+        int offset = append(rendered, 0, HEADER);
+        for (int i = 0; i < dates.size(); i++) {
+            offset = append(rendered, offset, labels[i]);
+            offset = append(rendered, offset, encodedGrids[indexOf(dates.get(i))]);
+        }
+        return rendered;
+    }
+
+    private int indexOf(LocalDate date) {
+        long index = date.toEpochDay() - firstDay.toEpochDay();
+        return index >= 0 && index < encodedGrids.length ? (int) index : -1;
+    }
+
+    // Days from firstDay to the next or same occurrence of the day, as in Availability.dateOf
+    private int weekdayIndex(DayOfWeek day) {
+        return Math.floorMod(day.getValue() - firstDay.getDayOfWeek().getValue(), DAYS_PER_WEEK);
+    }
+
+    private static int append(byte[] target, int offset, byte[] bytes) {
+        System.arraycopy(bytes, 0, target, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private static byte[][] dayLabels() {
+        byte[][] labels = new byte[DAYS_PER_WEEK][];
+        for (DayOfWeek day : DayOfWeek.values()) {
+            labels[day.getValue() - 1] = (day + ":\n").getBytes(StandardCharsets.UTF_8);
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,156 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Availability words of every facility in one memory-mapped file, a fixed stride per facility id, so a catalog of
+// tens of thousands of facilities costs a page-cache-backed mapping instead of a heap array per facility, and cold
+// facilities can be paged out by the OS.
+//
+// Layout: a 64-byte header (long magic, int format version, int slot minutes, int facility count, int stride in
+// words, int horizon days, int state, long catalog checksum, long booking log sequence), then facility i's words at
+// byte 64 + i * stride * 8.
+// Bookings are the source of truth, so the words are only kept from an earlier run that shut down cleanly with the
+// same catalog and layout: close records the booking log sequence the words reflect and marks the file clean, and
+// opening marks it dirty again before anything changes. Recovery then replays the bookings over the kept words,
+// touching only the pages of facilities with bookings instead of clearing the whole file; if it ends at another
+// sequence (needsRebuild), the facility service rebuilds the words from the bookings. Any other file is cleared.
+public class AvailabilityStore {
+    private static final long MAGIC = 0x415641494C4D4150L; // "AVAILMAP"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int STATE_OFFSET = 28;
+    private static final int CATALOG_CHECKSUM_OFFSET = 32;
+    private static final int SEQUENCE_OFFSET = 40;
+    private static final int DIRTY = 0;
+    private static final int CLEAN = 1;
+
+    private final int slotMinutes;
+    private final int horizonDays;
+    private final int facilityCount;
+    private final int strideWords;
+    private final MappedByteBuffer mapping;
+    private final LongBuffer words;
+    private final boolean reused; // Words kept from a clean shutdown
+    private final long cleanSequence; // Booking log sequence the kept words reflect
+
+    private AvailabilityStore(int slotMinutes, int horizonDays, int facilityCount, MappedByteBuffer mapping,
+                              boolean reused, long cleanSequence) {
+        this.slotMinutes = slotMinutes;
+        this.horizonDays = horizonDays;
+        this.facilityCount = facilityCount;
+        this.strideWords = Availability.wordCount(slotMinutes, horizonDays);
+        this.mapping = mapping;
+        this.words = mapping.position(HEADER_SIZE).slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+        this.reused = reused;
+        this.cleanSequence = cleanSequence;
+    }
+
+    // Facility ids are positions in facilityNames
+    public static AvailabilityStore map(Path file, List<String> facilityNames, int slotMinutes, int horizonDays) throws IOException {
+        int facilityCount = facilityNames.size();
+        int strideWords = Availability.wordCount(slotMinutes, horizonDays);
+        long size = HEADER_SIZE + (long) facilityCount * strideWords * Long.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Catalog of " + facilityCount + " facilities does not fit in one mapping");
+        }
+        long catalogChecksum = checksum(facilityNames);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean reusable = channel.size() == size;
+            if (!reusable) {
+                channel.truncate(size); // Drops the words of facilities from a larger earlier catalog
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // Stays valid after close
+            reusable = reusable && mapping.getLong(0) == MAGIC && mapping.getInt(8) == FORMAT_VERSION
+                    && mapping.getInt(12) == slotMinutes && mapping.getInt(16) == facilityCount
+                    && mapping.getInt(20) == strideWords && mapping.getInt(24) == horizonDays
+                    && mapping.getInt(STATE_OFFSET) == CLEAN && mapping.getLong(CATALOG_CHECKSUM_OFFSET) == catalogChecksum;
+            long cleanSequence = reusable ? mapping.getLong(SEQUENCE_OFFSET) : -1;
+
+            mapping.putLong(0, MAGIC);
+            mapping.putInt(8, FORMAT_VERSION);
+            mapping.putInt(12, slotMinutes);
+            mapping.putInt(16, facilityCount);
+            mapping.putInt(20, strideWords);
+            mapping.putInt(24, horizonDays);
+            mapping.putInt(STATE_OFFSET, DIRTY);
+            mapping.putLong(CATALOG_CHECKSUM_OFFSET, catalogChecksum);
+            mapping.putLong(SEQUENCE_OFFSET, -1);
+            mapping.force(); // Dirty on disk before any word changes, so a crash from here on is detected
+            AvailabilityStore store = new AvailabilityStore(slotMinutes, horizonDays, facilityCount, mapping, reusable, cleanSequence);
+            if (!reusable) {
+                store.clear();
+            }
+            return store;
+        }
+    }
+
+    // Availability of one facility, backed by its stride of the mapping. Called once per facility. Kept words are
+    // rolled forward from the first day they were saved with, as a running calendar would have been.
+    public Availability availabilityOf(int facilityId, LocalDate firstDay) {
+        if (facilityId < 0 || facilityId >= facilityCount) {
+            throw new IndexOutOfBoundsException("Facility id " + facilityId + " outside catalog of " + facilityCount);
+        }
+        LongBuffer stride = words.slice(facilityId * strideWords, strideWords);
+        long savedFirstDay = stride.get(0); // Availability keeps its first day in word 0
+        if (!reused || savedFirstDay > firstDay.toEpochDay()) {
+            for (int i = 0; i < strideWords; i++) {
+                stride.put(i, 0L);
+            }
+            return new Availability(slotMinutes, horizonDays, stride, firstDay);
+        }
+        Availability availability = new Availability(slotMinutes, horizonDays, stride, LocalDate.ofEpochDay(savedFirstDay));
+        availability.advanceTo(firstDay);
+        return availability;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    // True if the kept words do not reflect the bookings recovery ended with, e.g. after the booking log lost its
+    // unsynced tail, or when bookings are not persisted at all (recoveredSequence -1)
+    public boolean needsRebuild(long recoveredSequence) {
+        return reused && (recoveredSequence < 0 || recoveredSequence != cleanSequence);
+    }
+
+    // Called after the last booking change, once the booking log holding everything up to sequence is closed
+    public void close(long sequence) {
+        mapping.force();
+        mapping.putLong(SEQUENCE_OFFSET, sequence);
+        mapping.putInt(STATE_OFFSET, CLEAN);
+        mapping.force();
+    }
+
+    public int getFacilityCount() {
+        return facilityCount;
+    }
+
+    public long getMappedBytes() {
+        return mapping.capacity();
+    }
+
+    private void clear() {
+        for (int i = 0; i < words.capacity(); i++) {
+            words.put(i, 0L);
+        }
+    }
+
+    private static long checksum(List<String> facilityNames) {
+        CRC32C crc = new CRC32C();
+        for (String name : facilityNames) {
+            crc.update(name.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+}
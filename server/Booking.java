@@ -6,11 +6,16 @@ import java.util.UUID;
 public class Booking {
     private UUID bookingId;
     private String facilityName;
-    private LocalDateTime startTime;
-    private LocalDateTime endTime;
+    private volatile LocalDateTime startTime; // Changed under the owning facility's lock
+    private volatile LocalDateTime endTime;
 
     public Booking(String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
-        this.bookingId = UUID.randomUUID(); // Generate unique ID for each booking
+        this(UUID.randomUUID(), facilityName, startTime, endTime); // Generate unique ID for each booking
+    }
+
+    // A booking restored from disk keeps the confirmation ID it was given
+    public Booking(UUID bookingId, String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
+        this.bookingId = bookingId;
         this.facilityName = facilityName;
         this.startTime = startTime;
         this.endTime = endTime;
@@ -0,0 +1,128 @@
+package server;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+// The bookings of one facility ordered by start time, so bookings are added and removed in O(log n) and the bookings
+// overlapping a time range are found without a scan. A booking overlapping [from, to) must start before to and no
+// earlier than from minus the longest booking held, so an overlap query only visits bookings starting in that window.
+// Bookings of a facility do not overlap each other, which keeps the window to a handful of entries.
+// Not thread-safe: like the rest of a facility, it is guarded by the facility's lock. A booking's times must not
+// change while it is in the index; remove it, change it, and add it back.
+public class BookingIndex extends AbstractCollection<Booking> {
+    private static final Comparator<Entry> ORDER = Comparator.comparing((Entry entry) -> entry.startTime)
+            .thenComparing(entry -> entry.bookingId);
+
+    private final NavigableSet<Entry> entries = new TreeSet<>(ORDER);
+    private Duration longest = Duration.ZERO; // Only grows, which keeps overlap queries correct after removals
+
+    // Times are copied into the entry, so the set's order cannot be broken by a booking that changes later
+    private static final class Entry {
+        private final LocalDateTime startTime;
+        private final UUID bookingId;
+        private final Booking booking; // Null for search keys
+
+        private Entry(LocalDateTime startTime, UUID bookingId, Booking booking) {
+            this.startTime = startTime;
+            this.bookingId = bookingId;
+            this.booking = booking;
+        }
+    }
+
+    @Override
+    public boolean add(Booking booking) {
+        Duration duration = Duration.between(booking.getStartTime(), booking.getEndTime());
+        if (duration.compareTo(longest) > 0) {
+            longest = duration;
+        }
+        return entries.add(new Entry(booking.getStartTime(), booking.getBookingId(), booking));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Booking)) {
+            return false;
+        }
+        Booking booking = (Booking) o;
+        return entries.remove(new Entry(booking.getStartTime(), booking.getBookingId(), null));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Booking)) {
+            return false;
+        }
+        Booking booking = (Booking) o;
+        return entries.contains(new Entry(booking.getStartTime(), booking.getBookingId(), null));
+    }
+
+    // Bookings that share at least a minute with [from, to), in start order
+    public List<Booking> overlapping(LocalDateTime from, LocalDateTime to) {
+        List<Booking> overlapping = new ArrayList<>(2);
+        Entry lowest = new Entry(from.minus(longest), new UUID(Long.MIN_VALUE, Long.MIN_VALUE), null);
+        for (Entry entry : entries.tailSet(lowest, true)) {
+            if (!entry.startTime.isBefore(to)) {
+                break;
+            }
+            if (entry.booking.getEndTime().isAfter(from)) {
+                overlapping.add(entry.booking);
+            }
+        }
+        return overlapping;
+    }
+
+    // The first booking overlapping [from, to), or null if the range is free
+    public Booking firstOverlapping(LocalDateTime from, LocalDateTime to) {
+        List<Booking> overlapping = overlapping(from, to);
+        return overlapping.isEmpty() ? null : overlapping.get(0);
+    }
+
+    // Removes and returns the bookings that ended at or before the given time, visiting only those that started before it
+    public List<Booking> removeEndedBy(LocalDateTime time) {
+        List<Booking> ended = new ArrayList<>();
+        Entry bound = new Entry(time, new UUID(Long.MIN_VALUE, Long.MIN_VALUE), null);
+        for (Iterator<Entry> iterator = entries.headSet(bound, false).iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (!entry.booking.getEndTime().isAfter(time)) {
+                iterator.remove();
+                ended.add(entry.booking);
+            }
+        }
+        return ended;
+    }
+
+    // In start order
+    @Override
+    public Iterator<Booking> iterator() {
+        Iterator<Entry> iterator = entries.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Booking next() {
+                return iterator.next().booking;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+}
@@ -1,28 +1,43 @@
 package server;
 
+import server.logging.Log;
+import server.logging.LogLevel;
+import server.persistence.BookingStore;
+import server.persistence.WriteAheadLog;
+import server.replication.ReplicationPrimary;
+import server.replication.ReplicationStandby;
+import shared.ShardRing;
 import shared.constants.ArgumentConstants;
 import shared.constants.ProtocolConstants;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
 
 public class BookingServer {
 
-    private DatagramSocket socket;
-    private ArgumentConstants.Semantics semantics;
+    private DatagramTransport transport;
+    private final int channelCount;
+    private final ArgumentConstants.Semantics semantics;
+    private final RequestDispatcher requestDispatcher;
 
     private final RequestHandler requestHandler;
     private final FacilityService facilityService;
     private final MessageService messageService;
-
-    byte[] buffer = new byte[ProtocolConstants.MAX_MESSAGE_SIZE];
+    private final ShardRing.Shard shard; // Null when not part of a cluster
+    private final int catalogSize;
+    private final String metricsFile; // Null when metrics are not dumped
+    private final long metricsIntervalMillis;
+    private final ReplicationPrimary replication; // Null when there is no standby
+    private final ReplicationStandby standby; // Null unless this server starts as a standby
+    private final AvailabilityStore availabilityStore; // Null when availability is kept on the heap
+    private final CountDownLatch stopped = new CountDownLatch(1); // Counted down once start() has shut everything down
 
     public static void main(String[] args) {
-        BookingServer server = new BookingServer();
-        int port = ProtocolConstants.SERVER_PORT; // Default port
+        ServerConfig config = new ServerConfig();
         String semanticsArg = null;
 
         for (int i = 0; i < args.length; i++) {
@@ -34,77 +49,430 @@ public class BookingServer {
             switch (arg) {
                 case ArgumentConstants.PORT:
                     try {
-                        port = Integer.parseInt(args[i + 1]);
+                        config.port = Integer.parseInt(args[i + 1]);
                         i++;  // Skip the next argument (port value)
                     } catch (NumberFormatException e) {
-                        System.err.println("Invalid port number provided. Using default port: " + port);
+                        System.err.println("Invalid port number provided. Using default port: " + config.port);
                     }
                     break;
                 case ArgumentConstants.SEMANTICS:
                     semanticsArg = args[i + 1];
                     i++;  // Skip the next argument (semantics value)
                     break;
+                case ArgumentConstants.WORKERS:
+                    try {
+                        config.workerCount = Math.max(0, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (worker count)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid worker count provided. Processing requests on the receive thread.");
+                    }
+                    break;
+                case ArgumentConstants.WORKER_TYPE:
+                    try {
+                        config.workerType = ArgumentConstants.WorkerType.fromString(args[i + 1]);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage() + ". Using platform threads.");
+                    }
+                    i++;  // Skip the next argument (worker type)
+                    break;
+                case ArgumentConstants.SLOT_MINUTES:
+                    try {
+                        config.slotMinutes = Integer.parseInt(args[i + 1]);
+                        i++;  // Skip the next argument (slot length)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid slot length provided. Using default: " + config.slotMinutes + " minutes");
+                    }
+                    break;
+                case ArgumentConstants.HORIZON_DAYS:
+                    try {
+                        config.horizonDays = Integer.parseInt(args[i + 1]);
+                        i++;  // Skip the next argument (horizon in days)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid booking horizon provided. Using default: " + config.horizonDays + " days");
+                    }
+                    break;
+                case ArgumentConstants.HISTORY_TTL:
+                    try {
+                        config.historyTtlMillis = Math.max(1, Long.parseLong(args[i + 1])) * 1000L;
+                        i++;  // Skip the next argument (TTL in seconds)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid request history TTL provided. Using default: " + config.historyTtlMillis / 1000 + " seconds");
+                    }
+                    break;
+                case ArgumentConstants.HISTORY_SIZE:
+                    try {
+                        config.historyMaxEntries = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (entry cap)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid request history size provided. Using default: " + config.historyMaxEntries);
+                    }
+                    break;
+                case ArgumentConstants.DEDUP_FINGERPRINT:
+                    config.dedupFingerprint = !"off".equalsIgnoreCase(args[i + 1]) && !"false".equalsIgnoreCase(args[i + 1]);
+                    i++;  // Skip the next argument (on/off)
+                    break;
+                case ArgumentConstants.REPLY_CACHE_SIZE:
+                    try {
+                        config.replyCacheMaxEntries = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (entry cap)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid reply cache size provided. Using default: " + config.replyCacheMaxEntries);
+                    }
+                    break;
+                case ArgumentConstants.CHANNELS:
+                    try {
+                        config.channelCount = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (channel count)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid channel count provided. Receiving on a single channel.");
+                    }
+                    break;
+                case ArgumentConstants.MONITOR_DEBOUNCE:
+                    try {
+                        config.monitorDebounceMillis = Math.max(0, Long.parseLong(args[i + 1]));
+                        i++;  // Skip the next argument (window in milliseconds)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid monitor debounce window provided. Using default: " + config.monitorDebounceMillis + " ms");
+                    }
+                    break;
+                case ArgumentConstants.FANOUT_WORKERS:
+                    try {
+                        config.fanoutWorkers = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (worker count)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid monitor fan-out worker count provided. Using default: " + config.fanoutWorkers);
+                    }
+                    break;
+                case ArgumentConstants.FANOUT_QUEUE:
+                    try {
+                        config.fanoutQueueCapacity = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (queue capacity)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid monitor fan-out queue capacity provided. Using default: " + config.fanoutQueueCapacity);
+                    }
+                    break;
+                case ArgumentConstants.CATALOG:
+                    config.catalogFile = args[i + 1];
+                    i++;  // Skip the next argument (file)
+                    break;
+                case ArgumentConstants.AVAILABILITY_FILE:
+                    config.availabilityFile = args[i + 1];
+                    i++;  // Skip the next argument (file)
+                    break;
+                case ArgumentConstants.DATA_DIR:
+                    config.dataDirectory = args[i + 1];
+                    i++;  // Skip the next argument (directory)
+                    break;
+                case ArgumentConstants.FSYNC:
+                    config.fsync = !"off".equalsIgnoreCase(args[i + 1]) && !"false".equalsIgnoreCase(args[i + 1]);
+                    i++;  // Skip the next argument (on/off)
+                    break;
+                case ArgumentConstants.FSYNC_DELAY:
+                    try {
+                        config.fsyncDelayMillis = Math.max(0, Long.parseLong(args[i + 1]));
+                        i++;  // Skip the next argument (delay in milliseconds)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid fsync delay provided. Using default: " + config.fsyncDelayMillis + " ms");
+                    }
+                    break;
+                case ArgumentConstants.SNAPSHOT_EVERY:
+                    try {
+                        config.snapshotEveryRecords = Math.max(1, Long.parseLong(args[i + 1]));
+                        i++;  // Skip the next argument (record count)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid snapshot interval provided. Using default: " + config.snapshotEveryRecords + " records");
+                    }
+                    break;
+                case ArgumentConstants.LOG_LEVEL:
+                    try {
+                        config.logLevel = LogLevel.fromString(args[i + 1]);
+                        i++;  // Skip the next argument (log level)
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage() + ". Using default: " + config.logLevel.getValue());
+                    }
+                    break;
+                case ArgumentConstants.METRICS_FILE:
+                    config.metricsFile = args[i + 1];
+                    i++;  // Skip the next argument (file)
+                    break;
+                case ArgumentConstants.METRICS_INTERVAL:
+                    try {
+                        config.metricsIntervalMillis = Math.max(1, Long.parseLong(args[i + 1])) * 1000L;
+                        i++;  // Skip the next argument (interval in seconds)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid metrics interval provided. Using default: " + config.metricsIntervalMillis / 1000 + " seconds");
+                    }
+                    break;
+                case ArgumentConstants.CLUSTER:
+                    config.clusterFile = args[i + 1];
+                    i++;  // Skip the next argument (file)
+                    break;
+                case ArgumentConstants.SHARD:
+                    try {
+                        config.shardId = Integer.parseInt(args[i + 1]);
+                        i++;  // Skip the next argument (shard id)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid shard id provided.");
+                    }
+                    break;
+                case ArgumentConstants.REPLICATE_TO:
+                    try {
+                        config.replicateTo = parseAddress(args[i + 1]);
+                        i++;  // Skip the next argument (standby address)
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid standby address provided, expected <host>:<port>. Not replicating.");
+                    }
+                    break;
+                case ArgumentConstants.REPLICATION_ACK:
+                    try {
+                        config.replicationAck = ArgumentConstants.ReplicationAck.fromString(args[i + 1]);
+                        i++;  // Skip the next argument (ack mode)
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage() + ". Using default: " + config.replicationAck.getValue());
+                    }
+                    break;
+                case ArgumentConstants.REPLICATION_BATCH:
+                    try {
+                        config.replicationBatchSize = Math.max(1, Integer.parseInt(args[i + 1]));
+                        i++;  // Skip the next argument (messages per batch)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid replication batch size provided. Using default: " + config.replicationBatchSize);
+                    }
+                    break;
+                case ArgumentConstants.REPLICATION_TIMEOUT:
+                    try {
+                        config.replicationTimeoutMillis = Math.max(1, Long.parseLong(args[i + 1]));
+                        i++;  // Skip the next argument (timeout in milliseconds)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid replication timeout provided. Using default: " + config.replicationTimeoutMillis + " ms");
+                    }
+                    break;
+                case ArgumentConstants.STANDBY:
+                    try {
+                        config.standbyPort = Integer.parseInt(args[i + 1]);
+                        i++;  // Skip the next argument (replication port)
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid standby port provided. Serving requests at once.");
+                    }
+                    break;
                 default:
                     System.out.println("Invalid argument: " + args[i]);
             }
         }
 
+        if (config.slotMinutes <= 0 || 60 % config.slotMinutes != 0) {
+            System.err.println("Slot length must divide an hour evenly. Using default: " + Availability.DEFAULT_SLOT_MINUTES + " minutes");
+            config.slotMinutes = Availability.DEFAULT_SLOT_MINUTES;
+        }
+        if (config.horizonDays < 7 || config.horizonDays > Availability.MAX_HORIZON_DAYS) {
+            System.err.println("Booking horizon must be between 7 and " + Availability.MAX_HORIZON_DAYS + " days. Using default: "
+                    + Availability.DEFAULT_HORIZON_DAYS + " days");
+            config.horizonDays = Availability.DEFAULT_HORIZON_DAYS;
+        }
+
         if (semanticsArg != null) {
             try {
-                server.semantics = ArgumentConstants.Semantics.fromString(semanticsArg);
+                config.semantics = ArgumentConstants.Semantics.fromString(semanticsArg);
             } catch (IllegalArgumentException e) {
                 System.err.println("Illegal semantics argument: " + semanticsArg);
                 System.out.println("Default to at-most-once semantics");
-                server.semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
+                config.semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
             }
         } else {
             System.out.println("No semantics provided.");
             System.out.println("Default to at-most-once semantics");
-            server.semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
+            config.semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
         }
-        server.requestHandler.setSemantics(server.semantics);
-        System.out.println("Server started with " + server.semantics.getValue() + " semantics.");
 
-        server.start(port);
-    }
+        if (config.clusterFile != null && config.shardId < 0) {
+            System.err.println("A server in a cluster needs its shard id: " + ArgumentConstants.SHARD + " <id>");
+            System.exit(1);
+        }
 
-    public BookingServer() {
-        this.facilityService = new FacilityService();
-        this.messageService = new MessageService(this.facilityService);
-        this.requestHandler = new RequestHandler(this.facilityService, this.messageService);
-    }
+        Log.setLevel(config.logLevel);
 
-    private void start(int port) {
+        BookingServer server;
         try {
-            socket = new DatagramSocket(port);
-            messageService.setSocket(socket);
+            server = new BookingServer(config);
+        } catch (IOException e) {
+            Log.error("Error loading server state: {}", e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Log.info("Server started with {} semantics.", config.semantics.getValue());
+        if (server.shard != null) {
+            Log.info("Running as {} of {}, owning {} of {} catalog facilities.", server.shard, config.clusterFile,
+                    server.facilityService.getFacilityCount(), server.catalogSize);
+        }
+        Log.info("Serving {} facilities, availability tracked in {}-minute slots over {} days from {}.",
+                server.facilityService.getFacilityCount(), config.slotMinutes, config.horizonDays, server.facilityService.getToday());
+        if (config.availabilityFile != null) {
+            Log.info("Availability is mapped from {}.", config.availabilityFile);
+        }
+        Log.info("Request history keeps up to {} requests for {} seconds.", config.historyMaxEntries, config.historyTtlMillis / 1000);
+        Log.info("Monitor updates are coalesced over {} ms and sent by {} fan-out workers (queue of {}).",
+                config.monitorDebounceMillis, config.fanoutWorkers, config.fanoutQueueCapacity);
+        if (config.dataDirectory == null) {
+            Log.info("Bookings are kept in memory only.");
+        } else if (config.fsync) {
+            Log.info("Bookings are logged to {} and synced before replying (group commit, {} ms delay), with a snapshot every {} records.",
+                    config.dataDirectory, config.fsyncDelayMillis, config.snapshotEveryRecords);
+        } else {
+            Log.info("Bookings are logged to {} without waiting for fsync, with a snapshot every {} records.",
+                    config.dataDirectory, config.snapshotEveryRecords);
+        }
+        if (config.replicateTo != null) {
+            Log.info("Bookings and request history are replicated to the standby at {}:{}{}", config.replicateTo.getHostString(),
+                    config.replicateTo.getPort(), server.standby != null ? " once this server takes over." : ".");
+            Log.info("Replication uses {} acks, batches of up to {} and a {} ms timeout.", config.replicationAck.getValue(),
+                    config.replicationBatchSize, config.replicationTimeoutMillis);
+        }
+        if (config.metricsFile != null) {
+            Log.info("Metrics are written to {} every {} seconds.", config.metricsFile, config.metricsIntervalMillis / 1000);
+        }
+        if (server.requestDispatcher.isInline()) {
+            Log.info("Processing requests on the receive thread.");
+        } else if (config.workerType == ArgumentConstants.WorkerType.PLATFORM) {
+            Log.info("Dispatching requests to {} worker threads ({}).", config.workerType.getValue(), config.workerCount);
+        } else {
+            Log.info("Dispatching requests to {} worker threads.", config.workerType.getValue());
+        }
 
-            System.out.println("Server started on port " + port + ", listening for requests...");
+        if (server.standby != null) {
+            try {
+                server.standby.awaitTakeover(); // Serves nothing until the primary is gone
+            } catch (IOException e) {
+                Log.error("Standby error: {}", e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
 
-            // Keep running until thread is interrupted
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
+        server.start(server.shard != null ? server.shard.getAddress().getPort() : config.port); // A shard listens on its configured port
+    }
 
-                    // Trim to the actual received data
-                    byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
-                    requestHandler.processRequest(data, packet.getAddress(), packet.getPort());
+    // <host>:<port>, the host may be a name
+    private static InetSocketAddress parseAddress(String text) {
+        int colon = text.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Missing port: " + text);
+        }
+        InetSocketAddress address = new InetSocketAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+        if (address.isUnresolved()) {
+            throw new IllegalArgumentException("Unknown host: " + text);
+        }
+        return address;
+    }
+
+    public BookingServer() throws IOException {
+        this(new ServerConfig());
+    }
 
-                } catch (IOException e) {
-                    System.err.println("Error receiving packet: " + e.getMessage());
-                    e.printStackTrace();
-                }
+    public BookingServer(ServerConfig config) throws IOException {
+        this.semantics = config.semantics;
+        List<String> facilityNames = config.catalogFile == null
+                ? FacilityCatalog.DEFAULT_FACILITIES : FacilityCatalog.load(Paths.get(config.catalogFile));
+        this.catalogSize = facilityNames.size();
+        ShardRing shardRing = config.clusterFile == null ? null : ShardRing.load(Paths.get(config.clusterFile));
+        this.shard = shardRing == null ? null : shardRing.getShard(config.shardId);
+        if (shardRing != null) {
+            if (shard == null) {
+                throw new IOException("Shard " + config.shardId + " is not in " + config.clusterFile);
+            }
+            // Every shard reads the whole catalog and keeps its own part, so facility ids are positions in that part
+            facilityNames = facilityNames.stream().filter(name -> shardRing.shardOf(name).getId() == config.shardId)
+                    .collect(Collectors.toList());
+        }
+        this.availabilityStore = config.availabilityFile == null
+                ? null : AvailabilityStore.map(Paths.get(config.availabilityFile), facilityNames, config.slotMinutes, config.horizonDays);
+        this.facilityService = new FacilityService(facilityNames, config.slotMinutes, config.horizonDays, availabilityStore);
+        if (shardRing != null) {
+            facilityService.setShard(shardRing, config.shardId);
+        }
+        BookingStore bookingStore = null;
+        if (config.dataDirectory != null) {
+            // Recover before anything reads the bookings, e.g. the monitor baselines below
+            bookingStore = BookingStore.open(Paths.get(config.dataDirectory), this.facilityService, config.fsync,
+                    config.fsyncDelayMillis, config.snapshotEveryRecords);
+        }
+        if (availabilityStore != null && availabilityStore.isReused()) {
+            long recoveredSequence = bookingStore == null ? -1 : bookingStore.getRecoveredSequence();
+            if (availabilityStore.needsRebuild(recoveredSequence)) {
+                Log.warn("Availability in {} does not match the recovered bookings, rebuilding it.", config.availabilityFile);
+                facilityService.rebuildAvailability();
+            } else {
+                Log.info("Availability reused from {}, saved at booking log sequence {}.", config.availabilityFile, recoveredSequence);
             }
-        } catch (SocketException e) {
-            System.err.println("Socket error: " + e.getMessage());
-            e.printStackTrace();
+        }
+        this.messageService = new MessageService(this.facilityService, config.monitorDebounceMillis,
+                config.fanoutWorkers, config.fanoutQueueCapacity);
+        RequestHistory requestHistory = new RequestHistory(config.historyTtlMillis, config.historyMaxEntries);
+        this.requestHandler = new RequestHandler(this.facilityService, this.messageService,
+                requestHistory, new ReplyCache(config.replyCacheMaxEntries));
+        this.requestHandler.setSemantics(config.semantics);
+        this.requestHandler.setDedupFingerprint(config.dedupFingerprint);
+        this.requestDispatcher = new RequestDispatcher(config.workerCount, config.workerType);
+        this.channelCount = config.channelCount;
+        this.metricsFile = config.metricsFile;
+        this.metricsIntervalMillis = config.metricsIntervalMillis;
+        this.replication = config.replicateTo == null ? null : new ReplicationPrimary(config.replicateTo, this.facilityService,
+                requestHistory, config.replicationAck, config.replicationBatchSize, config.replicationTimeoutMillis);
+        this.standby = config.standbyPort <= 0 ? null
+                : new ReplicationStandby(config.standbyPort, this.facilityService, requestHistory, config.replicationTimeoutMillis);
+    }
+
+    private void start(int port) {
+        MetricsFile metricsDump = metricsFile == null
+                ? null : new MetricsFile(Paths.get(metricsFile), metricsIntervalMillis, requestHandler::getMetricsReport);
+        if (replication != null) {
+            facilityService.setReplication(replication);
+            replication.start();
+        }
+        try {
+            transport = new DatagramTransport(port, channelCount, ProtocolConstants.MAX_BATCH_MESSAGE_SIZE); // Batches are the largest requests
+            messageService.setChannel(transport.getChannel());
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "server-shutdown"));
+
+            Log.info("Server started on port {} ({} {}), listening for requests...", port, transport.getChannelCount(),
+                    transport.getChannelCount() == 1 ? "channel" : "channels");
+
+            transport.run(requestDispatcher, requestHandler::processRequest);
+        } catch (IOException e) {
+            Log.error("Socket error: {}", e.getMessage(), e);
         } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (transport != null) {
+                transport.close();
+            }
+            requestDispatcher.shutdown();
+            if (metricsDump != null) {
+                metricsDump.close();
             }
             facilityService.shutdown();
             messageService.shutdown();
+            closeAvailabilityStore();
+            stopped.countDown();
+        }
+    }
+
+    // On SIGTERM or SIGINT: closing the transport ends the receive loop, and start() shuts the rest down in order
+    private void stop() {
+        transport.close();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Marks the availability file clean only if the booking log holds every change it reflects
+    private void closeAvailabilityStore() {
+        BookingStore bookingStore = facilityService.getBookingStore();
+        if (availabilityStore == null || bookingStore == null) {
+            return;
+        }
+        WriteAheadLog log = bookingStore.getLog();
+        if (log.getDurableSequence() == log.getLastSequence()) {
+            availabilityStore.close(log.getLastSequence());
         }
     }
 }
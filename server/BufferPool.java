@@ -0,0 +1,41 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Direct buffers for received datagrams, reused so the receive path does not allocate per packet.
+// When every pooled buffer is in use a new one is allocated; it joins the pool on release if there is room.
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+    private final int bufferSize;
+    private final LongAdder allocations = new LongAdder();
+
+    public BufferPool(int capacity, int bufferSize) {
+        this.freeBuffers = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.bufferSize = bufferSize;
+        for (int i = 0; i < capacity; i++) {
+            freeBuffers.offer(allocate());
+        }
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = freeBuffers.poll();
+        return buffer != null ? buffer : allocate();
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        freeBuffers.offer(buffer); // Dropped for the GC if the pool is already full
+    }
+
+    // Buffers allocated so far, including the initial ones
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    private ByteBuffer allocate() {
+        allocations.increment();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import server.logging.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+// Receives datagrams on one or more DatagramChannels bound to the same port. With several channels the
+// kernel spreads clients across them (SO_REUSEPORT) and each channel has its own receive thread.
+// Datagrams are received straight into pooled direct buffers, which go back to the pool once handled.
+public class DatagramTransport {
+    public static final int DEFAULT_BUFFER_POOL_SIZE = 256;
+
+    public interface Handler {
+        // The buffer holds one datagram between its position and limit and is only valid during the call.
+        // receivedNanos is the System.nanoTime() at which it was received.
+        void handle(ByteBuffer message, InetSocketAddress sender, long receivedNanos);
+    }
+
+    private final DatagramChannel[] channels;
+    private final BufferPool bufferPool;
+
+    public DatagramTransport(int port, int channelCount, int messageSize) throws IOException {
+        int count = Math.max(1, channelCount);
+        if (count > 1 && !supportsReusePort()) {
+            Log.warn("SO_REUSEPORT is not supported on this platform. Receiving on a single channel.");
+            count = 1;
+        }
+        this.channels = new DatagramChannel[count];
+        for (int i = 0; i < count; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            if (count > 1) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port));
+            channels[i] = channel;
+        }
+        this.bufferPool = new BufferPool(DEFAULT_BUFFER_POOL_SIZE, messageSize);
+    }
+
+    private static boolean supportsReusePort() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Replies can go out through any of the channels, they all share the server's port
+    public DatagramChannel getChannel() {
+        return channels[0];
+    }
+
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    // Blocks: the calling thread receives on the first channel, extra channels get their own threads
+    public void run(RequestDispatcher dispatcher, Handler handler) {
+        for (int i = 1; i < channels.length; i++) {
+            DatagramChannel channel = channels[i];
+            Thread receiver = new Thread(() -> receiveLoop(channel, dispatcher, handler), "receive-" + (i + 1));
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+        receiveLoop(channels[0], dispatcher, handler);
+    }
+
+    private void receiveLoop(DatagramChannel channel, RequestDispatcher dispatcher, Handler handler) {
+        // Keep running until thread is interrupted
+        while (!Thread.currentThread().isInterrupted() && channel.isOpen()) {
+            ByteBuffer buffer = bufferPool.acquire();
+            SocketAddress sender;
+            try {
+                sender = channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                bufferPool.release(buffer);
+                break;
+            } catch (IOException e) {
+                bufferPool.release(buffer);
+                Log.error("Error receiving packet: {}", e.getMessage(), e);
+                continue;
+            }
+            long receivedNanos = System.nanoTime();
+            buffer.flip();
+            InetSocketAddress clientAddress = (InetSocketAddress) sender;
+            dispatcher.dispatch(() -> {
+                try {
+                    handler.handle(buffer, clientAddress, receivedNanos);
+                } catch (RuntimeException e) {
+                    // Inline or under CallerRunsPolicy this runs on the receive thread, which one bad datagram must not end
+                    Log.warn("Dropping malformed datagram from {}: {}", clientAddress, e.toString());
+                } finally {
+                    bufferPool.release(buffer);
+                }
+            });
+        }
+    }
+
+    public void close() {
+        for (DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.error("Error closing channel: {}", e.getMessage());
+            }
+        }
+    }
+}
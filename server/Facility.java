@@ -1,53 +1,148 @@
 package server;
 
-import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Facility {
+    private final int id; // Position in the catalog
     private String name;
     private Availability availability;
-    private List<Booking> bookings;
+    private BookingIndex bookings; // Guarded by lock, as is availability
+    private final ReentrantLock lock = new ReentrantLock(); // Serialises mutations of this facility only
+    private long version = 0; // Bumped under lock on every availability change
+    private volatile AvailabilitySnapshot snapshot; // Null once a change has made it stale
+    private AvailabilitySnapshot lastSnapshot; // Most recent snapshot, kept so unchanged days can be reused
 
     public Facility(String name) {
+        this(name, Availability.DEFAULT_SLOT_MINUTES);
+    }
+
+    public Facility(String name, int slotMinutes) {
+        this(0, name, new Availability(slotMinutes)); // Initialize with default availability (all slots available)
+    }
+
+    public Facility(int id, String name, Availability availability) {
+        this.id = id;
         this.name = name;
-        this.availability = new Availability(); // Initialize with default availability (all slots available)
-        this.bookings = new ArrayList<>();
+        this.availability = availability;
+        this.bookings = new BookingIndex();
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getFacilityName() {
         return name;
     }
 
+    // Facility names are case-insensitive; this is the form used as a lookup key everywhere on the server
+    public static String normalizeName(String facilityName) {
+        return facilityName.toLowerCase(Locale.ROOT);
+    }
+
     public Availability getAvailability() {
         return availability;
     }
 
-    public List<Booking> getBookings() {
+    public BookingIndex getBookings() {
         return bookings;
     }
 
-    public boolean isAvailable(LocalDateTime startTime, LocalDateTime endTime) {
-        DayOfWeek dayOfWeek = startTime.getDayOfWeek();
-        int startHour = startTime.getHour();
-        int endHour = endTime.getHour();
-        for (int i = startHour; i <= endHour; i++) {
-            if (!availability.isSlotAvailable(dayOfWeek, i)) {
-                return false;
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    // Returns the current snapshot without locking; after a change the first reader rebuilds it under the lock
+    public AvailabilitySnapshot getAvailabilitySnapshot() {
+        AvailabilitySnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        lock.lock();
+        try {
+            current = snapshot;
+            if (current == null) {
+                current = AvailabilitySnapshot.build(availability, version, lastSnapshot);
+                lastSnapshot = current;
+                snapshot = current;
             }
+            return current;
+        } finally {
+            lock.unlock();
         }
-        return true; // No bookings conflict, facility is available
+    }
+
+    public boolean isAvailable(LocalDateTime startTime, LocalDateTime endTime) {
+        return availability.isAvailable(startTime, endTime); // True if no bookings conflict
+    }
+
+    // A booking that makes [startTime, endTime) unavailable, or null if there is none. Like the availability grid,
+    // this widens the range to whole slots, so a booking ending inside the slot the range starts in conflicts too.
+    public Booking findConflict(LocalDateTime startTime, LocalDateTime endTime) {
+        long slotMinutes = availability.getSlotMinutes();
+        LocalDateTime from = startTime.truncatedTo(ChronoUnit.MINUTES)
+                .minusMinutes((startTime.getHour() * 60L + startTime.getMinute()) % slotMinutes);
+        LocalDateTime to = endTime.truncatedTo(ChronoUnit.MINUTES);
+        long past = (to.getHour() * 60L + to.getMinute()) % slotMinutes;
+        if (past != 0 || to.isBefore(endTime)) {
+            to = to.plusMinutes(slotMinutes - past);
+        }
+        return bookings.firstOverlapping(from, to);
     }
 
     public void addBooking(Booking booking) {
         this.bookings.add(booking);
         this.availability.markBooked(booking.getStartTime(), booking.getEndTime()); // Update availability representation
+        availabilityChanged();
     }
 
     public void removeBooking(Booking booking) {
         this.bookings.remove(booking);
         this.availability.markAvailable(booking.getStartTime(), booking.getEndTime()); // Update availability representation
+        availabilityChanged();
+    }
+
+    public void markAvailable(LocalDateTime startTime, LocalDateTime endTime) {
+        this.availability.markAvailable(startTime, endTime);
+        availabilityChanged();
+    }
+
+    // Called under lock when the date changes. Rolls the availability horizon forward to today, marks bookings on the
+    // dates that entered it (e.g. recovered bookings that lay beyond the horizon) and drops bookings that ended before
+    // today. Returns the dropped bookings.
+    public List<Booking> advanceCalendar(LocalDate today) {
+        LocalDateTime enteredFrom = availability.getLastDay().plusDays(1).atStartOfDay();
+        if (availability.advanceTo(today) == 0) {
+            return List.of();
+        }
+        List<Booking> ended = bookings.removeEndedBy(today.atStartOfDay());
+        for (Booking booking : bookings.overlapping(enteredFrom, availability.getLastDay().plusDays(1).atStartOfDay())) {
+            LocalDateTime startTime = booking.getStartTime().isAfter(enteredFrom) ? booking.getStartTime() : enteredFrom;
+            availability.markBooked(startTime, booking.getEndTime());
+        }
+        availabilityChanged();
+        return ended;
+    }
+
+    // Called under lock. Marks availability from the bookings alone, e.g. when words kept from an earlier run do not
+    // match the recovered bookings.
+    public void rebuildAvailability() {
+        availability.clear();
+        for (Booking booking : bookings) {
+            availability.markBooked(booking.getStartTime(), booking.getEndTime());
+        }
+        availabilityChanged();
+    }
+
+    // Called under lock after every change to availability
+    private void availabilityChanged() {
+        version++;
+        snapshot = null;
     }
 
     @Override
@@ -0,0 +1,53 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Facility names served by the server, in id order. A catalog file has one name per line; blank lines and lines
+// starting with '#' are skipped. A facility's id is its position among the names, so keep existing lines in place
+// and add new facilities at the end.
+public final class FacilityCatalog {
+    public static final List<String> DEFAULT_FACILITIES = List.of("Room101", "LectureHallA");
+    private static final int MAX_NAME_BYTES = 255;
+
+    private FacilityCatalog() {
+    }
+
+    public static List<String> load(Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String name = line.trim();
+                if (name.isEmpty() || name.startsWith("#")) {
+                    continue;
+                }
+                if (name.chars().anyMatch(Character::isWhitespace)) {
+                    // Clients split commands on whitespace, so such a name could never be requested
+                    throw new IOException("Facility name contains whitespace on line " + lineNumber + ": " + name);
+                }
+                if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+                    throw new IOException("Facility name longer than " + MAX_NAME_BYTES + " bytes on line " + lineNumber);
+                }
+                if (!keys.add(Facility.normalizeName(name))) {
+                    throw new IOException("Duplicate facility name on line " + lineNumber + ": " + name);
+                }
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IOException("Catalog has no facilities: " + file);
+        }
+        return names;
+    }
+}
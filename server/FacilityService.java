@@ -1,9 +1,23 @@
 package server;
 
 import server.exceptions.FacilityBookingException;
+import server.logging.Log;
+import server.persistence.BookingRecord;
+import server.persistence.BookingStore;
+import server.replication.ReplicationPrimary;
+import shared.Marshaller;
+import shared.NameTable;
+import shared.ShardRing;
 
-import java.net.InetSocketAddress;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,59 +26,387 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class FacilityService {
+    private static final long CALENDAR_CHECK_SECONDS = 60; // How often the date is checked for a calendar roll
+    private static final DateTimeFormatter CONFLICT_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter CONFLICT_HOUR_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
     private Map<String, Facility> facilities;
     private Map<UUID, Booking> bookings;
-    private Map<InetSocketAddress, MonitorClient> monitors;
-    private ScheduledExecutorService monitorExpiryExecutor; // Monitor Expiry Checking Thread
+    private final MonitorRegistry monitors;
+    private final NameTable facilityNames;
+    private BookingStore bookingStore; // Null when bookings are only kept in memory
+    private ReplicationPrimary replication; // Null when there is no standby
+    private ShardRing shardRing; // Null when this server owns every facility
+    private int shardId;
+    private final ScheduledExecutorService calendarScheduler;
+    private volatile LocalDate today; // First day of every facility's booking horizon
 
     public FacilityService() {
-        this.facilities = initializeFacilities();
+        this(Availability.DEFAULT_SLOT_MINUTES);
+    }
+
+    public FacilityService(int slotMinutes) {
+        this(FacilityCatalog.DEFAULT_FACILITIES, slotMinutes, Availability.DEFAULT_HORIZON_DAYS, null);
+    }
+
+    // Facility ids are positions in facilityNames. With an availability store, each facility's availability lives in
+    // its stride of the mapped file instead of on the heap. Bookings are accepted from today up to horizonDays ahead.
+    public FacilityService(List<String> facilityNames, int slotMinutes, int horizonDays, AvailabilityStore availabilityStore) {
+        this.today = LocalDate.now();
+        this.facilities = initializeFacilities(facilityNames, slotMinutes, horizonDays, availabilityStore);
         this.bookings = new ConcurrentHashMap<>();
-        this.monitors = new ConcurrentHashMap<>();
-        this.monitorExpiryExecutor = Executors.newSingleThreadScheduledExecutor();
-        monitorExpiryExecutor.scheduleAtFixedRate(
-                this::removeExpiredMonitors, 0, 1, java.util.concurrent.TimeUnit.MINUTES
-        );
+        this.monitors = new MonitorRegistry();
+        this.facilityNames = new NameTable(facilityNames);
+        this.calendarScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "calendar-roll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        calendarScheduler.scheduleWithFixedDelay(this::checkCalendar, CALENDAR_CHECK_SECONDS, CALENDAR_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private Map<String, Facility> initializeFacilities(List<String> names, int slotMinutes, int horizonDays, AvailabilityStore availabilityStore) {
+        Map<String, Facility> facilityMap = new HashMap<>(names.size() * 4 / 3 + 1);
+        for (int id = 0; id < names.size(); id++) {
+            String name = names.get(id);
+            Availability availability = availabilityStore != null ? availabilityStore.availabilityOf(id, today)
+                    : new Availability(slotMinutes, horizonDays, LongBuffer.allocate(Availability.wordCount(slotMinutes, horizonDays)), today);
+            facilityMap.put(Facility.normalizeName(name), new Facility(id, name, availability));
+        }
+        return Collections.unmodifiableMap(facilityMap); // Read concurrently by request workers
+    }
+
+    // Marks every facility's availability from its bookings alone, one facility lock at a time
+    public void rebuildAvailability() {
+        for (Facility facility : facilities.values()) {
+            ReentrantLock lock = facility.getLock();
+            lock.lock();
+            try {
+                facility.rebuildAvailability();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void checkCalendar() {
+        try {
+            advanceCalendar(LocalDate.now());
+        } catch (RuntimeException e) {
+            Log.error("Error rolling the booking calendar: {}", e.getMessage());
+        }
+    }
+
+    // Moves every facility's horizon forward to the given date, one facility lock at a time, and forgets bookings
+    // that ended before it. Their log records are left alone: recovery skips bookings that have already ended.
+    // Returns the number of bookings dropped.
+    public int advanceCalendar(LocalDate date) {
+        if (!date.isAfter(today)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        int dropped = 0;
+        for (Facility facility : facilities.values()) {
+            ReentrantLock lock = facility.getLock();
+            lock.lock();
+            try {
+                for (Booking booking : facility.advanceCalendar(date)) {
+                    bookings.remove(booking.getBookingId());
+                    dropped++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        today = date;
+        Log.info("Booking calendar rolled to {}, {} ended bookings dropped in {} ms.", date, dropped,
+                (System.nanoTime() - start) / 1_000_000);
+        return dropped;
+    }
+
+    public LocalDate getToday() {
+        return today;
     }
 
-    private Map<String, Facility> initializeFacilities() {
-        Map<String, Facility> facilityMap = new HashMap<>();
-        facilityMap.put("room101", new Facility("Room101"));
-        facilityMap.put("lecturehalla", new Facility("LectureHallA"));
-        return facilityMap;
+    // Makes this server one shard of a cluster: it serves the facilities the ring assigns to shardId (the caller
+    // passes only those to the constructor), stamps the shard id into new booking ids, and names the owning shard
+    // when a request reaches the wrong one. Called before requests are served.
+    public void setShard(ShardRing shardRing, int shardId) {
+        this.shardRing = shardRing;
+        this.shardId = shardId;
+    }
+
+    public ShardRing getShardRing() {
+        return shardRing;
+    }
+
+    public int getShardId() {
+        return shardId;
     }
 
     public Facility getFacilityByName(String facilityName) throws FacilityBookingException {
-        Facility facility = facilities.get(facilityName.toLowerCase());
+        Facility facility = facilities.get(Facility.normalizeName(facilityName));
         if (facility == null) {
+            ShardRing.Shard owner = shardRing != null ? shardRing.shardOf(facilityName) : null;
+            if (owner != null && owner.getId() != shardId) {
+                throw new FacilityBookingException("Facility '" + facilityName + "' is served by " + owner + ".");
+            }
             throw new FacilityBookingException("Facility '" + facilityName + "' not found.");
         }
         return facility;
     }
 
+    // The error for a confirmation ID with no booking here, naming the shard that issued it if that is another one
+    public FacilityBookingException bookingNotFound(UUID bookingId) {
+        if (shardRing != null && ShardRing.shardIdOf(bookingId) != shardId) {
+            ShardRing.Shard owner = shardRing.getShard(ShardRing.shardIdOf(bookingId));
+            if (owner != null) {
+                return new FacilityBookingException("Booking with confirmation ID '" + bookingId + "' is held by " + owner + ".");
+            }
+        }
+        return new FacilityBookingException("Booking with confirmation ID '" + bookingId + "' not found.");
+    }
+
+    private Booking newBooking(String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
+        UUID bookingId = shardRing == null ? UUID.randomUUID() : ShardRing.newBookingId(shardId);
+        return new Booking(bookingId, facilityName, startTime, endTime);
+    }
+
+    // All reads and writes of a facility's availability and booking list happen under that facility's lock,
+    // so bookings on different facilities never contend and bookings on the same facility are linearizable.
+
     public boolean checkFacilityAvailability(String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
         Facility facility = getFacilityByName(facilityName);
-        return facility.isAvailable(startTime, endTime);
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            return facility.isAvailable(startTime, endTime);
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void markFacilityAvailable(String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
         Facility facility = getFacilityByName(facilityName);
-        Availability availability = facility.getAvailability();
-        availability.markAvailable(startTime, endTime);
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            facility.markAvailable(startTime, endTime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // UTF-8 encoded availability grid, copied from the facility's pre-rendered snapshot
+    public byte[] getAvailabilityBytes(String facilityName, List<DayOfWeek> days) {
+        return getFacilityByName(facilityName).getAvailabilitySnapshot().render(days);
+    }
+
+    // Binary slot bitmaps of the requested days, see Marshaller.marshalAvailabilityBitmap
+    public byte[] getAvailabilityBitmap(String facilityName, List<DayOfWeek> days) {
+        return getFacilityByName(facilityName).getAvailabilitySnapshot().renderBinary(days);
+    }
+
+    // Same for explicit dates, each of which must be inside the booking horizon
+    public byte[] getAvailabilityBytesForDates(String facilityName, List<LocalDate> dates) {
+        return checkDates(getFacilityByName(facilityName).getAvailabilitySnapshot(), dates).renderDates(dates);
+    }
+
+    public byte[] getAvailabilityBitmapForDates(String facilityName, List<LocalDate> dates) {
+        return checkDates(getFacilityByName(facilityName).getAvailabilitySnapshot(), dates).renderBinaryDates(dates);
+    }
+
+    private static AvailabilitySnapshot checkDates(AvailabilitySnapshot snapshot, List<LocalDate> dates) {
+        for (LocalDate date : dates) {
+            if (!snapshot.covers(date)) {
+                throw new FacilityBookingException("Date " + date + " is outside the booking horizon.");
+            }
+        }
+        return snapshot;
     }
 
     public Booking bookFacility(String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
-        if (checkFacilityAvailability(facilityName, startTime, endTime)) {
-            Booking booking = new Booking(facilityName, startTime, endTime);
-            getFacilityByName(facilityName).addBooking(booking);
+        Facility facility = getFacilityByName(facilityName);
+        Booking booking;
+        long sequence;
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            checkHorizon(facility, startTime, endTime);
+            if (!facility.isAvailable(startTime, endTime)) {
+                throw new FacilityBookingException("Facility '" + facilityName + "' is not available for the requested time"
+                        + describeConflict(facility, startTime, endTime));
+            }
+            booking = newBooking(facilityName, startTime, endTime);
+            sequence = logMutation(BookingRecord.BOOK, booking.getBookingId(), facility, startTime, endTime);
+            facility.addBooking(booking);
             bookings.put(booking.getBookingId(), booking);
-            return booking;
-        } else {
-            throw new FacilityBookingException("Facility '" + facilityName + "' is not available for the requested time.");
+        } finally {
+            lock.unlock();
         }
+        awaitDurable(sequence); // Outside the lock, so bookings that follow join the same fsync
+        return booking;
+    }
+
+    // Shifts the start and end of a booking by the given offsets. The booking is released while the new slot is
+    // checked so that it cannot conflict with itself, and restored if the new slot is taken.
+    public Booking rescheduleBooking(UUID bookingId, int startTimeOffsetMinutes, int endTimeOffsetMinutes) {
+        Booking booking = getBookingByUUID(bookingId);
+        if (booking == null) {
+            throw bookingNotFound(bookingId);
+        }
+        Facility facility = getFacilityByName(booking.getFacilityName());
+        long sequence;
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            // The calendar may have dropped the booking before the lock was taken; its old slots may belong to others now
+            if (bookings.get(bookingId) != booking) {
+                throw bookingNotFound(bookingId);
+            }
+            // Read the current times under the lock so concurrent changes of the same booking compose
+            LocalDateTime startTime = booking.getStartTime();
+            LocalDateTime endTime = booking.getEndTime();
+            LocalDateTime newStartTime = startTime.plusMinutes(startTimeOffsetMinutes);
+            LocalDateTime newEndTime = endTime.plusMinutes(endTimeOffsetMinutes);
+            releaseForMove(facility, booking, newStartTime, newEndTime);
+
+            try {
+                // Extensions move only the end; changes move both
+                sequence = logMutation(startTimeOffsetMinutes == 0 ? BookingRecord.EXTEND : BookingRecord.CHANGE,
+                        bookingId, facility, newStartTime, newEndTime);
+            } catch (FacilityBookingException e) {
+                facility.addBooking(booking);
+                throw e;
+            }
+
+            // Update booking times and add back to facility (which updates availability).
+            booking.setStartTime(newStartTime);
+            booking.setEndTime(newEndTime);
+            facility.addBooking(booking);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(sequence);
+        return booking;
+    }
+
+    // Applies the items of a batch in order under one acquisition of the facility's lock, and logs their records as one
+    // group so the batch waits for a single fsync. Changes and extensions must be of bookings at this facility.
+    // With allOrNothing the first item that fails undoes the items before it and the rest are not applied; otherwise
+    // each item succeeds or fails on its own. Items are applied before they are logged, which nobody can observe
+    // while the lock is held, and undone if the log refuses them.
+    public List<Marshaller.BatchItemResult> applyBatch(String facilityName, List<Marshaller.BatchItem> items, boolean allOrNothing) {
+        Facility facility = getFacilityByName(facilityName);
+        List<Marshaller.BatchItemResult> results = new ArrayList<>(items.size());
+        List<BookingRecord> records = new ArrayList<>(items.size());
+        List<Runnable> undo = new ArrayList<>(items.size());
+        long sequence = 0;
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            for (Marshaller.BatchItem item : items) {
+                String reason;
+                try {
+                    results.add(applyBatchItem(facility, item, records, undo));
+                    continue;
+                } catch (IllegalArgumentException e) {
+                    reason = "Invalid input: " + e.getMessage();
+                } catch (FacilityBookingException e) {
+                    reason = e.getMessage();
+                }
+                results.add(Marshaller.BatchItemResult.failed(reason));
+                if (allOrNothing) {
+                    undoAll(undo);
+                    records.clear();
+                    for (int i = 0; i < results.size() - 1; i++) {
+                        results.set(i, Marshaller.BatchItemResult.notApplied());
+                    }
+                    while (results.size() < items.size()) {
+                        results.add(Marshaller.BatchItemResult.notApplied());
+                    }
+                    break;
+                }
+            }
+            if (bookingStore != null && !records.isEmpty()) {
+                try {
+                    sequence = bookingStore.appendAll(records);
+                } catch (IOException e) {
+                    undoAll(undo);
+                    throw new FacilityBookingException("Bookings could not be saved: " + e.getMessage());
+                }
+            }
+            if (replication != null && !records.isEmpty()) {
+                replication.replicateAll(records);
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(sequence);
+        return results;
+    }
+
+    // Called under the facility lock. Applies one item with the checks of bookFacility or rescheduleBooking, and
+    // records its log record and how to undo it.
+    private Marshaller.BatchItemResult applyBatchItem(Facility facility, Marshaller.BatchItem item, List<BookingRecord> records, List<Runnable> undo) {
+        if (item.getType() == Marshaller.BatchItem.BOOK) {
+            LocalDateTime startTime = item.getStartTime();
+            LocalDateTime endTime = item.getEndTime();
+            checkBookingTimes(startTime, endTime);
+            checkHorizon(facility, startTime, endTime);
+            if (!facility.isAvailable(startTime, endTime)) {
+                // The batch names the facility once, which keeps the reason short
+                throw new FacilityBookingException("Not available for the requested time" + describeConflict(facility, startTime, endTime));
+            }
+            Booking booking = newBooking(facility.getFacilityName(), startTime, endTime);
+            facility.addBooking(booking);
+            bookings.put(booking.getBookingId(), booking);
+            records.add(new BookingRecord(0, BookingRecord.BOOK, booking.getBookingId(), facility.getFacilityName(), startTime, endTime));
+            undo.add(() -> {
+                facility.removeBooking(booking);
+                bookings.remove(booking.getBookingId());
+            });
+            return Marshaller.BatchItemResult.booked(booking.getBookingId());
+        }
+
+        UUID bookingId = item.getBookingId();
+        Booking booking = bookings.get(bookingId);
+        if (booking == null) {
+            throw new FacilityBookingException("Booking with confirmation ID '" + bookingId + "' not found.");
+        }
+        if (facilities.get(Facility.normalizeName(booking.getFacilityName())) != facility) {
+            throw new FacilityBookingException("Booking with confirmation ID '" + bookingId + "' is not at facility '"
+                    + facility.getFacilityName() + "'.");
+        }
+        LocalDateTime startTime = booking.getStartTime();
+        LocalDateTime endTime = booking.getEndTime();
+        boolean change = item.getType() == Marshaller.BatchItem.CHANGE;
+        LocalDateTime newStartTime = change ? startTime.plusMinutes(item.getMinutes()) : startTime;
+        LocalDateTime newEndTime = endTime.plusMinutes(item.getMinutes());
+        releaseForMove(facility, booking, newStartTime, newEndTime);
+        booking.setStartTime(newStartTime);
+        booking.setEndTime(newEndTime);
+        facility.addBooking(booking);
+        records.add(new BookingRecord(0, change ? BookingRecord.CHANGE : BookingRecord.EXTEND, bookingId,
+                facility.getFacilityName(), newStartTime, newEndTime));
+        undo.add(() -> {
+            facility.removeBooking(booking);
+            booking.setStartTime(startTime);
+            booking.setEndTime(endTime);
+            facility.addBooking(booking);
+        });
+        return Marshaller.BatchItemResult.applied();
+    }
+
+    // Newest first, so a booking changed twice in a batch ends up with its original times
+    private static void undoAll(List<Runnable> undo) {
+        for (int i = undo.size() - 1; i >= 0; i--) {
+            undo.get(i).run();
+        }
+        undo.clear();
     }
 
     public Booking getBookingByUUID(UUID bookingId) {
@@ -75,19 +417,174 @@ public class FacilityService {
         Booking booking = getBookingByUUID(bookingId);
         if (booking != null) {
             Facility facility = getFacilityByName(booking.getFacilityName());
-            markFacilityAvailable(booking.getFacilityName(), booking.getStartTime(), booking.getEndTime());
-            facility.removeBooking(booking);
+            long sequence;
+            ReentrantLock lock = facility.getLock();
+            lock.lock();
+            try {
+                sequence = logMutation(BookingRecord.CANCEL, bookingId, facility, booking.getStartTime(), booking.getEndTime());
+                facility.removeBooking(booking);
+                bookings.remove(bookingId);
+            } finally {
+                lock.unlock();
+            }
+            awaitDurable(sequence);
         }
         return booking;
     }
 
-    public void putMonitor(InetSocketAddress clientAddress, MonitorClient monitorClient) {
-        monitors.put(clientAddress, monitorClient);
+    // Applies a logged or snapshotted mutation during recovery, without the checks or logging of the original request
+    public void applyRecord(BookingRecord record) {
+        Facility facility;
+        try {
+            facility = getFacilityByName(record.getFacilityName());
+        } catch (FacilityBookingException e) {
+            Log.warn("Skipping saved booking {}: {}", record.getBookingId(), e.getMessage());
+            return;
+        }
+        ReentrantLock lock = facility.getLock();
+        lock.lock();
+        try {
+            Booking existing = bookings.get(record.getBookingId());
+            if (existing != null) {
+                facility.removeBooking(existing);
+                bookings.remove(record.getBookingId());
+            }
+            // Bookings that ended before today are gone, like those dropped by advanceCalendar
+            if (record.getType() != BookingRecord.CANCEL && record.getEndTime().isAfter(today.atStartOfDay())) {
+                Booking booking = new Booking(record.getBookingId(), facility.getFacilityName(), record.getStartTime(), record.getEndTime());
+                facility.addBooking(booking);
+                bookings.put(booking.getBookingId(), booking);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Tells the client which time is taken, but not whose booking it is: confirmation IDs are the only credential
+    private static String describeConflict(Facility facility, LocalDateTime startTime, LocalDateTime endTime) {
+        Booking conflict = facility.findConflict(startTime, endTime);
+        if (conflict == null) {
+            return ".";
+        }
+        LocalDateTime conflictStart = conflict.getStartTime();
+        LocalDateTime conflictEnd = conflict.getEndTime();
+        return ": already booked from " + conflictStart.format(CONFLICT_TIME_FORMAT) + " to "
+                + conflictEnd.format(conflictEnd.toLocalDate().equals(conflictStart.toLocalDate()) ? CONFLICT_HOUR_FORMAT : CONFLICT_TIME_FORMAT) + ".";
+    }
+
+    // Bookings start and end on the same day, start first
+    static void checkBookingTimes(LocalDateTime startTime, LocalDateTime endTime) {
+        if (!startTime.toLocalDate().equals(endTime.toLocalDate())) {
+            throw new IllegalArgumentException("Invalid booking time: booking cannot be overnight!");
+        }
+        if (startTime.isAfter(endTime) || startTime.isEqual(endTime)) {
+            throw new IllegalArgumentException("Invalid booking time: start time must be before end time.");
+        }
+    }
+
+    // Called under the facility lock. Checks that the booking can move to the new times and releases its current slot
+    // so that it cannot conflict with itself; if the new slot is taken the booking is restored and the move refused.
+    // The caller adds the booking back, with or without its new times.
+    private static void releaseForMove(Facility facility, Booking booking, LocalDateTime newStartTime, LocalDateTime newEndTime) {
+        if (newStartTime.isBefore(LocalDateTime.now())) {
+            throw new FacilityBookingException("Cannot change booking to a time in the past.");
+        }
+        if (newStartTime.isAfter(newEndTime) || newStartTime.isEqual(newEndTime)) {
+            throw new IllegalArgumentException("Invalid booking time after change: start time must be before end time.");
+        }
+        checkHorizon(facility, newStartTime, newEndTime);
+
+        // Temporarily remove the booking to avoid self-conflict during availability check.
+        facility.removeBooking(booking);
+
+        if (!facility.isAvailable(newStartTime, newEndTime)) {
+            // Restore the booking if the new slot is not available.
+            String conflict = describeConflict(facility, newStartTime, newEndTime);
+            facility.addBooking(booking);
+            throw new FacilityBookingException("Facility '" + facility.getFacilityName() + "' is not available for the changed time" + conflict);
+        }
+    }
+
+    private static void checkHorizon(Facility facility, LocalDateTime startTime, LocalDateTime endTime) {
+        Availability availability = facility.getAvailability();
+        if (!availability.covers(startTime, endTime)) {
+            throw new FacilityBookingException("Bookings can only be made from " + availability.getFirstDay() + " to "
+                    + availability.getLastDay() + ".");
+        }
+    }
+
+    // Called under the facility lock before a mutation is applied, so a mutation the log refuses is not applied (or
+    // replicated) either. Returns the record's sequence number, or 0 when bookings are not persisted.
+    private long logMutation(byte type, UUID bookingId, Facility facility, LocalDateTime startTime, LocalDateTime endTime) {
+        if (bookingStore == null && replication == null) {
+            return 0;
+        }
+        BookingRecord record = new BookingRecord(0, type, bookingId, facility.getFacilityName(), startTime, endTime);
+        long sequence = 0;
+        if (bookingStore != null) {
+            try {
+                sequence = bookingStore.append(record);
+            } catch (IOException e) {
+                throw new FacilityBookingException("Booking could not be saved: " + e.getMessage());
+            }
+        }
+        if (replication != null) {
+            replication.replicate(record);
+        }
+        return sequence;
+    }
+
+    // A failed sync stops the server. By then the change is applied, replicated and visible to other requests, so
+    // replying with an error would leave a live booking its client believes failed; and nothing later can be made
+    // durable either. The client gets no reply, as if the server had crashed before the sync.
+    private void awaitDurable(long sequence) {
+        if (sequence == 0) {
+            return;
+        }
+        try {
+            bookingStore.awaitDurable(sequence);
+        } catch (IOException e) {
+            Log.error("Booking changes can no longer be made durable, stopping the server: {}", e.getMessage());
+            Log.flush();
+            System.exit(1);
+        }
+    }
+
+    public void setBookingStore(BookingStore bookingStore) {
+        this.bookingStore = bookingStore;
+    }
+
+    public BookingStore getBookingStore() {
+        return bookingStore;
+    }
+
+    // Set before requests are served; mutations from then on are streamed to the standby
+    public void setReplication(ReplicationPrimary replication) {
+        this.replication = replication;
+    }
+
+    public ReplicationPrimary getReplication() {
+        return replication;
+    }
+
+    public void putMonitor(MonitorClient monitorClient) {
+        monitors.register(monitorClient);
     }
 
     public List<MonitorClient> getMonitorsToNotify(String facilityName) {
-        return monitors.values().stream().filter(monitor -> monitor.getFacilityName().equalsIgnoreCase(facilityName))
-                .collect(Collectors.toList());
+        return monitors.getMonitors(facilityName);
+    }
+
+    public int getMonitorCount() {
+        return monitors.size();
+    }
+
+    public NameTable getFacilityNames() {
+        return facilityNames;
+    }
+
+    public Collection<Facility> getFacilities() {
+        return this.facilities.values();
     }
 
     public int getFacilityCount() {
@@ -98,24 +595,14 @@ public class FacilityService {
         return this.bookings.size();
     }
 
-    private void removeExpiredMonitors() {
-        monitors.entrySet().removeIf(entry -> {
-            if (entry.getValue().isExpired()) {
-                System.out.println("Monitor expired and removed: " + entry.getValue());
-                return true;
-            }
-            return false;
-        });
-    }
-
     public void shutdown() {
-        monitorExpiryExecutor.shutdown();
-        try {
-            if (!monitorExpiryExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
-                monitorExpiryExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            monitorExpiryExecutor.shutdownNow();
+        calendarScheduler.shutdownNow();
+        monitors.shutdown();
+        if (replication != null) {
+            replication.close();
+        }
+        if (bookingStore != null) {
+            bookingStore.shutdown();
         }
     }
 }
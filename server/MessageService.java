@@ -1,89 +1,203 @@
 package server;
 
+import server.logging.Log;
+import shared.constants.ProtocolConstants;
+
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MessageService {
+    public static final long DEFAULT_MONITOR_DEBOUNCE_MILLIS = 50;
+    private static final List<DayOfWeek> ALL_DAYS = Arrays.asList(DayOfWeek.values());
+
     private final FacilityService facilityService;
-    private final ExecutorService monitorUpdateExecutor;
-    private DatagramSocket socket;
-    private boolean sendThisTime = false;
+    private final ScheduledExecutorService monitorUpdateExecutor; // Debounces updates per facility
+    private final MonitorFanout monitorFanout; // Sends them to subscribers
+    private final long monitorDebounceMillis;
+    private DatagramChannel channel;
+    private final AtomicBoolean sendThisTime = new AtomicBoolean(false); // Shared by all request workers
+
+    // Facilities with a monitor update scheduled but not yet sent, by normalized name
+    private final ConcurrentHashMap<String, String> pendingMonitorUpdates = new ConcurrentHashMap<>();
+    // Snapshot each facility's last monitor update was built from; the next update only carries days changed since.
+    // Monitors see the coming week only (the weekday view), so changes to later dates of the horizon send nothing.
+    private final ConcurrentHashMap<String, AvailabilitySnapshot> lastMonitorSnapshots = new ConcurrentHashMap<>();
+    private final LongAdder monitorUpdatesTriggered = new LongAdder();
+    private final LongAdder monitorUpdatesSuppressed = new LongAdder();
+    private final LongAdder monitorDatagramsSent = new LongAdder();
+    private final LongAdder simulatedLossDrops = new LongAdder();
 
     public MessageService(FacilityService facilityService) {
+        this(facilityService, DEFAULT_MONITOR_DEBOUNCE_MILLIS);
+    }
+
+    public MessageService(FacilityService facilityService, long monitorDebounceMillis) {
+        this(facilityService, monitorDebounceMillis, MonitorFanout.DEFAULT_WORKERS, MonitorFanout.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    // Changes to a facility within monitorDebounceMillis of the first one are sent to its monitors as one update,
+    // by fanoutWorkers threads that share a queue of at most fanoutQueueCapacity subscribers
+    public MessageService(FacilityService facilityService, long monitorDebounceMillis, int fanoutWorkers, int fanoutQueueCapacity) {
         this.facilityService = facilityService;
-        this.socket = null;
-        this.monitorUpdateExecutor = Executors.newSingleThreadExecutor();
+        this.channel = null;
+        this.monitorDebounceMillis = Math.max(0, monitorDebounceMillis);
+        this.monitorUpdateExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.monitorFanout = new MonitorFanout(fanoutWorkers, fanoutQueueCapacity, this::sendAvailabilityUpdate);
     }
 
-    public void setSocket(DatagramSocket socket) {
-        this.socket = socket;
+    public void setChannel(DatagramChannel channel) {
+        this.channel = channel;
     }
 
     public void sendMessage(byte[] replyMessage, InetAddress clientAddress, int clientPort, boolean simulatePacketLoss) {
+        sendMessage(replyMessage, new InetSocketAddress(clientAddress, clientPort), simulatePacketLoss);
+    }
+
+    public void sendMessage(byte[] replyMessage, InetSocketAddress clientAddress, boolean simulatePacketLoss) {
         if (simulatePacketLoss) {
-            if (sendThisTime) {
-                sendMessage(replyMessage, clientAddress, clientPort);
+            // Flip the toggle atomically so concurrent workers alternate between dropping and sending
+            boolean send;
+            do {
+                send = sendThisTime.get();
+            } while (!sendThisTime.compareAndSet(send, !send));
+            if (send) {
+                sendMessage(replyMessage, clientAddress);
             } else {
-                System.out.println("[SIMULATED PACKET LOSS - SERVER SEND]");
+                simulatedLossDrops.increment();
+                Log.info("[SIMULATED PACKET LOSS - SERVER SEND]");
             }
-            sendThisTime = !sendThisTime;
             return;
         }
-        sendMessage(replyMessage, clientAddress, clientPort);
+        sendMessage(replyMessage, clientAddress);
     }
 
     public void sendMessage(byte[] replyMessage, InetAddress clientAddress, int clientPort) {
+        sendMessage(replyMessage, new InetSocketAddress(clientAddress, clientPort));
+    }
+
+    // DatagramChannel.send is safe to call from several threads at once
+    public void sendMessage(byte[] replyMessage, InetSocketAddress clientAddress) {
         try {
-            DatagramPacket replyPacket = new DatagramPacket(replyMessage, replyMessage.length, clientAddress, clientPort);
-            socket.send(replyPacket);
+            channel.send(ByteBuffer.wrap(replyMessage), clientAddress);
         } catch (IOException e) {
-            System.err.println("Error sending reply: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Error sending reply: {}", e.getMessage(), e);
         }
     }
 
     public void triggerMonitorUpdates(String facilityName) {
-        System.out.println("Triggered monitor updates...");
+        monitorUpdatesTriggered.increment();
+        String facilityKey = Facility.normalizeName(facilityName);
+        if (pendingMonitorUpdates.putIfAbsent(facilityKey, facilityName) != null) {
+            // An update for this facility is already scheduled and will include this change
+            monitorUpdatesSuppressed.increment();
+            return;
+        }
+        monitorUpdateExecutor.schedule(() -> flushMonitorUpdates(facilityKey, facilityName), monitorDebounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushMonitorUpdates(String facilityKey, String facilityName) {
+        // Changes made after this point schedule a new update
+        pendingMonitorUpdates.remove(facilityKey);
+        Facility facility = facilityService.getFacilityByName(facilityName);
+        if (facility == null) {
+            return;
+        }
         List<MonitorClient> monitorsToNotify = facilityService.getMonitorsToNotify(facilityName);
-        System.out.println("Monitors to Notify: " + monitorsToNotify.toString());
-        if (!monitorsToNotify.isEmpty()) {
-            monitorUpdateExecutor.submit(() -> {
-                monitorsToNotify.forEach(this::sendAvailabilityUpdateToMonitor);
-            });
+        if (monitorsToNotify.isEmpty()) {
+            // Nobody to tell, so skip the snapshot. The next monitor gets the whole week when it registers.
+            lastMonitorSnapshots.remove(facilityKey);
+            return;
+        }
+        AvailabilitySnapshot snapshot = facility.getAvailabilitySnapshot();
+        List<DayOfWeek> changedDays = snapshot.changedDaysSince(lastMonitorSnapshots.put(facilityKey, snapshot));
+        if (changedDays.isEmpty()) {
+            // Everything was already sent by an earlier update
+            monitorUpdatesSuppressed.increment();
+            return;
+        }
+        Log.info("Sending availability of {} for {} to {} monitors.", changedDays, facilityName, monitorsToNotify.size());
+        for (MonitorClient monitor : monitorsToNotify) {
+            monitorFanout.submit(monitor, snapshot, changedDays);
         }
     }
 
+    // Sends the whole week, e.g. to a client that has just registered
     public void sendAvailabilityUpdateToMonitor(MonitorClient monitor) {
         Facility facility = facilityService.getFacilityByName(monitor.getFacilityName());
         // Should never be null
         if (facility != null) {
-            Availability availability = facility.getAvailability();
-            for (DayOfWeek day : DayOfWeek.values()) {
-                byte[] availabilityForDay = availability.toString(Arrays.asList(day)).getBytes(StandardCharsets.UTF_8);
-                byte[] updateMessage = shared.Marshaller.marshalAvailabilityUpdate(monitor.getFacilityName(), availabilityForDay);
-                sendMessage(updateMessage, monitor.getAddress().getAddress(), monitor.getAddress().getPort());
+            AvailabilitySnapshot snapshot = facility.getAvailabilitySnapshot();
+            // Baselines are only kept for monitored facilities; later updates carry what changed since this one
+            lastMonitorSnapshots.putIfAbsent(Facility.normalizeName(facility.getFacilityName()), snapshot);
+            monitorFanout.submit(monitor, snapshot, ALL_DAYS);
+        }
+    }
+
+    // Binary subscribers get all days in one datagram. Text subscribers get the days packed into as few
+    // datagrams as fit MAX_MESSAGE_SIZE, each a complete "Availability:" listing of its days.
+    private void sendAvailabilityUpdate(MonitorClient monitor, AvailabilitySnapshot snapshot, List<DayOfWeek> days) {
+        if (monitor.isBinaryAvailability()) {
+            byte[] updateMessage = shared.Marshaller.marshalAvailabilityUpdate(monitor.getFacilityName(), snapshot.renderBinary(days),
+                    ProtocolConstants.FLAG_BINARY_AVAILABILITY);
+            sendMessage(updateMessage, monitor.getAddress());
+            monitorDatagramsSent.increment();
+            return;
+        }
+        int nameLength = monitor.getFacilityName().getBytes(StandardCharsets.UTF_8).length;
+        int maxPayload = ProtocolConstants.MAX_MESSAGE_SIZE - ProtocolConstants.HEADER_SIZE - 2 - nameLength;
+        List<DayOfWeek> batch = new ArrayList<>(days.size());
+        for (DayOfWeek day : days) {
+            batch.add(day);
+            if (batch.size() > 1 && snapshot.renderedLength(batch) > maxPayload) {
+                batch.remove(batch.size() - 1);
+                sendAvailabilityText(monitor, snapshot, batch);
+                batch.clear();
+                batch.add(day);
             }
-//            byte[] availabilityBytes = facility.getAvailability().toString(Arrays.asList(DayOfWeek.values())).getBytes(StandardCharsets.UTF_8);
-//            byte[] updateMessage = shared.Marshaller.marshalAvailabilityUpdate(monitor.getFacilityName(), availabilityBytes);
-
-//            try {
-//                // We will not simulate package loss for availability updates
-//                sendMessage(updateMessage, monitor.getAddress().getAddress(), monitor.getAddress().getPort(), false);
-//                System.out.println("Sent availability update for " + monitor.getFacilityName() + " to " + monitor.getAddress());
-//            } catch (Exception e) {
-//                System.err.println("Error sending monitor update to " + monitor.getAddress() + ": " + e.getMessage());
-//                e.printStackTrace();
-//            }
         }
+        sendAvailabilityText(monitor, snapshot, batch);
+    }
+
+    private void sendAvailabilityText(MonitorClient monitor, AvailabilitySnapshot snapshot, List<DayOfWeek> days) {
+        byte[] updateMessage = shared.Marshaller.marshalAvailabilityUpdate(monitor.getFacilityName(), snapshot.render(days));
+        sendMessage(updateMessage, monitor.getAddress());
+        monitorDatagramsSent.increment();
+    }
+
+    public long getMonitorUpdatesTriggered() {
+        return monitorUpdatesTriggered.sum();
+    }
+
+    // Triggers folded into an already scheduled update, plus updates with nothing left to send
+    public long getMonitorUpdatesSuppressed() {
+        return monitorUpdatesSuppressed.sum();
+    }
+
+    public long getMonitorDatagramsSent() {
+        return monitorDatagramsSent.sum();
+    }
+
+    // Replies not sent because the request asked for simulated loss
+    public long getSimulatedLossDrops() {
+        return simulatedLossDrops.sum();
+    }
+
+    public MonitorFanout getMonitorFanout() {
+        return monitorFanout;
     }
 
     public void shutdown() {
@@ -95,5 +209,6 @@ public class MessageService {
         } catch (InterruptedException e) {
             monitorUpdateExecutor.shutdownNow();
         }
+        monitorFanout.shutdown();
     }
 }
@@ -0,0 +1,64 @@
+package server;
+
+import server.logging.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Rewrites a local file with the server's metrics report at a fixed interval, so the numbers can be watched (or
+// collected by a script) without sending requests to the server. Each report is written to a temporary file next
+// to the target and moved over it, so a reader never sees a half-written report.
+public class MetricsFile {
+    public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+    private final Path file;
+    private final Path temporaryFile;
+    private final Supplier<String> report;
+    private final ScheduledExecutorService writer;
+
+    public MetricsFile(Path file, long intervalMillis, Supplier<String> report) {
+        this.file = file;
+        this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.report = report;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, intervalMillis);
+        writer.scheduleAtFixedRate(this::write, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void write() {
+        try {
+            Files.write(temporaryFile, (report.get() + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep the schedule going, an exception would cancel it
+            Log.warn("Error writing metrics file {}: {}", file, e.getMessage());
+        }
+    }
+
+    // Writes a last report, so the file ends with the totals of the run
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+    }
+}
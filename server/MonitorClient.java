@@ -1,16 +1,25 @@
 package server;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
-public class MonitorClient {
+// Delayed so MonitorRegistry can queue subscriptions by expiry time
+public class MonitorClient implements Delayed {
     private InetSocketAddress address;
     private String facilityName;
     private long expiryTimeMillis; // Expiry timestamp in milliseconds
+    private boolean binaryAvailability; // Client asked for the compact binary encoding of updates
 
     public MonitorClient(InetSocketAddress address, String facilityName, long expiryTimeMillis) {
+        this(address, facilityName, expiryTimeMillis, false);
+    }
+
+    public MonitorClient(InetSocketAddress address, String facilityName, long expiryTimeMillis, boolean binaryAvailability) {
         this.address = address;
         this.facilityName = facilityName;
         this.expiryTimeMillis = expiryTimeMillis;
+        this.binaryAvailability = binaryAvailability;
     }
 
     public InetSocketAddress getAddress() {
@@ -25,16 +34,34 @@ public class MonitorClient {
         return expiryTimeMillis;
     }
 
+    public boolean isBinaryAvailability() {
+        return binaryAvailability;
+    }
+
     public boolean isExpired() {
         return System.currentTimeMillis() > expiryTimeMillis;
     }
 
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(expiryTimeMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other instanceof MonitorClient) {
+            return Long.compare(expiryTimeMillis, ((MonitorClient) other).expiryTimeMillis);
+        }
+        return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+    }
+
     @Override
     public String toString() {
         return "MonitorClient{" +
                "address=" + address +
                ", facilityName='" + facilityName + '\'' +
                ", expiryTimeMillis=" + expiryTimeMillis +
+               ", binaryAvailability=" + binaryAvailability +
                '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package server;
+
+import server.logging.Log;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sends monitor updates on several worker threads, so one slow subscriber does not hold up the others.
+// Each subscriber has at most one queued or in-flight update; updates submitted meanwhile are merged into
+// its pending one (days ORed together, newest snapshot wins) and sent once the current send finishes.
+// The queue therefore holds at most one entry per subscriber, and when it is full new subscribers' updates
+// are dropped rather than blocking the caller. Subscribers already being served are never dropped.
+public class MonitorFanout {
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public interface Sender {
+        void send(MonitorClient monitor, AvailabilitySnapshot snapshot, List<DayOfWeek> days);
+    }
+
+    private final Sender sender;
+    private final BlockingQueue<MonitorClient> queue;
+    private final ConcurrentHashMap<MonitorClient, Pending> pendingByMonitor = new ConcurrentHashMap<>();
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+    private final StripedHistogram latencyMicros = new StripedHistogram();
+
+    public MonitorFanout(int workerCount, int queueCapacity, Sender sender) {
+        this.sender = sender;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.workers = new Thread[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::runWorker, "monitor-fanout-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    public void submit(MonitorClient monitor, AvailabilitySnapshot snapshot, List<DayOfWeek> days) {
+        submitted.increment();
+        int dayMask = toMask(days);
+        while (true) {
+            Pending pending = pendingByMonitor.computeIfAbsent(monitor, key -> new Pending());
+            synchronized (pending) {
+                if (pending.retired) {
+                    continue; // A worker just removed it, start over with a fresh one
+                }
+                if (pending.dayMask != 0) {
+                    merged.increment();
+                } else {
+                    pending.firstSubmittedNanos = System.nanoTime();
+                }
+                pending.dayMask |= dayMask;
+                if (pending.snapshot == null || snapshot.getVersion() > pending.snapshot.getVersion()) {
+                    pending.snapshot = snapshot;
+                }
+                if (!pending.scheduled) {
+                    enqueue(monitor, pending);
+                }
+                return;
+            }
+        }
+    }
+
+    // Called with the pending update's lock held
+    private void enqueue(MonitorClient monitor, Pending pending) {
+        if (offer(monitor)) {
+            pending.scheduled = true;
+        } else {
+            dropped.increment();
+            Log.warn("Monitor fan-out queue full, dropping update for {}", monitor.getAddress());
+            retire(monitor, pending);
+        }
+    }
+
+    private boolean offer(MonitorClient monitor) {
+        if (!queue.offer(monitor)) {
+            return false;
+        }
+        maxQueueDepth.accumulate(queue.size());
+        return true;
+    }
+
+    // Called with the pending update's lock held
+    private void retire(MonitorClient monitor, Pending pending) {
+        pending.retired = true;
+        pendingByMonitor.remove(monitor, pending);
+    }
+
+    private void runWorker() {
+        while (running) {
+            MonitorClient monitor;
+            try {
+                monitor = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            while (monitor != null) {
+                monitor = sendPending(monitor);
+            }
+        }
+    }
+
+    // Sends the subscriber's pending update. Returns the subscriber again if more updates were merged in
+    // meanwhile and the queue has no room for it, so the worker keeps serving it instead of dropping them.
+    private MonitorClient sendPending(MonitorClient monitor) {
+        Pending pending = pendingByMonitor.get(monitor);
+        if (pending == null) {
+            return null;
+        }
+        int dayMask;
+        AvailabilitySnapshot snapshot;
+        long firstSubmittedNanos;
+        synchronized (pending) {
+            dayMask = pending.dayMask;
+            snapshot = pending.snapshot;
+            firstSubmittedNanos = pending.firstSubmittedNanos;
+            pending.dayMask = 0;
+            pending.snapshot = null;
+        }
+        try {
+            sender.send(monitor, snapshot, toDays(dayMask));
+            sent.increment();
+        } catch (RuntimeException e) {
+            Log.error("Error sending monitor update to {}: {}", monitor.getAddress(), e.getMessage());
+        }
+        long latencyNanos = System.nanoTime() - firstSubmittedNanos;
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulate(latencyNanos);
+        latencyMicros.record(latencyNanos / 1000);
+        synchronized (pending) {
+            if (pending.dayMask == 0) {
+                retire(monitor, pending);
+                return null;
+            }
+            // Updates merged in while we were sending
+            return offer(monitor) ? null : monitor;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getMerged() {
+        return merged.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    // Time from an update being submitted to it being sent, including any updates merged into it
+    public double getAverageLatencyMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : totalLatencyNanos.sum() / (count * 1_000_000.0);
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    // Same latency as a distribution, in microseconds
+    public StripedHistogram getLatencyHistogram() {
+        return latencyMicros;
+    }
+
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private static int toMask(List<DayOfWeek> days) {
+        int mask = 0;
+        for (DayOfWeek day : days) {
+            mask |= 1 << (day.getValue() - 1);
+        }
+        return mask;
+    }
+
+    private static List<DayOfWeek> toDays(int mask) {
+        List<DayOfWeek> days = new ArrayList<>(Integer.bitCount(mask));
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if ((mask & (1 << (day.getValue() - 1))) != 0) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+
+    @Override
+    public String toString() {
+        return "MonitorFanout{" +
+                "workers=" + workers.length +
+                ", queueDepth=" + getQueueDepth() +
+                ", sent=" + getSent() +
+                ", merged=" + getMerged() +
+                ", dropped=" + getDropped() +
+                '}';
+    }
+
+    // Update waiting for (or being sent to) one subscriber; guarded by its own lock
+    private static final class Pending {
+        private int dayMask;
+        private AvailabilitySnapshot snapshot;
+        private long firstSubmittedNanos;
+        private boolean scheduled; // In the queue or being sent by a worker
+        private boolean retired; // Removed from the map, submitters must create a new one
+    }
+}
@@ -0,0 +1,98 @@
+package server;
+
+import server.logging.Log;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+
+// Monitor subscriptions indexed by facility, so notifying a facility's monitors only touches those monitors.
+// Each client address holds at most one subscription; registering again replaces it. Expiry is driven by a
+// DelayQueue, so the expiry thread sleeps until the next subscription is due instead of sweeping every monitor.
+public class MonitorRegistry {
+    private final ConcurrentHashMap<String, Set<MonitorClient>> monitorsByFacility = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetSocketAddress, MonitorClient> monitorsByAddress = new ConcurrentHashMap<>();
+    private final DelayQueue<MonitorClient> expiryQueue = new DelayQueue<>();
+    private final Thread expiryThread;
+
+    public MonitorRegistry() {
+        expiryThread = new Thread(this::expireMonitors, "monitor-expiry");
+        expiryThread.setDaemon(true);
+        expiryThread.start();
+    }
+
+    // The replace, unindex and index happen inside compute, which locks the address's entry, so registrations and
+    // expiry of one client cannot interleave and leave a monitor indexed that monitorsByAddress no longer holds
+    public void register(MonitorClient monitor) {
+        monitorsByAddress.compute(monitor.getAddress(), (address, replaced) -> {
+            if (replaced != null) {
+                unindex(replaced); // Its queue entry is dropped when it comes due
+            }
+            monitorsByFacility.computeIfAbsent(facilityKey(monitor), key -> ConcurrentHashMap.newKeySet()).add(monitor);
+            return monitor;
+        });
+        expiryQueue.put(monitor);
+    }
+
+    public List<MonitorClient> getMonitors(String facilityName) {
+        Set<MonitorClient> monitors = monitorsByFacility.get(Facility.normalizeName(facilityName));
+        if (monitors == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(monitors);
+    }
+
+    public int size() {
+        return monitorsByAddress.size();
+    }
+
+    public void shutdown() {
+        expiryThread.interrupt();
+    }
+
+    private void expireMonitors() {
+        try {
+            while (true) {
+                MonitorClient monitor = expiryQueue.take();
+                // Only remove the monitor if it has not been replaced by a newer registration from the same client
+                boolean[] expired = new boolean[1];
+                monitorsByAddress.computeIfPresent(monitor.getAddress(), (address, current) -> {
+                    if (current != monitor) {
+                        return current;
+                    }
+                    unindex(monitor);
+                    expired[0] = true;
+                    return null;
+                });
+                if (expired[0]) {
+                    Log.info("Monitor expired and removed: {}", monitor);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void unindex(MonitorClient monitor) {
+        Set<MonitorClient> monitors = monitorsByFacility.get(facilityKey(monitor));
+        if (monitors != null) {
+            monitors.remove(monitor);
+        }
+    }
+
+    private static String facilityKey(MonitorClient monitor) {
+        return Facility.normalizeName(monitor.getFacilityName());
+    }
+
+    @Override
+    public String toString() {
+        return "MonitorRegistry{" +
+                "size=" + size() +
+                ", facilities=" + monitorsByFacility.keySet() +
+                '}';
+    }
+}
@@ -0,0 +1,174 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Replies kept for at-least-once retransmissions, keyed per client request and bounded by LRU eviction.
+// Replies that depend on a facility's current state (e.g. availability queries) are also indexed by facility,
+// so a booking change invalidates only those replies. Replies to bookings themselves are never invalidated:
+// a retransmitted booking must get its original reply rather than being executed again.
+public class ReplyCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    private static final int STRIPES = 16; // Power of two
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<String, Set<RequestKey>> keysByFacility = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ReplyCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ReplyCache(int maxEntries) {
+        int maxEntriesPerStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxEntriesPerStripe);
+        }
+    }
+
+    public byte[] get(RequestKey key) {
+        CachedReply cachedReply = stripeFor(key).get(key);
+        if (cachedReply == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cachedReply.reply;
+    }
+
+    // facilityKey is the normalised name of the facility whose state the reply reflects, or null if it never goes stale
+    public void put(RequestKey key, byte[] reply, String facilityKey) {
+        if (facilityKey != null) {
+            keysByFacility.computeIfAbsent(facilityKey, k -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        stripeFor(key).put(key, new CachedReply(reply, facilityKey));
+    }
+
+    public void remove(RequestKey key) {
+        CachedReply removed = stripeFor(key).remove(key);
+        if (removed != null) {
+            unindex(key, removed);
+        }
+    }
+
+    // Drops the replies that reflect this facility's state; cached replies for other facilities are untouched
+    public void invalidateFacility(String facilityKey) {
+        Set<RequestKey> keys = keysByFacility.get(facilityKey);
+        if (keys == null) {
+            return;
+        }
+        for (RequestKey key : keys) {
+            keys.remove(key);
+            if (stripeFor(key).remove(key) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = getHits();
+        long lookups = hitCount + getMisses();
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplyCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+
+    private void unindex(RequestKey key, CachedReply cachedReply) {
+        if (cachedReply.facilityKey != null) {
+            Set<RequestKey> keys = keysByFacility.get(cachedReply.facilityKey);
+            if (keys != null) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private Stripe stripeFor(RequestKey key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static final class CachedReply {
+        private final byte[] reply;
+        private final String facilityKey;
+
+        private CachedReply(byte[] reply, String facilityKey) {
+            this.reply = reply;
+            this.facilityKey = facilityKey;
+        }
+    }
+
+    // Each stripe has its own lock. Its map is access-ordered: a lookup moves the entry to the tail, so the head
+    // is always the least recently used entry and is evicted once the stripe is full.
+    private final class Stripe {
+        private final LinkedHashMap<RequestKey, CachedReply> entries;
+
+        private Stripe(int maxEntries) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RequestKey, CachedReply> eldest) {
+                    if (size() <= maxEntries) {
+                        return false;
+                    }
+                    evictions.increment();
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        synchronized CachedReply get(RequestKey key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(RequestKey key, CachedReply cachedReply) {
+            entries.put(key, cachedReply);
+        }
+
+        synchronized CachedReply remove(RequestKey key) {
+            return entries.remove(key);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
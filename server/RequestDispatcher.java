@@ -0,0 +1,81 @@
+package server;
+
+import server.logging.Log;
+import shared.constants.ArgumentConstants;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands received datagrams from the receive loop to a worker pool.
+// With zero workers every request is processed inline on the receive thread (the original behaviour).
+public class RequestDispatcher {
+    private static final int QUEUE_SLOTS_PER_WORKER = 64;
+
+    private final ExecutorService workers; // null when dispatching inline
+
+    public RequestDispatcher(int workerCount, ArgumentConstants.WorkerType workerType) {
+        if (workerType == ArgumentConstants.WorkerType.VIRTUAL) {
+            this.workers = createVirtualThreadExecutor(workerCount);
+        } else if (workerCount > 0) {
+            this.workers = createPlatformThreadExecutor(workerCount);
+        } else {
+            this.workers = null;
+        }
+    }
+
+    public boolean isInline() {
+        return workers == null;
+    }
+
+    public void dispatch(Runnable task) {
+        if (workers == null) {
+            task.run();
+            return;
+        }
+        workers.execute(task);
+    }
+
+    private static ExecutorService createPlatformThreadExecutor(int workerCount) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "request-worker-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // Bounded queue: once it is full the receive thread runs the request itself, which stops it from
+        // reading further datagrams and lets the kernel socket buffer absorb (or drop) the excess.
+        return new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerCount * QUEUE_SLOTS_PER_WORKER), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static ExecutorService createVirtualThreadExecutor(int fallbackWorkerCount) {
+        try {
+            // Looked up reflectively so the server still compiles and runs on JDKs without virtual threads.
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int workerCount = fallbackWorkerCount > 0 ? fallbackWorkerCount : Runtime.getRuntime().availableProcessors();
+            Log.warn("Virtual threads are not supported by this JVM, using {} platform worker threads.", workerCount);
+            return createPlatformThreadExecutor(workerCount);
+        }
+    }
+
+    public void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+        }
+    }
+}
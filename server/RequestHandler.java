@@ -1,35 +1,48 @@
 package server;
 
 import server.exceptions.FacilityBookingException;
+import server.logging.Log;
+import server.persistence.BookingStore;
+import server.persistence.WriteAheadLog;
+import server.replication.ReplicationPrimary;
 import shared.Marshaller;
-import shared.MessageHeader;
+import shared.NameTable;
+import shared.ShardRing;
 import shared.constants.ArgumentConstants;
 import shared.constants.OperationType;
+import shared.constants.ProtocolConstants;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class RequestHandler {
     private final FacilityService facilityService;
     private final MessageService messageService;
-    private Map<String, byte[]> replyCache;  // Cache last reply for each requestId
-    private RequestHistory requestHistory;
-    private ArgumentConstants.Semantics semantics;
+    private final ReplyCache replyCache;  // Cache last reply for each request
+    private final RequestHistory requestHistory;
+    private final NameTable facilityNames; // Decodes known facility names without allocating
+    private final ServerMetrics metrics = new ServerMetrics();
+    private volatile boolean dedupFingerprint = true; // Include a payload fingerprint in the duplicate-filter key
+    private volatile ArgumentConstants.Semantics semantics;
 
     public RequestHandler(FacilityService facilityService, MessageService messageService) {
+        this(facilityService, messageService, new RequestHistory(), new ReplyCache());
+    }
+
+    public RequestHandler(FacilityService facilityService, MessageService messageService, RequestHistory requestHistory, ReplyCache replyCache) {
         this.facilityService = facilityService;
         this.messageService = messageService;
-        replyCache = new ConcurrentHashMap<>();
-        requestHistory = new RequestHistory();
+        this.replyCache = replyCache;
+        this.requestHistory = requestHistory;
+        this.facilityNames = facilityService.getFacilityNames();
         semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
     }
 
@@ -37,77 +50,109 @@ public class RequestHandler {
         this.semantics = semantics;
     }
 
+    public void setDedupFingerprint(boolean dedupFingerprint) {
+        this.dedupFingerprint = dedupFingerprint;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     public void processRequest(byte[] data, InetAddress clientAddr, int clientPort) {
-        InetSocketAddress clientAddress = new InetSocketAddress(clientAddr, clientPort);
-        MessageHeader header = shared.Marshaller.unmarshalHeader(data);
-        int requestId = header.getRequestId();
-        OperationType operationType = header.getOperationType();
-        boolean simulateLoss = header.getSimulateLoss();
+        processRequest(ByteBuffer.wrap(data), new InetSocketAddress(clientAddr, clientPort));
+    }
 
-        System.out.println("Received request from " + clientAddress + ", Request ID: " + requestId + ", Operation: " + operationType);
+    public void processRequest(ByteBuffer data, InetSocketAddress clientAddress) {
+        processRequest(data, clientAddress, System.nanoTime());
+    }
+
+    // The request is read in place from data's position to its limit; data is not used after this returns.
+    // receivedNanos is the System.nanoTime() at which the datagram arrived, the start of the request's latency.
+    public void processRequest(ByteBuffer data, InetSocketAddress clientAddress, long receivedNanos) {
+        int requestId = Marshaller.readRequestId(data);
+        OperationType operationType = Marshaller.readOperationType(data);
+        byte flags = Marshaller.readFlags(data);
+        boolean simulateLoss = (flags & ProtocolConstants.FLAG_SIMULATE_LOSS) != 0;
+        boolean binaryAvailability = (flags & ProtocolConstants.FLAG_BINARY_AVAILABILITY) != 0;
+
+        Log.info("Received request from {}, Request ID: {}, Operation: {}", clientAddress, requestId, operationType);
 
-        byte[] marshalledReply = handleRequest(requestId, operationType, data, clientAddress, semantics);
+        byte[] marshalledReply = handleRequest(requestId, operationType, binaryAvailability, data, clientAddress, semantics);
 
         if (marshalledReply != null) {
-            messageService.sendMessage(marshalledReply, clientAddr, clientPort, simulateLoss);
+            messageService.sendMessage(marshalledReply, clientAddress, simulateLoss);
         }
+        metrics.recordRequest(operationType, receivedNanos);
     }
 
-    private byte[] handleRequest(int requestId, OperationType operationType, byte[] data, InetSocketAddress clientAddress, ArgumentConstants.Semantics semantics) {
-        String request = Arrays.toString(data);
+    private byte[] handleRequest(int requestId, OperationType operationType, boolean binaryAvailability, ByteBuffer data, InetSocketAddress clientAddress, ArgumentConstants.Semantics semantics) {
+        // Fixed-size key: client address and port, request ID and (optionally) a fingerprint of the message
+        long clientBits = RequestKey.clientBits(clientAddress);
+        long requestBits = RequestKey.requestBits(requestId, data, dedupFingerprint);
         if (semantics == ArgumentConstants.Semantics.AT_LEAST_ONCE) {
-            if (requestHistory.isDuplicate(request)) {
+            if (requestHistory.isDuplicate(clientBits, requestBits)) {
                 //  Try to fetch reply from cache
-                byte[] cachedReply = replyCache.get(request);
+                byte[] cachedReply = replyCache.get(new RequestKey(clientBits, requestBits));
                 if (cachedReply != null) {
-                    System.out.println("Duplicate request ID: " + requestId + ", resending cached reply.");
+                    metrics.recordDuplicate(operationType);
+                    Log.info("Duplicate request ID: {}, resending cached reply.", requestId);
                     return cachedReply;
                 } else {
-                    System.out.println("Warning: Duplicate request ID " + requestId + " but no cached reply found. Re-processing.");
+                    Log.warn("Duplicate request ID {} but no cached reply found. Re-processing.", requestId);
                 }
             }
         } else {
             // Semantics is at-most-once
-            if (requestHistory.isDuplicate(request)) {
-                System.out.println("Duplicate request ID (At-Most-Once): " + requestId + ", ignoring.");
+            if (requestHistory.isDuplicate(clientBits, requestBits)) {
+                metrics.recordDuplicate(operationType);
+                Log.info("Duplicate request ID (At-Most-Once): {}, ignoring.", requestId);
                 return null;
             }
         }
 
         String errorMessage = null;
         byte[] replyPayload = null;
+        String replyFacilityKey = null; // Set when the reply reflects a facility's current state
+        byte replyFlags = 0;
 
         try {
-            System.out.println("Request received from:");
-            System.out.println("\tHost Name: " + clientAddress.getHostName());
-            System.out.println("\tClient Port: " + clientAddress.getPort());
-            System.out.println("Request ID: " + requestId + ", Operation Type:" + operationType);
             switch (operationType) {
                 case QUERY_AVAILABILITY:
-                    shared.Marshaller.QueryAvailabilityRequestData queryData = shared.Marshaller.unmarshalQueryAvailabilityRequest(data);
-                    replyPayload = handleQueryAvailability(queryData);
+                    Marshaller.QueryAvailabilityRequestData queryData = Marshaller.readQueryAvailabilityRequest(data, facilityNames);
+                    replyPayload = handleQueryAvailability(queryData, binaryAvailability);
+                    if (binaryAvailability) {
+                        replyFlags = ProtocolConstants.FLAG_BINARY_AVAILABILITY;
+                    }
+                    if (queryData.hasDates()) {
+                        replyFlags |= ProtocolConstants.FLAG_ABSOLUTE_DATES; // Binary days are epoch days
+                    }
+                    replyFacilityKey = Facility.normalizeName(queryData.getFacilityName());
                     break;
                 case BOOK_FACILITY:
-                    shared.Marshaller.BookFacilityRequestData bookData = shared.Marshaller.unmarshalBookFacilityRequest(data);
+                    Marshaller.BookFacilityRequestData bookData = Marshaller.readBookFacilityRequest(data, facilityNames);
                     replyPayload = handleBookFacility(bookData);
-                    replyCache.clear();
                     break;
                 case CHANGE_BOOKING:
-                    shared.Marshaller.ChangeBookingRequestData changeData = shared.Marshaller.unmarshalChangeBookingRequest(data);
+                    Marshaller.ChangeBookingRequestData changeData = Marshaller.readChangeBookingRequest(data);
                     replyPayload = handleChangeBooking(changeData);
-                    replyCache.clear();
                     break;
                 case MONITOR_AVAILABILITY:
-                    shared.Marshaller.MonitorAvailabilityRequestData monitorData = shared.Marshaller.unmarshalMonitorAvailabilityRequest(data);
-                    handleMonitorAvailability(monitorData, clientAddress);
+                    Marshaller.MonitorAvailabilityRequestData monitorData = Marshaller.readMonitorAvailabilityRequest(data, facilityNames);
+                    handleMonitorAvailability(monitorData, clientAddress, binaryAvailability);
                     return null;
                 case GET_SERVER_STATUS:
-                    replyPayload = handleGetServerStatus();
+                    replyPayload = getStatusReport().getBytes(StandardCharsets.UTF_8);
+                    break;
+                case GET_SERVER_METRICS:
+                    replyPayload = getMetricsReport().getBytes(StandardCharsets.UTF_8);
                     break;
                 case EXTEND_BOOKING:
-                    shared.Marshaller.ExtendBookingRequestData extendData = shared.Marshaller.unmarshalExtendBookingRequest(data);
-                    replyPayload = handleExtendBooking(extendData.getConfirmationId(), extendData.getExtendMinutes());
-                    replyCache.clear();
+                    Marshaller.ExtendBookingRequestData extendData = Marshaller.readExtendBookingRequest(data);
+                    replyPayload = handleExtendBooking(extendData.getConfirmationUuid(), extendData.getExtendMinutes());
+                    break;
+                case BATCH_BOOKING:
+                    Marshaller.BatchBookingRequestData batchData = Marshaller.readBatchBookingRequest(data, facilityNames);
+                    replyPayload = handleBatchBooking(batchData);
                     break;
                 default:
                     errorMessage = "Unknown operation type.";
@@ -120,52 +165,69 @@ public class RequestHandler {
             errorMessage = "Invalid date/time format.";
         } catch (Exception e) {
             errorMessage = "Server error: " + e.getMessage();
-            System.err.println("Unexpected error processing request: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Unexpected error processing request: {}", e.getMessage(), e);
         }
 
         byte[] marshalledReply;
         if (replyPayload != null) {
-            marshalledReply = Marshaller.marshalReply(requestId, operationType, replyPayload);
-            replyCache.put(request, marshalledReply);
+            marshalledReply = Marshaller.marshalReply(requestId, operationType, replyPayload, replyFlags);
+            replyCache.put(new RequestKey(clientBits, requestBits), marshalledReply, replyFacilityKey);
         } else {
+            metrics.recordError(operationType);
             marshalledReply = Marshaller.marshalErrorReply(requestId, operationType, errorMessage != null ? errorMessage : "Unknown error");
-            replyCache.remove(request);
+            replyCache.remove(new RequestKey(clientBits, requestBits));
         }
 
-        requestHistory.addRequest(request);
+        requestHistory.addRequest(clientBits, requestBits);
+        ReplicationPrimary replication = facilityService.getReplication();
+        if (replication != null) {
+            // Under semi-sync acks a change is only confirmed once the standby has it, and this entry with it
+            replication.replicateRequest(clientBits, requestBits, changesBookings(operationType));
+        }
 
         return marshalledReply;
     }
 
-    private byte[] handleQueryAvailability(shared.Marshaller.QueryAvailabilityRequestData queryData) {
+    private static boolean changesBookings(OperationType operationType) {
+        switch (operationType) {
+            case BOOK_FACILITY:
+            case CHANGE_BOOKING:
+            case EXTEND_BOOKING:
+            case BATCH_BOOKING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private byte[] handleQueryAvailability(Marshaller.QueryAvailabilityRequestData queryData, boolean binaryAvailability) {
         String facilityName = queryData.getFacilityName();
+        if (queryData.hasDates()) {
+            List<LocalDate> dates = queryData.getDates();
+            return binaryAvailability ? facilityService.getAvailabilityBitmapForDates(facilityName, dates)
+                    : facilityService.getAvailabilityBytesForDates(facilityName, dates);
+        }
         List<DayOfWeek> days = queryData.getDays();
-        Facility facility = facilityService.getFacilityByName(facilityName);
-
-        Availability facilityAvailability = facility.getAvailability();
-        String availabilityInfo = facilityAvailability.toString(days);
-
-        return availabilityInfo.getBytes(StandardCharsets.UTF_8);
+        if (binaryAvailability) {
+            return facilityService.getAvailabilityBitmap(facilityName, days);
+        }
+        return facilityService.getAvailabilityBytes(facilityName, days);
     }
 
-    private byte[] handleBookFacility(shared.Marshaller.BookFacilityRequestData bookData) {
+    private byte[] handleBookFacility(Marshaller.BookFacilityRequestData bookData) {
         String facilityName = bookData.getFacilityName();
         LocalDateTime startTime = bookData.getStartTime();
         LocalDateTime endTime = bookData.getEndTime();
 
-        if (startTime.getDayOfWeek() != endTime.getDayOfWeek()) {
-            throw new IllegalArgumentException("Invalid booking time: booking cannot be overnight!");
-        }
-
-        if (startTime.isAfter(endTime) || startTime.isEqual(endTime)) {
-            throw new IllegalArgumentException("Invalid booking time: start time must be before end time.");
-        }
+        FacilityService.checkBookingTimes(startTime, endTime);
 
         Booking booking = facilityService.bookFacility(facilityName, startTime, endTime);
         String bookingId = booking.getConfirmationIdAsString();
 
-        System.out.println("New booking for: " + facilityName + ", Booking ID: " + bookingId);
+        Log.info("New booking for: {}, Booking ID: {}", facilityName, bookingId);
+
+        // Cached availability replies for this facility are now stale
+        replyCache.invalidateFacility(Facility.normalizeName(facilityName));
 
         // Notify monitoring clients about availability update asynchronously.
         messageService.triggerMonitorUpdates(facilityName);
@@ -173,101 +235,136 @@ public class RequestHandler {
         return bookingId.getBytes(StandardCharsets.UTF_8);
     }
 
-    private void handleMonitorAvailability(shared.Marshaller.MonitorAvailabilityRequestData monitorData, InetSocketAddress clientAddress) throws FacilityBookingException {
+    // One reply, one lock acquisition and one fsync for the whole batch; see FacilityService.applyBatch
+    private byte[] handleBatchBooking(Marshaller.BatchBookingRequestData batchData) {
+        String facilityName = batchData.getFacilityName();
+        List<Marshaller.BatchItem> items = batchData.getItems();
+        List<Marshaller.BatchItemResult> results = facilityService.applyBatch(facilityName, items, batchData.isAllOrNothing());
+
+        int applied = 0;
+        for (Marshaller.BatchItemResult result : results) {
+            if (result.getStatus() == Marshaller.BatchItemResult.BOOKED || result.getStatus() == Marshaller.BatchItemResult.APPLIED) {
+                applied++;
+            }
+        }
+        Log.info("Batch for: {}, {} of {} items applied{}", facilityName, applied, items.size(),
+                batchData.isAllOrNothing() ? " (all or nothing)." : ".");
+
+        if (applied > 0) {
+            // One invalidation and one monitor update for the whole batch
+            replyCache.invalidateFacility(Facility.normalizeName(facilityName));
+            messageService.triggerMonitorUpdates(facilityName);
+        }
+        return Marshaller.marshalBatchBookingReply(results);
+    }
+
+    private void handleMonitorAvailability(Marshaller.MonitorAvailabilityRequestData monitorData, InetSocketAddress clientAddress, boolean binaryAvailability) throws FacilityBookingException {
         String facilityName = monitorData.getFacilityName();
         int monitorIntervalMinutes = monitorData.getMonitorIntervalMinutes();
         Facility facility = facilityService.getFacilityByName(facilityName);
 
         long expiryTimeMillis = System.currentTimeMillis() + (monitorIntervalMinutes * 60 * 1000L);
-        MonitorClient monitorClient = new MonitorClient(clientAddress, facility.getFacilityName(), expiryTimeMillis);
-        facilityService.putMonitor(clientAddress, monitorClient);
+        MonitorClient monitorClient = new MonitorClient(clientAddress, facility.getFacilityName(), expiryTimeMillis, binaryAvailability);
+        facilityService.putMonitor(monitorClient);
 
-        System.out.println("Client " + clientAddress + " registered to monitor " + facility.getFacilityName() + " for " + monitorIntervalMinutes + " minutes.");
+        Log.info("Client {} registered to monitor {} for {} minutes.", clientAddress, facility.getFacilityName(), monitorIntervalMinutes);
 
         // Immediately send the current availability to the newly registered client
         messageService.sendAvailabilityUpdateToMonitor(monitorClient);
     }
 
-    private byte[] handleGetServerStatus() {
+    public String getStatusReport() {
         int facilityCount = facilityService.getFacilityCount();
         int bookingCount = facilityService.getBookingCount();
-        return ("Server Status: " + facilityCount + " facilities, " + bookingCount + " bookings.").getBytes(StandardCharsets.UTF_8);
-    }
-
-    private void editBooking(UUID bookingId, Booking booking, LocalDateTime startTime, LocalDateTime endTime, int startTimeOffsetMinutes, int endTimeOffsetMinutes) {
-        LocalDateTime newStartTime = startTime.plusMinutes(startTimeOffsetMinutes);
-        LocalDateTime newEndTime = endTime.plusMinutes(endTimeOffsetMinutes);
-
-        if (newStartTime.isBefore(LocalDateTime.now())) {
-            throw new FacilityBookingException("Cannot change booking to a time in the past.");
+        MonitorFanout fanout = messageService.getMonitorFanout();
+        BookingStore bookingStore = facilityService.getBookingStore();
+        String persistence = "";
+        if (bookingStore != null) {
+            WriteAheadLog log = bookingStore.getLog();
+            persistence = "\nPersistence: " + log.getRecordsWritten() + " records in " + log.getSyncs()
+                    + (log.isFsync() ? " fsyncs" : " writes") + ", durable to sequence " + log.getDurableSequence()
+                    + ", snapshot at " + bookingStore.getSnapshotSequence() + ".";
         }
-        if (newStartTime.isAfter(newEndTime) || newStartTime.isEqual(newEndTime)) {
-            throw new IllegalArgumentException("Invalid booking time after change: start time must be before end time.");
+        ReplicationPrimary replication = facilityService.getReplication();
+        String replicationStatus = "";
+        if (replication != null) {
+            replicationStatus = "\nReplication: to standby " + replication.getStandby().getHostString() + ":" + replication.getStandby().getPort()
+                    + " (" + replication.getAck().getValue() + ", batches of " + replication.getBatchSize() + "), "
+                    + (replication.isStreaming() ? "streaming" : "not connected") + ", sequence " + replication.getLastSequence()
+                    + ", acknowledged " + replication.getAcknowledgedSequence() + ", " + replication.getMessagesSent() + " messages in "
+                    + replication.getBatchesSent() + " batches, " + replication.getCopiesSent() + " copies sent, "
+                    + replication.getAckTimeouts() + " ack timeouts, " + replication.getUnconfirmed() + " replies unconfirmed.";
         }
+        ShardRing shardRing = facilityService.getShardRing();
+        String cluster = shardRing == null ? "" : "Cluster: " + shardRing.getShard(facilityService.getShardId()) + ", "
+                + shardRing.getShards().size() + " shards.\n";
+        return "Server Status: " + facilityCount + " facilities, " + bookingCount + " bookings, "
+                + facilityService.getMonitorCount() + " monitors.\n" + cluster
+                + "Request History: " + requestHistory.size() + " entries, " + requestHistory.getHits() + " duplicates, "
+                + requestHistory.getMisses() + " new, " + requestHistory.getEvictions() + " evicted.\n"
+                + "Reply Cache: " + replyCache.size() + " entries, " + String.format("%.1f", replyCache.getHitRate() * 100) + "% hit rate, "
+                + replyCache.getEvictions() + " evicted, " + replyCache.getInvalidations() + " invalidated.\n"
+                + "Monitor Updates: " + messageService.getMonitorUpdatesTriggered() + " triggered, "
+                + messageService.getMonitorUpdatesSuppressed() + " suppressed, " + messageService.getMonitorDatagramsSent() + " datagrams sent.\n"
+                + "Monitor Fan-out: queue depth " + fanout.getQueueDepth() + " (max " + fanout.getMaxQueueDepth() + "), "
+                + fanout.getMerged() + " merged, " + fanout.getDropped() + " dropped, "
+                + String.format("%.1f", fanout.getAverageLatencyMillis()) + " ms average latency, "
+                + String.format("%.1f", fanout.getMaxLatencyMillis()) + " ms max.\n"
+                + "Logging: level " + Log.getLevel().getValue() + ", " + Log.getDropped() + " entries dropped." + persistence + replicationStatus;
+    }
 
-        String facilityName = booking.getFacilityName();
-
-        Facility facility = facilityService.getFacilityByName(facilityName);
-
-        // Temporarily remove the booking to avoid self-conflict during availability check.
-        facilityService.markFacilityAvailable(facilityName, startTime, endTime);
-        facilityService.removeBooking(bookingId);
-
-        if (!facilityService.checkFacilityAvailability(facilityName, newStartTime, newEndTime)) {
-            // Restore the booking if the new slot is not available.
-            facility.addBooking(booking);
-            throw new FacilityBookingException("Facility '" + facility.getFacilityName() + "' is not available for the changed time.");
-        }
+    // The status followed by per-operation counts and latencies, duplicate and reply cache ratios and monitor
+    // fan-out lag; also what the periodic metrics file holds
+    public String getMetricsReport() {
+        StringBuilder report = new StringBuilder(getStatusReport()).append('\n');
+        metrics.appendReport(report);
+        long duplicates = requestHistory.getHits();
+        long lookups = duplicates + requestHistory.getMisses();
+        long cacheHits = replyCache.getHits();
+        long cacheLookups = cacheHits + replyCache.getMisses();
+        report.append("Duplicate Ratio: ").append(String.format("%.2f", lookups == 0 ? 0 : duplicates * 100.0 / lookups))
+                .append("% (").append(duplicates).append(" of ").append(lookups).append(" requests).\n");
+        report.append("Reply Cache Hit Ratio: ").append(String.format("%.2f", cacheLookups == 0 ? 0 : cacheHits * 100.0 / cacheLookups))
+                .append("% (").append(cacheHits).append(" of ").append(cacheLookups).append(" lookups).\n");
+        StripedHistogram.Snapshot lag = messageService.getMonitorFanout().getLatencyHistogram().snapshot();
+        report.append("Monitor Fan-out Lag: ").append(lag.getTotalCount()).append(" updates, ")
+                .append(String.format("%.1f", lag.getMean() / 1000)).append(" ms mean, ")
+                .append(String.format("%.1f", lag.getValueAtPercentile(99) / 1000.0)).append(" ms p99, ")
+                .append(String.format("%.1f", lag.getMax() / 1000.0)).append(" ms max.\n");
+        report.append("Simulated Loss: ").append(messageService.getSimulatedLossDrops()).append(" replies dropped.");
+        return report.toString();
+    }
 
-        // Update booking times and add back to facility (which updates availability).
-        booking.setStartTime(newStartTime);
-        booking.setEndTime(newEndTime);
-        facility.addBooking(booking);
+    private void editBooking(UUID bookingId, Booking booking, int startTimeOffsetMinutes, int endTimeOffsetMinutes) {
+        // Check, release and re-add happen atomically under the facility's lock
+        facilityService.rescheduleBooking(bookingId, startTimeOffsetMinutes, endTimeOffsetMinutes);
+        replyCache.invalidateFacility(Facility.normalizeName(booking.getFacilityName()));
 
         // Notify monitoring clients about the update.
-        messageService.triggerMonitorUpdates(facilityName);
+        messageService.triggerMonitorUpdates(booking.getFacilityName());
     }
 
-    private byte[] handleChangeBooking(shared.Marshaller.ChangeBookingRequestData changeData) throws FacilityBookingException, IllegalArgumentException {
-        String confirmationIdStr = changeData.getConfirmationId();
+    private byte[] handleChangeBooking(Marshaller.ChangeBookingRequestData changeData) throws FacilityBookingException, IllegalArgumentException {
+        UUID bookingId = changeData.getConfirmationUuid(); // Format already checked while decoding
         int offsetMinutes = changeData.getOffsetMinutes();
-        UUID bookingId;
-        try {
-            bookingId = UUID.fromString(confirmationIdStr);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid confirmation ID format.");
-        }
 
         Booking booking = facilityService.getBookingByUUID(bookingId);
         if (booking == null) {
-            throw new FacilityBookingException("Booking with confirmation ID '" + confirmationIdStr + "' not found.");
+            throw facilityService.bookingNotFound(bookingId);
         }
 
-        LocalDateTime originalStartTime = booking.getStartTime();
-        LocalDateTime originalEndTime = booking.getEndTime();
-
-        editBooking(bookingId, booking, originalStartTime, originalEndTime, offsetMinutes, offsetMinutes);
+        editBooking(bookingId, booking, offsetMinutes, offsetMinutes);
 
         return "Booking changed successfully.".getBytes(StandardCharsets.UTF_8);
     }
 
-    private byte[] handleExtendBooking(String confirmationIdStr, int extendMinutes) throws FacilityBookingException, IllegalArgumentException {
-        UUID bookingId;
-        try {
-            bookingId = UUID.fromString(confirmationIdStr);
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid confirmation ID format.");
-        }
-
+    private byte[] handleExtendBooking(UUID bookingId, int extendMinutes) throws FacilityBookingException, IllegalArgumentException {
         Booking booking = facilityService.getBookingByUUID(bookingId);
         if (booking == null) {
-            throw new FacilityBookingException("Booking with confirmation ID '" + confirmationIdStr + "' not found.");
+            throw facilityService.bookingNotFound(bookingId);
         }
 
-        LocalDateTime originalStartTime = booking.getStartTime();
-        LocalDateTime originalEndTime = booking.getEndTime();
-
-        editBooking(bookingId, booking, originalStartTime, originalEndTime, 0, extendMinutes);
+        editBooking(bookingId, booking, 0, extendMinutes);
 
         return "Booking extended successfully.".getBytes(StandardCharsets.UTF_8);
     }
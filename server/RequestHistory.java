@@ -1,21 +1,222 @@
 package server;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RequestHistory {
-    private Set<String> processedRequests = Collections.synchronizedSet(new HashSet<>()); // Thread-safe set
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L; // Far longer than any client retries a request
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    private static final int STRIPES = 16; // Power of two
 
-    public boolean isDuplicate(String request) {
-        return !processedRequests.add(request); // add() returns false if element already present
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long ttlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public RequestHistory() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    // Entries are forgotten after ttlMillis, or earlier (oldest first) once a stripe holds its share of maxEntries,
+    // so memory stays flat however long the server runs.
+    public RequestHistory(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        int maxEntriesPerStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxEntriesPerStripe);
+        }
+    }
+
+    // Requests are identified by the two words of a RequestKey, so checking a request allocates nothing
+    public boolean isDuplicate(long clientBits, long requestBits) {
+        boolean duplicate = !stripeFor(clientBits, requestBits).add(clientBits, requestBits, System.currentTimeMillis()); // add() returns false if element already present
+        if (duplicate) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return duplicate;
     }
 
-    public void addRequest(String request) {
-        processedRequests.add(request);
+    public void addRequest(long clientBits, long requestBits) {
+        stripeFor(clientBits, requestBits).add(clientBits, requestBits, System.currentTimeMillis());
+    }
+
+    // Client and request bits of every entry that has not expired, interleaved. Each stripe is copied under its lock,
+    // so requests are only held up for the copy.
+    public long[] entries() {
+        long now = System.currentTimeMillis();
+        long[][] copies = new long[STRIPES][];
+        int length = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            copies[i] = stripes[i].copyEntries(now);
+            length += copies[i].length;
+        }
+        long[] entries = new long[length];
+        int position = 0;
+        for (long[] copy : copies) {
+            System.arraycopy(copy, 0, entries, position, copy.length);
+            position += copy.length;
+        }
+        return entries;
     }
 
     public void clearHistory() { // Optional: Clear history after some time or for testing
-        processedRequests.clear();
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestHistory{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    private static int hash(long clientBits, long requestBits) {
+        long h = (clientBits * 0x9e3779b97f4a7c15L) ^ (requestBits * 0xc2b2ae3d27d4eb4fL);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Stripe stripeFor(long clientBits, long requestBits) {
+        int hash = hash(clientBits, requestBits);
+        return stripes[(hash >>> 28) & (STRIPES - 1)]; // High bits pick the stripe, low bits the table slot
+    }
+
+    // Each stripe has its own lock, so concurrent requests rarely contend. Keys live in an open-addressed table
+    // (linear probing) for lookups and in a ring buffer in arrival order for eviction. Every entry lives for the
+    // same TTL, so arrival order is also expiry order and eviction only ever looks at the head of the ring.
+    private final class Stripe {
+        private final int maxEntries;
+        private final int tableMask;
+        private final long[] tableClientBits;
+        private final long[] tableRequestBits;
+        private final boolean[] tableUsed;
+
+        private final long[] ringClientBits;
+        private final long[] ringRequestBits;
+        private final long[] ringAddedAt;
+        private int ringHead = 0;
+        private int size = 0;
+
+        private Stripe(int maxEntries) {
+            this.maxEntries = maxEntries;
+            int tableSize = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) << 1; // At most half full
+            this.tableMask = tableSize - 1;
+            this.tableClientBits = new long[tableSize];
+            this.tableRequestBits = new long[tableSize];
+            this.tableUsed = new boolean[tableSize];
+            this.ringClientBits = new long[maxEntries];
+            this.ringRequestBits = new long[maxEntries];
+            this.ringAddedAt = new long[maxEntries];
+        }
+
+        synchronized boolean add(long clientBits, long requestBits, long now) {
+            evictExpired(now);
+            int slot = hash(clientBits, requestBits) & tableMask;
+            while (tableUsed[slot]) {
+                if (tableClientBits[slot] == clientBits && tableRequestBits[slot] == requestBits) {
+                    return false;
+                }
+                slot = (slot + 1) & tableMask;
+            }
+            if (size == maxEntries) {
+                evictHead();
+                slot = hash(clientBits, requestBits) & tableMask; // Eviction may have shifted entries
+                while (tableUsed[slot]) {
+                    slot = (slot + 1) & tableMask;
+                }
+            }
+            tableUsed[slot] = true;
+            tableClientBits[slot] = clientBits;
+            tableRequestBits[slot] = requestBits;
+
+            int tail = (ringHead + size) % maxEntries;
+            ringClientBits[tail] = clientBits;
+            ringRequestBits[tail] = requestBits;
+            ringAddedAt[tail] = now;
+            size++;
+            return true;
+        }
+
+        private void evictExpired(long now) {
+            while (size > 0 && now - ringAddedAt[ringHead] >= ttlMillis) {
+                evictHead();
+            }
+        }
+
+        private void evictHead() {
+            removeFromTable(ringClientBits[ringHead], ringRequestBits[ringHead]);
+            ringHead = (ringHead + 1) % maxEntries;
+            size--;
+            evictions.increment();
+        }
+
+        // Backward-shift deletion keeps every remaining key reachable from its home slot without tombstones
+        private void removeFromTable(long clientBits, long requestBits) {
+            int slot = hash(clientBits, requestBits) & tableMask;
+            while (tableClientBits[slot] != clientBits || tableRequestBits[slot] != requestBits) {
+                slot = (slot + 1) & tableMask;
+            }
+            int hole = slot;
+            int next = (hole + 1) & tableMask;
+            while (tableUsed[next]) {
+                int home = hash(tableClientBits[next], tableRequestBits[next]) & tableMask;
+                // Move the entry into the hole unless its home slot lies cyclically in (hole, next]
+                if (((next - home) & tableMask) >= ((next - hole) & tableMask)) {
+                    tableClientBits[hole] = tableClientBits[next];
+                    tableRequestBits[hole] = tableRequestBits[next];
+                    hole = next;
+                }
+                next = (next + 1) & tableMask;
+            }
+            tableUsed[hole] = false;
+        }
+
+        synchronized long[] copyEntries(long now) {
+            evictExpired(now);
+            long[] entries = new long[size * 2];
+            for (int i = 0; i < size; i++) {
+                int index = (ringHead + i) % maxEntries;
+                entries[2 * i] = ringClientBits[index];
+                entries[2 * i + 1] = ringRequestBits[index];
+            }
+            return entries;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            Arrays.fill(tableUsed, false);
+            ringHead = 0;
+            size = 0;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+package server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+// Fixed-size identity of a client request: who sent it (high word) and which request it is (low word).
+// The static helpers compute both words without allocating, so duplicate detection can work on primitives;
+// a RequestKey object is only created where a map key is needed, e.g. to cache a reply.
+public final class RequestKey {
+    private static final int SIMULATE_LOSS_OFFSET = 7;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final long high;
+    private final long low;
+
+    public RequestKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    // Bits 0-15: port. IPv4: bits 16-47 hold the address. IPv6: bits 16-62 hold a hash of the address and bit 63 is set.
+    public static long clientBits(InetSocketAddress clientAddress) {
+        return clientBits(clientAddress.getAddress(), clientAddress.getPort());
+    }
+
+    public static long clientBits(InetAddress address, int port) {
+        long addressBits;
+        if (address instanceof Inet4Address) {
+            addressBits = address.hashCode() & 0xffffffffL; // Inet4Address.hashCode() is the address itself
+        } else {
+            long hash = 0;
+            for (byte b : address.getAddress()) {
+                hash = hash * 31 + (b & 0xff);
+            }
+            addressBits = (hash & 0x7fffffffffffL) | (1L << 47);
+        }
+        return (addressBits << 16) | (port & 0xffff);
+    }
+
+    // Bits 32-63: request ID from the header. Bits 0-31: fingerprint of the message, or 0 when fingerprints are off.
+    // The fingerprint tells apart different requests that reuse an ID, e.g. after a client restarts its counter.
+    public static long requestBits(int requestId, byte[] message, boolean fingerprint) {
+        int messageFingerprint = fingerprint ? fingerprint(message) : 0;
+        return ((long) requestId << 32) | (messageFingerprint & 0xffffffffL);
+    }
+
+    public static long requestBits(int requestId, ByteBuffer message, boolean fingerprint) {
+        int messageFingerprint = fingerprint ? fingerprint(message) : 0;
+        return ((long) requestId << 32) | (messageFingerprint & 0xffffffffL);
+    }
+
+    // FNV-1a over the operation type, payload length and payload. The request ID is already part of the key and
+    // the simulate-loss flag is skipped so a retransmission with a different flag is still a duplicate.
+    public static int fingerprint(byte[] message) {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 4; i < message.length; i++) {
+            if (i == SIMULATE_LOSS_OFFSET) {
+                continue;
+            }
+            hash = (hash ^ (message[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // Same fingerprint over the bytes from message.position() to message.limit(), read in place
+    public static int fingerprint(ByteBuffer message) {
+        int start = message.position();
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = start + 4; i < message.limit(); i++) {
+            if (i - start == SIMULATE_LOSS_OFFSET) {
+                continue;
+            }
+            hash = (hash ^ (message.get(i) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 0x9e3779b97f4a7c15L ^ low);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestKey{" +
+                "high=" + Long.toHexString(high) +
+                ", low=" + Long.toHexString(low) +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package server;
+
+import server.logging.Log;
+import server.logging.LogLevel;
+import server.persistence.BookingStore;
+import server.persistence.WriteAheadLog;
+import server.replication.ReplicationPrimary;
+import shared.constants.ArgumentConstants;
+import shared.constants.ProtocolConstants;
+
+import java.net.InetSocketAddress;
+
+// Server options collected from the command line; every field starts at its default.
+public class ServerConfig {
+    public int port = ProtocolConstants.SERVER_PORT;
+    public ArgumentConstants.Semantics semantics = ArgumentConstants.Semantics.AT_MOST_ONCE;
+    public int workerCount = 0; // Process requests on the receive thread
+    public ArgumentConstants.WorkerType workerType = ArgumentConstants.WorkerType.PLATFORM;
+    public int channelCount = 1; // Receive channels sharing the port through SO_REUSEPORT
+    public int slotMinutes = Availability.DEFAULT_SLOT_MINUTES;
+    public int horizonDays = Availability.DEFAULT_HORIZON_DAYS;
+    public long historyTtlMillis = RequestHistory.DEFAULT_TTL_MILLIS;
+    public int historyMaxEntries = RequestHistory.DEFAULT_MAX_ENTRIES;
+    public boolean dedupFingerprint = true;
+    public int replyCacheMaxEntries = ReplyCache.DEFAULT_MAX_ENTRIES;
+    public long monitorDebounceMillis = MessageService.DEFAULT_MONITOR_DEBOUNCE_MILLIS;
+    public int fanoutWorkers = MonitorFanout.DEFAULT_WORKERS;
+    public int fanoutQueueCapacity = MonitorFanout.DEFAULT_QUEUE_CAPACITY;
+    public String catalogFile = null; // Serve FacilityCatalog.DEFAULT_FACILITIES
+    public String availabilityFile = null; // Keep availability on the heap
+    public String dataDirectory = null; // Keep bookings in memory only
+    public boolean fsync = true;
+    public long fsyncDelayMillis = WriteAheadLog.DEFAULT_FSYNC_DELAY_MILLIS;
+    public long snapshotEveryRecords = BookingStore.DEFAULT_SNAPSHOT_EVERY_RECORDS;
+    public LogLevel logLevel = Log.DEFAULT_LEVEL;
+    public String metricsFile = null; // No periodic metrics dump
+    public long metricsIntervalMillis = MetricsFile.DEFAULT_INTERVAL_MILLIS;
+    public String clusterFile = null; // Serve every facility of the catalog
+    public int shardId = -1; // Which shard of the cluster file this server is
+    public InetSocketAddress replicateTo = null; // No standby
+    public ArgumentConstants.ReplicationAck replicationAck = ArgumentConstants.ReplicationAck.ASYNC;
+    public int replicationBatchSize = ReplicationPrimary.DEFAULT_BATCH_SIZE;
+    public long replicationTimeoutMillis = ReplicationPrimary.DEFAULT_TIMEOUT_MILLIS;
+    public int standbyPort = 0; // Serve at once instead of waiting as a standby
+}
@@ -0,0 +1,87 @@
+package server;
+
+import shared.constants.OperationType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Requests, error replies, duplicates and latency per operation type. Latency runs from the datagram being received
+// to its reply being sent (or, for requests that get no reply, to that being decided), so it includes time spent
+// queued for a worker. Recording is a few striped counter increments and never takes a lock.
+public class ServerMetrics {
+    private final long startMillis = System.currentTimeMillis();
+    private final OperationMetrics[] byOperation = new OperationMetrics[OperationType.values().length];
+
+    public ServerMetrics() {
+        for (int i = 0; i < byOperation.length; i++) {
+            byOperation[i] = new OperationMetrics();
+        }
+    }
+
+    public void recordRequest(OperationType operationType, long receivedNanos) {
+        byOperation[operationType.ordinal()].latencyMicros.record((System.nanoTime() - receivedNanos) / 1000);
+    }
+
+    public void recordError(OperationType operationType) {
+        byOperation[operationType.ordinal()].errors.increment();
+    }
+
+    // Answered from the reply cache or, under at-most-once, ignored
+    public void recordDuplicate(OperationType operationType) {
+        byOperation[operationType.ordinal()].duplicates.increment();
+    }
+
+    public long getRequests(OperationType operationType) {
+        return byOperation[operationType.ordinal()].latencyMicros.getTotalCount();
+    }
+
+    public long getErrors(OperationType operationType) {
+        return byOperation[operationType.ordinal()].errors.sum();
+    }
+
+    public long getDuplicates(OperationType operationType) {
+        return byOperation[operationType.ordinal()].duplicates.sum();
+    }
+
+    public StripedHistogram getLatencyHistogram(OperationType operationType) {
+        return byOperation[operationType.ordinal()].latencyMicros;
+    }
+
+    public long getTotalRequests() {
+        long total = 0;
+        for (OperationMetrics metrics : byOperation) {
+            total += metrics.latencyMicros.getTotalCount();
+        }
+        return total;
+    }
+
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    // One line per operation that has seen requests, latencies in microseconds
+    public void appendReport(StringBuilder report) {
+        long uptimeMillis = Math.max(1, getUptimeMillis());
+        long total = getTotalRequests();
+        report.append("Requests: ").append(total).append(" in ").append(uptimeMillis / 1000).append(" s (")
+                .append(String.format("%.1f", total * 1000.0 / uptimeMillis)).append(" req/s).\n");
+        report.append(String.format("%-20s %9s %7s %7s %8s %8s %8s %8s %8s %8s%n",
+                "Operation", "Count", "Errors", "Dups", "Mean", "p50", "p90", "p99", "p99.9", "Max (us)"));
+        for (OperationType operationType : OperationType.values()) {
+            OperationMetrics metrics = byOperation[operationType.ordinal()];
+            if (metrics.latencyMicros.getTotalCount() == 0) {
+                continue;
+            }
+            StripedHistogram.Snapshot latency = metrics.latencyMicros.snapshot();
+            report.append(String.format("%-20s %9d %7d %7d %8.0f %8d %8d %8d %8d %8d%n", operationType, latency.getTotalCount(),
+                    metrics.errors.sum(), metrics.duplicates.sum(), latency.getMean(), latency.getValueAtPercentile(50),
+                    latency.getValueAtPercentile(90), latency.getValueAtPercentile(99), latency.getValueAtPercentile(99.9),
+                    latency.getMax()));
+        }
+    }
+
+    private static final class OperationMetrics {
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder duplicates = new LongAdder();
+        private final StripedHistogram latencyMicros = new StripedHistogram(); // Also counts the requests
+    }
+}
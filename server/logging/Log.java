@@ -0,0 +1,130 @@
+package server.logging;
+
+// Leveled server log. Messages are patterns with "{}" placeholders and up to four arguments, e.g.
+// Log.info("New booking for: {}, Booking ID: {}", facilityName, bookingId). A disabled level costs one comparison;
+// an enabled one stores the pattern and argument references in a ring that a background thread formats and prints,
+// so the caller neither builds Strings nor waits for the console. Arguments must not change after the call.
+// The fixed arities avoid a varargs array per call; primitive arguments are still boxed.
+public final class Log {
+    public static final LogLevel DEFAULT_LEVEL = LogLevel.INFO;
+    public static final int BUFFER_ENTRIES = 8192;
+
+    private static volatile LogLevel level = DEFAULT_LEVEL;
+    private static final LogRing RING = new LogRing(BUFFER_ENTRIES);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(RING::close, "log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != LogLevel.OFF;
+    }
+
+    // Entries lost because the writer was a full ring behind
+    public static long getDropped() {
+        return RING.getDropped();
+    }
+
+    // Waits until everything logged so far has been printed, e.g. before System.exit
+    public static void flush() {
+        RING.flush();
+    }
+
+    public static void debug(String pattern) {
+        log(LogLevel.DEBUG, pattern, 0, null, null, null, null);
+    }
+
+    public static void debug(String pattern, Object arg0) {
+        log(LogLevel.DEBUG, pattern, 1, arg0, null, null, null);
+    }
+
+    public static void debug(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.DEBUG, pattern, 2, arg0, arg1, null, null);
+    }
+
+    public static void debug(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.DEBUG, pattern, 3, arg0, arg1, arg2, null);
+    }
+
+    public static void debug(String pattern, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.DEBUG, pattern, 4, arg0, arg1, arg2, arg3);
+    }
+
+    public static void info(String pattern) {
+        log(LogLevel.INFO, pattern, 0, null, null, null, null);
+    }
+
+    public static void info(String pattern, Object arg0) {
+        log(LogLevel.INFO, pattern, 1, arg0, null, null, null);
+    }
+
+    public static void info(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.INFO, pattern, 2, arg0, arg1, null, null);
+    }
+
+    public static void info(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.INFO, pattern, 3, arg0, arg1, arg2, null);
+    }
+
+    public static void info(String pattern, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.INFO, pattern, 4, arg0, arg1, arg2, arg3);
+    }
+
+    public static void warn(String pattern) {
+        log(LogLevel.WARN, pattern, 0, null, null, null, null);
+    }
+
+    public static void warn(String pattern, Object arg0) {
+        log(LogLevel.WARN, pattern, 1, arg0, null, null, null);
+    }
+
+    public static void warn(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.WARN, pattern, 2, arg0, arg1, null, null);
+    }
+
+    public static void warn(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.WARN, pattern, 3, arg0, arg1, arg2, null);
+    }
+
+    public static void warn(String pattern, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.WARN, pattern, 4, arg0, arg1, arg2, arg3);
+    }
+
+    // A Throwable after the arguments the pattern uses is printed with its stack trace
+    public static void error(String pattern) {
+        log(LogLevel.ERROR, pattern, 0, null, null, null, null);
+    }
+
+    public static void error(String pattern, Object arg0) {
+        log(LogLevel.ERROR, pattern, 1, arg0, null, null, null);
+    }
+
+    public static void error(String pattern, Object arg0, Object arg1) {
+        log(LogLevel.ERROR, pattern, 2, arg0, arg1, null, null);
+    }
+
+    public static void error(String pattern, Object arg0, Object arg1, Object arg2) {
+        log(LogLevel.ERROR, pattern, 3, arg0, arg1, arg2, null);
+    }
+
+    public static void error(String pattern, Object arg0, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.ERROR, pattern, 4, arg0, arg1, arg2, arg3);
+    }
+
+    private static void log(LogLevel messageLevel, String pattern, int argCount, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (messageLevel.compareTo(level) >= 0) {
+            RING.offer(messageLevel, pattern, argCount, arg0, arg1, arg2, arg3);
+        }
+    }
+}
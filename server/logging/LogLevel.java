@@ -0,0 +1,29 @@
+package server.logging;
+
+// In increasing severity; a logger at one level writes entries at that level and above
+public enum LogLevel {
+    DEBUG("debug"),
+    INFO("info"),
+    WARN("warn"),
+    ERROR("error"),
+    OFF("off");
+
+    public final String value;
+
+    LogLevel(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public static LogLevel fromString(String text) {
+        for (LogLevel level : LogLevel.values()) {
+            if (level.value.equalsIgnoreCase(text)) {
+                return level;
+            }
+        }
+        throw new IllegalArgumentException("Illegal log level argument: " + text);
+    }
+}
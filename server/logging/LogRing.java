@@ -0,0 +1,203 @@
+package server.logging;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Fixed ring of log entries filled by any number of threads and drained by a single writer thread. A producer claims
+// a slot with one CAS, stores the level, pattern and argument references, and publishes the slot by writing its
+// sequence number; formatting and console output happen on the writer, which prints everything it finds in one go.
+// A producer never waits for the console: when the writer is a whole ring behind, new entries are dropped and counted.
+final class LogRing {
+    private static final long IDLE_PARK_NANOS = 10_000_000; // Writer's nap when the ring is empty
+    private static final int FLUSH_CHARS = 64 * 1024; // Print long bursts in pieces
+
+    private static final class Slot {
+        volatile long sequence = -1; // Sequence of the entry held, written last so it publishes the fields below
+        LogLevel level;
+        String pattern;
+        int argCount;
+        Object arg0;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(); // Next sequence to hand to a producer
+    private volatile long consumed; // Next sequence the writer reads; slots before it are free
+    private volatile long printed; // Entries before this sequence have reached the console
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Only touched by the writer thread
+    private final StringBuilder out = new StringBuilder(FLUSH_CHARS);
+    private final StringBuilder err = new StringBuilder(1024);
+
+    LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // Next power of two
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.writer = new Thread(this::drainLoop, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Returns false if the entry was dropped because the ring is full
+    boolean offer(LogLevel level, String pattern, int argCount, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (closed) {
+            // Nobody drains the ring any more, e.g. messages from the shutdown path
+            StringBuilder line = new StringBuilder();
+            format(line, pattern, argCount, arg0, arg1, arg2, arg3);
+            streamOf(level).print(line);
+            return true;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        Slot slot = slots[(int) sequence & mask];
+        slot.level = level;
+        slot.pattern = pattern;
+        slot.argCount = argCount;
+        slot.arg0 = arg0;
+        slot.arg1 = arg1;
+        slot.arg2 = arg2;
+        slot.arg3 = arg3;
+        slot.sequence = sequence;
+        return true;
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    // Waits until everything logged before the call has been printed
+    void flush() {
+        long target = claimed.get();
+        while (printed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    // Prints what is left and stops the writer; entries logged afterwards are printed by the caller
+    void close() {
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            long next = consumed;
+            Slot slot = slots[(int) next & mask];
+            if (slot.sequence != next) {
+                print();
+                if (closed) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            StringBuilder target = slot.level.compareTo(LogLevel.WARN) >= 0 ? err : out;
+            format(target, slot.pattern, slot.argCount, slot.arg0, slot.arg1, slot.arg2, slot.arg3);
+            // Drop the references so arguments do not outlive their entry
+            slot.pattern = null;
+            slot.arg0 = slot.arg1 = slot.arg2 = slot.arg3 = null;
+            consumed = next + 1;
+            if (out.length() >= FLUSH_CHARS || err.length() >= FLUSH_CHARS) {
+                print();
+            }
+        }
+    }
+
+    // System.out and System.err are looked up each time, so a caller that redirects them (e.g. the benchmarks) is honored
+    private void print() {
+        long formatted = consumed;
+        if (out.length() > 0) {
+            System.out.print(out);
+            System.out.flush();
+            out.setLength(0);
+        }
+        if (err.length() > 0) {
+            System.err.print(err);
+            System.err.flush();
+            err.setLength(0);
+        }
+        printed = formatted;
+    }
+
+    private static PrintStream streamOf(LogLevel level) {
+        return level.compareTo(LogLevel.WARN) >= 0 ? System.err : System.out;
+    }
+
+    // Replaces each "{}" with the next argument and ends the line. A Throwable left over after the placeholders is
+    // printed with its stack trace.
+    static void format(StringBuilder line, String pattern, int argCount, Object arg0, Object arg1, Object arg2, Object arg3) {
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < argCount && (placeholder = pattern.indexOf("{}", start)) >= 0) {
+            line.append(pattern, start, placeholder);
+            appendArg(line, argIndex == 0 ? arg0 : argIndex == 1 ? arg1 : argIndex == 2 ? arg2 : arg3);
+            argIndex++;
+            start = placeholder + 2;
+        }
+        line.append(pattern, start, pattern.length()).append('\n');
+        Object last = argCount == 0 ? null : argCount == 1 ? arg0 : argCount == 2 ? arg1 : argCount == 3 ? arg2 : arg3;
+        if (argIndex < argCount && last instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) last).printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    // Addresses are written as their literal IP and port; InetSocketAddress.toString and getHostName can look up
+    // the host name, which stalls the caller on reverse DNS
+    private static void appendArg(StringBuilder line, Object arg) {
+        if (arg instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) arg;
+            if (address.getAddress() != null) {
+                appendAddress(line, address.getAddress());
+            } else {
+                line.append(address.getHostString());
+            }
+            line.append(':').append(address.getPort());
+        } else if (arg instanceof InetAddress) {
+            appendAddress(line, (InetAddress) arg);
+        } else {
+            line.append(arg);
+        }
+    }
+
+    private static void appendAddress(StringBuilder line, InetAddress address) {
+        if (address instanceof Inet4Address) {
+            int bits = address.hashCode(); // Inet4Address.hashCode() is the address itself
+            line.append(bits >>> 24).append('.').append((bits >>> 16) & 0xff).append('.')
+                    .append((bits >>> 8) & 0xff).append('.').append(bits & 0xff);
+        } else {
+            line.append(address.getHostAddress());
+        }
+    }
+}
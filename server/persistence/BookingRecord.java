@@ -0,0 +1,151 @@
+package server.persistence;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+// One booking mutation as it is written to the write-ahead log and to snapshots.
+// Every record carries the booking's full state after the mutation rather than the offsets a client asked for,
+// so replaying it is an idempotent upsert: a record applied twice, or applied on top of a snapshot that already
+// contains it, leaves the same state.
+//
+// Framing: int bodyLength, int CRC32C of the body, then the body:
+//   long sequence, byte type, long uuidMsb, long uuidLsb, short nameLength, name (UTF-8), long start, long end
+// Times are whole seconds of the local date-time (no zone), as the booking itself stores them.
+public class BookingRecord {
+    public static final byte BOOK = 1;
+    public static final byte CHANGE = 2;
+    public static final byte EXTEND = 3;
+    public static final byte CANCEL = 4;
+
+    static final int FRAME_HEADER_SIZE = 8;
+    private static final int FIXED_BODY_SIZE = 8 + 1 + 16 + 2 + 8 + 8;
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    private final long sequence;
+    private final byte type;
+    private final UUID bookingId;
+    private final String facilityName;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+
+    public BookingRecord(long sequence, byte type, UUID bookingId, String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
+        this.sequence = sequence;
+        this.type = type;
+        this.bookingId = bookingId;
+        this.facilityName = facilityName;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public UUID getBookingId() {
+        return bookingId;
+    }
+
+    public String getFacilityName() {
+        return facilityName;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public BookingRecord withSequence(long sequence) {
+        return new BookingRecord(sequence, type, bookingId, facilityName, startTime, endTime);
+    }
+
+    // Bytes needed to frame this record
+    public int encodedLength() {
+        return FRAME_HEADER_SIZE + FIXED_BODY_SIZE + facilityName.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // Writes the framed record at the buffer's position
+    public void encode(ByteBuffer out) {
+        byte[] name = facilityName.getBytes(StandardCharsets.UTF_8);
+        int frameStart = out.position();
+        int bodyStart = frameStart + FRAME_HEADER_SIZE;
+        out.position(bodyStart);
+        out.putLong(sequence);
+        out.put(type);
+        out.putLong(bookingId.getMostSignificantBits());
+        out.putLong(bookingId.getLeastSignificantBits());
+        out.putShort((short) name.length);
+        out.put(name);
+        out.putLong(startTime.toEpochSecond(ZoneOffset.UTC));
+        out.putLong(endTime.toEpochSecond(ZoneOffset.UTC));
+        int bodyEnd = out.position();
+        out.putInt(frameStart, bodyEnd - bodyStart);
+        out.putInt(frameStart + 4, checksum(out, bodyStart, bodyEnd));
+    }
+
+    // Reads the framed record at the buffer's position and advances past it. Returns null, leaving the position
+    // unchanged, if the remaining bytes do not hold a whole, intact record, e.g. the torn tail of a crashed write.
+    public static BookingRecord decode(ByteBuffer in) {
+        int frameStart = in.position();
+        if (in.remaining() < FRAME_HEADER_SIZE) {
+            return null;
+        }
+        int bodyLength = in.getInt(frameStart);
+        int crc = in.getInt(frameStart + 4);
+        int bodyStart = frameStart + FRAME_HEADER_SIZE;
+        if (bodyLength < FIXED_BODY_SIZE || bodyLength > FIXED_BODY_SIZE + MAX_NAME_LENGTH
+                || in.limit() - bodyStart < bodyLength || checksum(in, bodyStart, bodyStart + bodyLength) != crc) {
+            return null;
+        }
+        try {
+            in.position(bodyStart);
+            long sequence = in.getLong();
+            byte type = in.get();
+            UUID bookingId = new UUID(in.getLong(), in.getLong());
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            LocalDateTime startTime = LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+            LocalDateTime endTime = LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+            if (in.position() != bodyStart + bodyLength || type < BOOK || type > CANCEL) {
+                in.position(frameStart);
+                return null;
+            }
+            return new BookingRecord(sequence, type, bookingId, new String(name, StandardCharsets.UTF_8), startTime, endTime);
+        } catch (BufferUnderflowException | DateTimeException e) {
+            in.position(frameStart);
+            return null;
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int to) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(to).position(from);
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "BookingRecord{" +
+                "sequence=" + sequence +
+                ", type=" + type +
+                ", bookingId=" + bookingId +
+                ", facilityName='" + facilityName + '\'' +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                '}';
+    }
+}
@@ -0,0 +1,159 @@
+package server.persistence;
+
+import server.Booking;
+import server.Facility;
+import server.FacilityService;
+import server.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps bookings across restarts in a data directory holding the write-ahead log segments and the latest snapshot.
+// On open the snapshot is loaded and the log after it replayed into the facility service; from then on every booking
+// mutation is appended to the log. Each time a segment fills up, a snapshot of all bookings is written in the
+// background and the segments and snapshots it replaces are deleted, so recovery never replays more than about one
+// segment.
+public class BookingStore {
+    public static final long DEFAULT_SNAPSHOT_EVERY_RECORDS = 100_000;
+
+    private final Path directory;
+    private final FacilityService facilityService;
+    private final WriteAheadLog log;
+    private final ExecutorService snapshotExecutor;
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final long recoveredBookings;
+    private final long replayedRecords;
+    private final long recoveredSequence; // Last record recovered, snapshotted or replayed
+    private volatile long snapshotSequence;
+
+    private BookingStore(Path directory, FacilityService facilityService, boolean fsync, long fsyncDelayMillis,
+                         long snapshotEveryRecords) throws IOException {
+        this.directory = directory;
+        this.facilityService = facilityService;
+        Files.createDirectories(directory);
+
+        long start = System.nanoTime();
+        this.snapshotSequence = SnapshotFile.loadLatest(directory, facilityService::applyRecord);
+        this.recoveredBookings = facilityService.getBookingCount();
+        long[] replayed = new long[1];
+        long lastSequence = WriteAheadLog.replay(directory, snapshotSequence, record -> {
+            facilityService.applyRecord(record);
+            replayed[0]++;
+        });
+        this.replayedRecords = replayed[0];
+        this.recoveredSequence = lastSequence;
+        Log.info("Recovered {} bookings from {} in {} ms.", facilityService.getBookingCount(), directory,
+                (System.nanoTime() - start) / 1_000_000);
+        Log.info("{} bookings came from the snapshot at sequence {}, then {} log records were replayed.", recoveredBookings,
+                snapshotSequence, replayedRecords);
+
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.log = new WriteAheadLog(directory, lastSequence + 1, fsync, fsyncDelayMillis, snapshotEveryRecords, this::segmentRolled);
+    }
+
+    // Recovers the facility service's bookings from the directory and starts logging its mutations
+    public static BookingStore open(Path directory, FacilityService facilityService, boolean fsync, long fsyncDelayMillis,
+                                    long snapshotEveryRecords) throws IOException {
+        BookingStore store = new BookingStore(directory, facilityService, fsync, fsyncDelayMillis, snapshotEveryRecords);
+        facilityService.setBookingStore(store);
+        return store;
+    }
+
+    public long append(BookingRecord record) throws IOException {
+        return log.append(record);
+    }
+
+    public long appendAll(List<BookingRecord> records) throws IOException {
+        return log.appendAll(records);
+    }
+
+    public void awaitDurable(long sequence) throws IOException {
+        log.awaitDurable(sequence);
+    }
+
+    public WriteAheadLog getLog() {
+        return log;
+    }
+
+    public long getRecoveredSequence() {
+        return recoveredSequence;
+    }
+
+    public long getSnapshotSequence() {
+        return snapshotSequence;
+    }
+
+    public void shutdown() {
+        log.close();
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs on the log writer after it has closed the segments holding everything up to lastSequence
+    private void segmentRolled(long lastSequence) {
+        if (!snapshotRunning.compareAndSet(false, true)) {
+            return; // The next roll takes a snapshot that covers this segment too
+        }
+        snapshotExecutor.execute(() -> {
+            try {
+                writeSnapshot(lastSequence);
+            } catch (IOException e) {
+                Log.error("Error writing booking snapshot: {}", e.getMessage());
+            } finally {
+                snapshotRunning.set(false);
+            }
+        });
+    }
+
+    // Bookings are copied facility by facility under each facility's lock, while bookings carry on elsewhere.
+    // Records up to lastSequence were applied before they were logged, so all of them are in the copy; later ones
+    // may be too, which is harmless because replaying a record is an upsert.
+    private void writeSnapshot(long lastSequence) throws IOException {
+        long start = System.nanoTime();
+        List<BookingRecord> bookings = new ArrayList<>(facilityService.getBookingCount());
+        for (Facility facility : facilityService.getFacilities()) {
+            ReentrantLock lock = facility.getLock();
+            lock.lock();
+            try {
+                for (Booking booking : facility.getBookings()) {
+                    bookings.add(new BookingRecord(lastSequence, BookingRecord.BOOK, booking.getBookingId(),
+                            facility.getFacilityName(), booking.getStartTime(), booking.getEndTime()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        SnapshotFile.write(directory, lastSequence, bookings);
+        snapshotSequence = lastSequence;
+
+        // A segment can go once the next one starts at or before the first record the snapshot does not cover
+        TreeMap<Long, Path> segments = WriteAheadLog.listSegments(directory);
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            Long next = segments.higherKey(segment.getKey());
+            if (next != null && next <= lastSequence + 1) {
+                Files.deleteIfExists(segment.getValue());
+            }
+        }
+        SnapshotFile.deleteBefore(directory, lastSequence);
+        Log.info("Wrote snapshot of {} bookings at sequence {} in {} ms.", bookings.size(), lastSequence,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,106 @@
+package server.persistence;
+
+import server.logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+// Compacted state: every live booking as of a log sequence number, so the log before it can be deleted.
+// Layout: int magic, int format version, long sequence, int booking count, then one BOOK record per booking.
+// A snapshot is written to a temporary file, synced and renamed, so a crash never leaves a half-written one.
+final class SnapshotFile {
+    private static final int MAGIC = 0x424B534E; // "BKSN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".dat";
+
+    private SnapshotFile() {
+    }
+
+    static void write(Path directory, long sequence, List<BookingRecord> bookings) throws IOException {
+        Path target = directory.resolve(PREFIX + String.format("%020d", sequence) + SUFFIX);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sequence).putInt(bookings.size());
+            for (BookingRecord booking : bookings) {
+                if (buffer.remaining() < booking.encodedLength()) {
+                    writeFully(channel, buffer);
+                }
+                booking.encode(buffer);
+            }
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Feeds the bookings of the newest snapshot to the consumer and returns its sequence number, or 0 if there is none
+    static long loadLatest(Path directory, Consumer<BookingRecord> consumer) throws IOException {
+        TreeMap<Long, Path> snapshots = list(directory);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path file = snapshots.lastEntry().getValue();
+        ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (contents.remaining() < HEADER_SIZE || contents.getInt() != MAGIC || contents.getInt() != FORMAT_VERSION) {
+            throw new IOException("Not a booking snapshot: " + file);
+        }
+        long sequence = contents.getLong();
+        int count = contents.getInt();
+        for (int i = 0; i < count; i++) {
+            BookingRecord record = BookingRecord.decode(contents);
+            if (record == null) {
+                throw new IOException("Damaged booking snapshot " + file + ": record " + i + " of " + count);
+            }
+            consumer.accept(record);
+        }
+        return sequence;
+    }
+
+    // Removes snapshots older than the given one, and temporary files left by an interrupted write
+    static void deleteBefore(Path directory, long sequence) throws IOException {
+        for (Path file : list(directory).headMap(sequence).values()) {
+            Files.deleteIfExists(file);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + ".tmp")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static TreeMap<Long, Path> list(Path directory) throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    snapshots.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    Log.warn("Ignoring unexpected file in data directory: {}", name);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
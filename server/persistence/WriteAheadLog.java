@@ -0,0 +1,325 @@
+package server.persistence;
+
+import server.logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Append-only log of booking records, split into segment files named after their first sequence number.
+// Callers append under their facility lock and get a sequence number back; a single writer thread drains
+// everything appended since its last write into one write and one fsync (group commit), then wakes the callers
+// waiting on those sequence numbers. Under load each fsync therefore covers many bookings instead of one.
+public class WriteAheadLog {
+    public static final long DEFAULT_FSYNC_DELAY_MILLIS = 0;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final boolean fsync; // Off: records reach the OS but callers do not wait for the disk
+    private final long fsyncDelayMillis; // Extra time the writer waits to gather a larger group
+    private final long rollEveryRecords;
+    private final LongConsumer rollListener; // Told the last sequence in the finished segments after each roll
+
+    private final Object appendLock = new Object();
+    private List<BookingRecord> pending = new ArrayList<>(); // Guarded by appendLock
+    private long lastSequence; // Guarded by appendLock
+
+    private final Object durableLock = new Object();
+    private volatile long durableSequence;
+    private volatile IOException failure;
+    private volatile boolean closed; // Set under appendLock, so no record is queued after the writer's last drain
+    private volatile boolean writerDone; // The writer has exited; nothing queued from now on will be written
+
+    // Only touched by the writer thread
+    private FileChannel segment;
+    private long recordsInSegment;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final Thread writer;
+
+    private volatile long recordsWritten;
+    private volatile long syncs;
+
+    // Starts a new segment at nextSequence; call replay first to find it
+    public WriteAheadLog(Path directory, long nextSequence, boolean fsync, long fsyncDelayMillis,
+                         long rollEveryRecords, LongConsumer rollListener) throws IOException {
+        this.directory = directory;
+        this.fsync = fsync;
+        this.fsyncDelayMillis = fsyncDelayMillis;
+        this.rollEveryRecords = rollEveryRecords;
+        this.rollListener = rollListener;
+        this.lastSequence = nextSequence - 1;
+        this.durableSequence = nextSequence - 1;
+        this.segment = openSegment(nextSequence);
+        this.writer = new Thread(this::writeLoop, "wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Assigns the record its sequence number and queues it for the writer
+    public long append(BookingRecord record) throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw failed;
+        }
+        synchronized (appendLock) {
+            checkOpen();
+            long sequence = ++lastSequence;
+            pending.add(record.withSequence(sequence));
+            if (pending.size() == 1) {
+                appendLock.notify();
+            }
+            return sequence;
+        }
+    }
+
+    // Queues the records with consecutive sequence numbers and returns the last one. They are drained together, so
+    // they reach the same segment in one write; a crash in the middle of that write can still keep only a prefix.
+    public long appendAll(List<BookingRecord> records) throws IOException {
+        IOException failed = failure;
+        if (failed != null) {
+            throw failed;
+        }
+        synchronized (appendLock) {
+            checkOpen();
+            boolean wasEmpty = pending.isEmpty();
+            for (BookingRecord record : records) {
+                pending.add(record.withSequence(++lastSequence));
+            }
+            if (wasEmpty && !pending.isEmpty()) {
+                appendLock.notify();
+            }
+            return lastSequence;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+    }
+
+    // Blocks until the record with this sequence number is on disk, and throws if it never will be. Returns at once
+    // when fsync is off.
+    public void awaitDurable(long sequence) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (durableLock) {
+            while (durableSequence < sequence && failure == null && !writerDone) {
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durableSequence < sequence) {
+            IOException failed = failure;
+            throw failed != null ? failed : new IOException("Write-ahead log closed before record " + sequence + " was written");
+        }
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    public long getFsyncDelayMillis() {
+        return fsyncDelayMillis;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    // Writes to the segment, each followed by an fsync when fsync is on
+    public long getSyncs() {
+        return syncs;
+    }
+
+    // Sequence number of the last record appended, durable or not
+    public long getLastSequence() {
+        synchronized (appendLock) {
+            return lastSequence;
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    // Writes out what has been appended and stops the writer
+    public void close() {
+        synchronized (appendLock) {
+            closed = true;
+            appendLock.notify();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durableLock) {
+            durableLock.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        List<BookingRecord> draining = new ArrayList<>();
+        try {
+            while (true) {
+                synchronized (appendLock) {
+                    while (pending.isEmpty() && !closed) {
+                        appendLock.wait();
+                    }
+                    if (pending.isEmpty()) {
+                        break; // Closed with nothing left to write
+                    }
+                }
+                if (fsyncDelayMillis > 0 && !closed) {
+                    Thread.sleep(fsyncDelayMillis); // Let more appends join this group
+                }
+                synchronized (appendLock) {
+                    List<BookingRecord> swap = pending;
+                    pending = draining;
+                    draining = swap;
+                }
+                writeGroup(draining);
+                draining.clear();
+            }
+            segment.force(false);
+        } catch (IOException e) {
+            failure = e;
+            Log.error("Write-ahead log failed, bookings can no longer be saved: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                Log.error("Error closing write-ahead log segment: {}", e.getMessage());
+            }
+            synchronized (durableLock) {
+                writerDone = true;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    private void writeGroup(List<BookingRecord> group) throws IOException {
+        writeBuffer.clear();
+        for (BookingRecord record : group) {
+            if (writeBuffer.remaining() < record.encodedLength()) {
+                flushWriteBuffer();
+            }
+            record.encode(writeBuffer);
+        }
+        flushWriteBuffer();
+        if (fsync) {
+            segment.force(false);
+        }
+        long last = group.get(group.size() - 1).getSequence();
+        recordsWritten += group.size();
+        syncs++;
+        synchronized (durableLock) {
+            durableSequence = last;
+            durableLock.notifyAll();
+        }
+
+        recordsInSegment += group.size();
+        if (rollEveryRecords > 0 && recordsInSegment >= rollEveryRecords) {
+            if (!fsync) {
+                segment.force(false); // A snapshot may replace this segment, so it has to be complete on disk
+            }
+            segment.close();
+            segment = openSegment(last + 1);
+            recordsInSegment = 0;
+            rollListener.accept(last);
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            segment.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    private FileChannel openSegment(long firstSequence) throws IOException {
+        return FileChannel.open(segmentPath(directory, firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // --- Segment files ---
+
+    static Path segmentPath(Path directory, long firstSequence) {
+        return directory.resolve(SEGMENT_PREFIX + String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+    }
+
+    // Segment files by first sequence number
+    static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    Log.warn("Ignoring unexpected file in data directory: {}", name);
+                }
+            }
+        }
+        return segments;
+    }
+
+    // Feeds every record after afterSequence to the consumer, oldest first, and returns the last sequence number seen.
+    // A record that is cut short or fails its checksum in the last segment is the tail of a write the crash
+    // interrupted, so the segment is truncated there. Earlier segments were forced to disk when the log rolled past
+    // them, so a damaged record in one of them is corruption: recovery fails rather than drop the bookings after it.
+    static long replay(Path directory, long afterSequence, Consumer<BookingRecord> consumer) throws IOException {
+        long last = afterSequence;
+        TreeMap<Long, Path> segments = listSegments(directory);
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            Path file = entry.getValue();
+            boolean lastSegment = entry.getKey().equals(segments.lastKey());
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (contents.hasRemaining()) {
+                BookingRecord record = BookingRecord.decode(contents);
+                if (record == null) {
+                    if (!lastSegment) {
+                        throw new IOException("Damaged record in write-ahead log segment " + file.getFileName()
+                                + " at byte " + contents.position() + "; later segments hold confirmed bookings, not repairing");
+                    }
+                    Log.warn("Truncating write-ahead log segment {} at byte {}, {} bytes of an incomplete record dropped.",
+                            file.getFileName(), contents.position(), contents.remaining());
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(contents.position());
+                        channel.force(true);
+                    }
+                    break;
+                }
+                if (record.getSequence() > last) {
+                    consumer.accept(record);
+                    last = record.getSequence();
+                }
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,452 @@
+package server.replication;
+
+import server.Booking;
+import server.Facility;
+import server.FacilityService;
+import server.RequestHistory;
+import server.logging.Log;
+import server.persistence.BookingRecord;
+import shared.constants.ArgumentConstants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Streams every booking mutation and request history entry to a hot standby (see ReplicationStandby), so that it can
+// take over with the same bookings and the same dedup table. Mutations are queued under their facility's lock, in the
+// order they were applied, and history entries as requests complete; a single sender thread writes what has queued
+// in batches of up to batchSize messages, each ended by a BATCH_END that the standby acknowledges once applied.
+//
+// A standby that connects first gets a copy of every booking and history entry. The copy is taken with every
+// facility lock held, so it and the queue after it meet at one sequence number, and records are never replayed on
+// top of a newer state. If the standby falls more than QUEUE_CAPACITY messages behind, the stream is restarted with a
+// new copy rather than buffered without bound.
+//
+// With async acks a reply never waits for the standby, so a takeover can lose the last changes. With semi-sync a
+// change is only confirmed to its client once the standby has acknowledged it, or timeoutMillis has passed; after a
+// timeout, and while no standby is connected, replies stop waiting until the standby has caught up.
+public class ReplicationPrimary {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final InetSocketAddress standby;
+    private final String standbyName; // host:port, for the log
+    private final FacilityService facilityService;
+    private final RequestHistory requestHistory;
+    private final ArgumentConstants.ReplicationAck ack;
+    private final int batchSize;
+    private final long timeoutMillis;
+
+    private final Object queueLock = new Object();
+    private List<Message> pending = new ArrayList<>(); // Guarded by queueLock
+    private long lastSequence; // Guarded by queueLock
+    private int stream; // Guarded by queueLock, counts the streams started so a stale one cannot stop the current one
+    private volatile boolean streaming; // Written under queueLock: a standby is connected and messages are queued for it
+
+    private final Object ackLock = new Object();
+    private volatile long acknowledgedSequence;
+    private volatile long degradedUntil; // Replies stop waiting until the standby acknowledges this sequence
+
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private final Thread sender;
+
+    private volatile long messagesSent;
+    private volatile long batchesSent;
+    private volatile long copiesSent;
+    private final LongAdder ackTimeouts = new LongAdder();
+    private final LongAdder unconfirmed = new LongAdder();
+
+    public ReplicationPrimary(InetSocketAddress standby, FacilityService facilityService, RequestHistory requestHistory,
+                              ArgumentConstants.ReplicationAck ack, int batchSize, long timeoutMillis) {
+        this.standby = standby;
+        this.standbyName = standby.getHostString() + ":" + standby.getPort();
+        this.facilityService = facilityService;
+        this.requestHistory = requestHistory;
+        this.ack = ack;
+        this.batchSize = Math.max(1, batchSize);
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+        this.sender = new Thread(this::sendLoop, "replication-sender");
+        this.sender.setDaemon(true);
+    }
+
+    // Starts connecting to the standby; call once the facility service replicates through this
+    public void start() {
+        sender.start();
+    }
+
+    // Called under the facility lock once the mutation has been logged
+    public void replicate(BookingRecord record) {
+        synchronized (queueLock) {
+            long sequence = ++lastSequence;
+            if (streaming) {
+                enqueue(new Message(sequence, record.withSequence(sequence), 0, 0));
+            }
+        }
+    }
+
+    // The records of one batch, in order, under the facility lock
+    public void replicateAll(List<BookingRecord> records) {
+        synchronized (queueLock) {
+            for (BookingRecord record : records) {
+                long sequence = ++lastSequence;
+                if (streaming) {
+                    enqueue(new Message(sequence, record.withSequence(sequence), 0, 0));
+                }
+            }
+        }
+    }
+
+    // Queues a request history entry once the request is done. With semi-sync acks and confirm set, waits until the
+    // standby has the entry, and with it every mutation queued before it, e.g. the request's own.
+    public void replicateRequest(long clientBits, long requestBits, boolean confirm) {
+        long sequence;
+        synchronized (queueLock) {
+            sequence = ++lastSequence;
+            if (streaming) {
+                enqueue(new Message(sequence, null, clientBits, requestBits));
+            }
+        }
+        if (confirm && ack == ArgumentConstants.ReplicationAck.SEMI_SYNC) {
+            awaitAcknowledged(sequence);
+        }
+    }
+
+    // Called under queueLock
+    private void enqueue(Message message) {
+        if (pending.size() >= QUEUE_CAPACITY) {
+            Log.warn("Standby {} is more than {} messages behind, restarting replication with a new copy.", standbyName, QUEUE_CAPACITY);
+            stopStreaming(stream);
+            return;
+        }
+        pending.add(message);
+        if (pending.size() == 1) {
+            queueLock.notify();
+        }
+    }
+
+    private void awaitAcknowledged(long sequence) {
+        if (acknowledgedSequence >= sequence) {
+            return;
+        }
+        if (!streaming || acknowledgedSequence < degradedUntil) {
+            unconfirmed.increment();
+            return;
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        boolean interrupted = false;
+        synchronized (ackLock) {
+            while (acknowledgedSequence < sequence && streaming) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                try {
+                    ackLock.wait(remainingNanos / 1_000_000 + 1);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (acknowledgedSequence < sequence) {
+            unconfirmed.increment();
+            if (streaming && acknowledgedSequence >= degradedUntil) {
+                ackTimeouts.increment();
+                degradedUntil = sequence;
+                Log.warn("Standby {} has not acknowledged sequence {} within {} ms, replies stop waiting for it until it does.",
+                        standbyName, sequence, timeoutMillis);
+            }
+        }
+    }
+
+    // Sends what is still queued and closes the stream, after which the standby takes over
+    public void close() {
+        closed = true;
+        synchronized (queueLock) {
+            queueLock.notify();
+        }
+        try {
+            sender.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(socket);
+    }
+
+    private void sendLoop() {
+        boolean reachable = true; // Connection failures are logged once, not on every retry
+        while (!closed) {
+            boolean connected = false;
+            boolean resync = false;
+            try (Socket connection = new Socket()) {
+                connection.connect(standby, (int) timeoutMillis);
+                connection.setTcpNoDelay(true);
+                socket = connection;
+                connected = true;
+                reachable = true;
+                resync = stream(connection);
+            } catch (IOException e) {
+                if (connected) {
+                    Log.warn("Replication to standby {} failed: {}", standbyName, e.getMessage());
+                } else if (reachable) {
+                    Log.warn("Cannot reach standby {} ({}), retrying every {} ms.", standbyName, e.getMessage(), RECONNECT_MILLIS);
+                    reachable = false;
+                }
+            } finally {
+                socket = null;
+                synchronized (queueLock) {
+                    stopStreaming(stream);
+                }
+            }
+            if (!resync && !closed) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Sends a copy and then the queue until the primary closes or the queue overflows. Returns true to reconnect at once.
+    private boolean stream(Socket connection) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), STREAM_BUFFER_SIZE));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        ByteBuffer scratch = ReplicationProtocol.newScratchBuffer();
+        out.writeInt(ReplicationProtocol.MAGIC);
+        int current = sendCopy(out, scratch);
+        Thread ackReader = new Thread(() -> readAcks(in, connection, current), "replication-acks");
+        ackReader.setDaemon(true);
+        ackReader.start();
+
+        long heartbeatMillis = Math.max(1, timeoutMillis / 4);
+        List<Message> draining = new ArrayList<>();
+        boolean resync;
+        while (true) {
+            synchronized (queueLock) {
+                if (pending.isEmpty() && streaming && !closed) {
+                    try {
+                        queueLock.wait(heartbeatMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                resync = !streaming;
+                if (!resync) {
+                    if (pending.isEmpty() && closed) {
+                        return false;
+                    }
+                    List<Message> swap = pending;
+                    pending = draining;
+                    draining = swap;
+                }
+            }
+            if (resync) {
+                out.writeByte(ReplicationProtocol.RESYNC);
+                out.flush();
+                return true;
+            }
+            if (draining.isEmpty()) {
+                out.writeByte(ReplicationProtocol.HEARTBEAT);
+                out.flush();
+                continue;
+            }
+            for (int i = 0; i < draining.size(); i++) {
+                Message message = draining.get(i);
+                if (message.record != null) {
+                    ReplicationProtocol.writeRecord(out, message.record, scratch);
+                } else {
+                    out.writeByte(ReplicationProtocol.REQUEST);
+                    out.writeLong(message.sequence);
+                    out.writeLong(message.clientBits);
+                    out.writeLong(message.requestBits);
+                }
+                if ((i + 1) % batchSize == 0 || i == draining.size() - 1) {
+                    out.writeByte(ReplicationProtocol.BATCH_END);
+                    out.writeLong(message.sequence);
+                    out.flush();
+                    batchesSent++;
+                }
+            }
+            messagesSent += draining.size();
+            draining.clear();
+        }
+    }
+
+    // Copies every booking under all facility locks, taken in id order, and starts queueing at the same instant.
+    // The history entries are copied after the locks are released: adding an entry twice is harmless.
+    private int sendCopy(DataOutputStream out, ByteBuffer scratch) throws IOException {
+        long start = System.nanoTime();
+        List<Facility> facilities = new ArrayList<>(facilityService.getFacilities());
+        facilities.sort(Comparator.comparingInt(Facility::getId));
+        List<BookingRecord> bookings = new ArrayList<>(facilityService.getBookingCount());
+        long copySequence;
+        int current;
+        int locked = 0;
+        try {
+            for (Facility facility : facilities) {
+                facility.getLock().lock();
+                locked++;
+            }
+            synchronized (queueLock) {
+                pending.clear();
+                copySequence = lastSequence;
+                current = ++stream;
+                streaming = true;
+            }
+            for (Facility facility : facilities) {
+                for (Booking booking : facility.getBookings()) {
+                    bookings.add(new BookingRecord(0, BookingRecord.BOOK, booking.getBookingId(),
+                            facility.getFacilityName(), booking.getStartTime(), booking.getEndTime()));
+                }
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                facilities.get(i).getLock().unlock();
+            }
+        }
+        long[] entries = requestHistory.entries();
+
+        out.writeByte(ReplicationProtocol.SNAPSHOT_BEGIN);
+        for (BookingRecord booking : bookings) {
+            ReplicationProtocol.writeRecord(out, booking, scratch);
+        }
+        for (int i = 0; i < entries.length; i += 2) {
+            out.writeByte(ReplicationProtocol.REQUEST);
+            out.writeLong(0);
+            out.writeLong(entries[i]);
+            out.writeLong(entries[i + 1]);
+        }
+        out.writeByte(ReplicationProtocol.SNAPSHOT_END);
+        out.writeLong(copySequence);
+        out.flush();
+        copiesSent++;
+        Log.info("Sent standby {} a copy of {} bookings and {} request history entries in {} ms.", standbyName, bookings.size(),
+                entries.length / 2, (System.nanoTime() - start) / 1_000_000);
+        Log.debug("The copy sent to standby {} reflects replication sequence {}.", standbyName, copySequence);
+        return current;
+    }
+
+    private void readAcks(DataInputStream in, Socket connection, int current) {
+        try {
+            while (true) {
+                long sequence = in.readLong();
+                synchronized (ackLock) {
+                    if (sequence > acknowledgedSequence) {
+                        acknowledgedSequence = sequence;
+                    }
+                    ackLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            // The standby is gone, or the sender closed the stream; either way this stream is over
+            synchronized (queueLock) {
+                stopStreaming(current);
+            }
+            closeQuietly(connection);
+        }
+    }
+
+    // Called under queueLock. Does nothing if a later stream has already started.
+    private void stopStreaming(int current) {
+        if (stream != current || !streaming) {
+            return;
+        }
+        streaming = false;
+        pending.clear();
+        queueLock.notify();
+        synchronized (ackLock) {
+            ackLock.notifyAll(); // Waiting replies stop waiting
+        }
+    }
+
+    private static void closeQuietly(Socket connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    public InetSocketAddress getStandby() {
+        return standby;
+    }
+
+    public ArgumentConstants.ReplicationAck getAck() {
+        return ack;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public long getLastSequence() {
+        synchronized (queueLock) {
+            return lastSequence;
+        }
+    }
+
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getBatchesSent() {
+        return batchesSent;
+    }
+
+    public long getCopiesSent() {
+        return copiesSent;
+    }
+
+    public long getAckTimeouts() {
+        return ackTimeouts.sum();
+    }
+
+    // Semi-sync replies sent without the standby's acknowledgement
+    public long getUnconfirmed() {
+        return unconfirmed.sum();
+    }
+
+    // A mutation (record set) or a request history entry
+    private static final class Message {
+        private final long sequence;
+        private final BookingRecord record;
+        private final long clientBits;
+        private final long requestBits;
+
+        private Message(long sequence, BookingRecord record, long clientBits, long requestBits) {
+            this.sequence = sequence;
+            this.record = record;
+            this.clientBits = clientBits;
+            this.requestBits = requestBits;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package server.replication;
+
+import server.persistence.BookingRecord;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// The TCP stream from a primary to its standby. The primary opens it with MAGIC and then sends messages, each a
+// type byte followed by its fields:
+//   SNAPSHOT_BEGIN                             the standby drops its bookings; a full copy follows
+//   RECORD          BookingRecord frame        a booking mutation, framed and checksummed as in the write-ahead log
+//   REQUEST         long sequence, long clientBits, long requestBits   a request history entry
+//   SNAPSHOT_END    long sequence              the copy is complete and reflects every message up to sequence
+//   BATCH_END       long sequence              the messages before it are complete up to sequence
+//   HEARTBEAT                                  nothing to send; tells the standby the primary is alive
+//   RESYNC                                     the primary is closing the stream and will reconnect with a new copy
+// Records and entries carry the primary's replication sequence (0 inside a copy). The standby answers each
+// SNAPSHOT_END and BATCH_END with the sequence as a long once it has applied everything up to it.
+final class ReplicationProtocol {
+    static final int MAGIC = 0x42525031; // "BRP1"
+
+    static final byte SNAPSHOT_BEGIN = 1;
+    static final byte RECORD = 2;
+    static final byte REQUEST = 3;
+    static final byte SNAPSHOT_END = 4;
+    static final byte BATCH_END = 5;
+    static final byte HEARTBEAT = 6;
+    static final byte RESYNC = 7;
+
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int MAX_FRAME_SIZE = 4096; // Records are under 1100 bytes
+
+    private ReplicationProtocol() {
+    }
+
+    static void writeRecord(DataOutputStream out, BookingRecord record, ByteBuffer scratch) throws IOException {
+        scratch.clear();
+        record.encode(scratch);
+        out.writeByte(RECORD);
+        out.write(scratch.array(), 0, scratch.position());
+    }
+
+    // Reads the frame that follows a RECORD type byte
+    static BookingRecord readRecord(DataInputStream in, ByteBuffer scratch) throws IOException {
+        in.readFully(scratch.array(), 0, FRAME_HEADER_SIZE);
+        int bodyLength = ByteBuffer.wrap(scratch.array()).getInt(0);
+        if (bodyLength < 0 || bodyLength > scratch.capacity() - FRAME_HEADER_SIZE) {
+            throw new IOException("Replicated record too long: " + bodyLength + " bytes");
+        }
+        in.readFully(scratch.array(), FRAME_HEADER_SIZE, bodyLength);
+        scratch.clear().limit(FRAME_HEADER_SIZE + bodyLength);
+        BookingRecord record = BookingRecord.decode(scratch);
+        if (record == null) {
+            throw new IOException("Damaged replicated record");
+        }
+        return record;
+    }
+
+    static ByteBuffer newScratchBuffer() {
+        return ByteBuffer.allocate(MAX_FRAME_SIZE);
+    }
+}
@@ -0,0 +1,183 @@
+package server.replication;
+
+import server.Booking;
+import server.Facility;
+import server.FacilityService;
+import server.RequestHistory;
+import server.logging.Log;
+import server.persistence.BookingRecord;
+import server.persistence.BookingStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps this server's bookings and request history a copy of a primary's (see ReplicationPrimary) while it serves
+// no requests. Records are applied as recovery applies them and, with a data directory, appended to this server's own
+// log, so the copy survives a restart of the standby too. A batch is acknowledged once it is applied and, with fsync
+// on, on disk.
+//
+// awaitTakeover returns when this server should take the primary's place: the primary's stream broke or went silent
+// for timeoutMillis after a complete copy had arrived. A standby that never received a complete copy keeps waiting,
+// as it has nothing to serve. A failure on this side (its own log, or a stream it cannot make sense of) says nothing
+// about the primary, so it is thrown instead: taking over would leave two servers serving.
+public class ReplicationStandby {
+    private final int port;
+    private final FacilityService facilityService;
+    private final RequestHistory requestHistory;
+    private final long timeoutMillis;
+
+    // Only touched by the thread in awaitTakeover
+    private boolean synced; // Holds a complete copy of the primary's state
+    private long appliedSequence;
+    private long lastLogged; // Sequence in this server's own log of the last record applied
+    private final ByteBuffer scratch = ReplicationProtocol.newScratchBuffer();
+
+    public ReplicationStandby(int port, FacilityService facilityService, RequestHistory requestHistory, long timeoutMillis) {
+        this.port = port;
+        this.facilityService = facilityService;
+        this.requestHistory = requestHistory;
+        this.timeoutMillis = Math.max(1, timeoutMillis);
+    }
+
+    // Receives replication streams until the primary is gone; throws if this standby can no longer keep a copy
+    public void awaitTakeover() throws IOException {
+        try (ServerSocket server = new ServerSocket()) {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+            Log.info("Standby waiting for its primary on TCP port {}.", port);
+            while (true) {
+                server.setSoTimeout(synced ? (int) timeoutMillis : 0); // After a resync the primary reconnects at once
+                Socket connection;
+                try {
+                    connection = server.accept();
+                } catch (SocketTimeoutException e) {
+                    Log.warn("Primary did not reconnect within {} ms.", timeoutMillis);
+                    break;
+                }
+                try (Socket socket = connection) {
+                    if (receive(socket) && synced) {
+                        break;
+                    }
+                }
+            }
+        }
+        Log.info("Taking over from the primary with {} bookings and {} request history entries, replicated up to sequence {}.",
+                facilityService.getBookingCount(), requestHistory.size(), appliedSequence);
+    }
+
+    // Applies one stream. Returns false if the primary ends it to send a new copy, true if the stream is lost.
+    private boolean receive(Socket socket) throws IOException {
+        String primary = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        try {
+            socket.setSoTimeout((int) timeoutMillis); // The primary sends heartbeats well within this
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (readMagic(in) != ReplicationProtocol.MAGIC) {
+                Log.warn("Ignoring connection from {}: not a replication stream.", primary);
+                return false;
+            }
+            Log.info("Replicating from primary {}.", primary);
+            BookingStore store = facilityService.getBookingStore();
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case ReplicationProtocol.SNAPSHOT_BEGIN:
+                        synced = false;
+                        dropBookings(store);
+                        requestHistory.clearHistory(); // The copy brings the primary's history
+                        break;
+                    case ReplicationProtocol.RECORD:
+                        apply(ReplicationProtocol.readRecord(in, scratch), store);
+                        break;
+                    case ReplicationProtocol.REQUEST:
+                        in.readLong(); // Sequence
+                        requestHistory.addRequest(in.readLong(), in.readLong());
+                        break;
+                    case ReplicationProtocol.SNAPSHOT_END:
+                        acknowledge(out, in.readLong(), store);
+                        synced = true;
+                        Log.info("Received a copy of {} bookings and {} request history entries at sequence {}.",
+                                facilityService.getBookingCount(), requestHistory.size(), appliedSequence);
+                        break;
+                    case ReplicationProtocol.BATCH_END:
+                        acknowledge(out, in.readLong(), store);
+                        break;
+                    case ReplicationProtocol.HEARTBEAT:
+                        break;
+                    case ReplicationProtocol.RESYNC:
+                        Log.info("Primary {} is restarting replication.", primary);
+                        return false;
+                    default:
+                        throw new IOException("Unknown replication message type " + type);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            Log.warn("Primary {} silent for {} ms.", primary, timeoutMillis);
+        } catch (EOFException e) {
+            Log.warn("Primary {} closed the replication stream.", primary);
+        } catch (SocketException e) {
+            Log.warn("Replication stream from {} failed: {}", primary, e.getMessage()); // e.g. reset by a dying primary
+        }
+        return true;
+    }
+
+    // A connection that closes or stalls before saying what it is was not the primary's stream, so losing it is not a
+    // reason to take over
+    private int readMagic(DataInputStream in) {
+        try {
+            return in.readInt();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void apply(BookingRecord record, BookingStore store) throws IOException {
+        facilityService.applyRecord(record);
+        if (store != null) {
+            lastLogged = store.append(record);
+        }
+    }
+
+    private void acknowledge(DataOutputStream out, long sequence, BookingStore store) throws IOException {
+        if (store != null && lastLogged > 0) {
+            store.awaitDurable(lastLogged);
+        }
+        appliedSequence = sequence;
+        out.writeLong(sequence);
+        out.flush();
+    }
+
+    // A new copy replaces the bookings held, which may be from an earlier stream or this server's own log
+    private void dropBookings(BookingStore store) throws IOException {
+        List<BookingRecord> cancels = new ArrayList<>(facilityService.getBookingCount());
+        for (Facility facility : facilityService.getFacilities()) {
+            ReentrantLock lock = facility.getLock();
+            lock.lock();
+            try {
+                for (Booking booking : facility.getBookings()) {
+                    cancels.add(new BookingRecord(0, BookingRecord.CANCEL, booking.getBookingId(),
+                            facility.getFacilityName(), booking.getStartTime(), booking.getEndTime()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (BookingRecord cancel : cancels) {
+            apply(cancel, store);
+        }
+    }
+}
@@ -1,37 +1,49 @@
 package shared;
 
 import shared.constants.OperationType;
+import shared.constants.ProtocolConstants;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
 public class Marshaller {
+    private static final byte[] HEX_DIGITS = hexDigits(); // Value of each hex digit byte, -1 for other bytes
+    private static final byte BATCH_ALL_OR_NOTHING = 0x01; // Batch mode bit: apply every item or none
 
     // --- Marshalling ---
 
     // We simulate loss from server to client by not sending reply, thus simulateLoss is always false here
     public static byte[] marshalReplyHeader(int requestId, OperationType operationType, short payloadLength) {
+        return marshalReplyHeader(requestId, operationType, payloadLength, (byte) 0);
+    }
+
+    // Reply flags describe the payload encoding, e.g. FLAG_BINARY_AVAILABILITY
+    public static byte[] marshalReplyHeader(int requestId, OperationType operationType, short payloadLength, byte flags) {
         ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
         buffer.putInt(requestId);
         buffer.put(operationType.getCode());
         buffer.putShort(payloadLength);
-        buffer.put((byte) 0);
+        buffer.put(flags);
         return buffer.array();
     }
 
     public static byte[] marshalReply(int requestId, OperationType operationType, byte[] payload) {
+        return marshalReply(requestId, operationType, payload, (byte) 0);
+    }
+
+    public static byte[] marshalReply(int requestId, OperationType operationType, byte[] payload, byte flags) {
         int payloadLength = payload != null ? payload.length : 0;
         ByteBuffer buffer = ByteBuffer.allocate(8 + payloadLength).order(ByteOrder.BIG_ENDIAN);
-        buffer.put(marshalReplyHeader(requestId, operationType, (short) payloadLength));
-        if (payload != null) {
-            buffer.put(payload);
-        }
+        writeReply(buffer, requestId, operationType, payload, flags);
         return buffer.array();
     }
 
@@ -39,7 +51,7 @@ public class Marshaller {
         byte[] errorBytes = errorMessage.getBytes(StandardCharsets.UTF_8);
         int payloadLength = errorBytes.length;
         ByteBuffer buffer = ByteBuffer.allocate(8 + payloadLength).order(ByteOrder.BIG_ENDIAN);
-        buffer.put(marshalReplyHeader(requestId, operationType, (short) payloadLength));
+        marshalHeaderIntoBuffer(buffer, requestId, operationType, (short) payloadLength);
         buffer.put(errorBytes);
         return buffer.array();
     }
@@ -58,16 +70,38 @@ public class Marshaller {
         return buffer.array();
     }
 
+    // Same request for explicit dates: the days are epoch days and the header carries FLAG_ABSOLUTE_DATES
+    public static byte[] marshalQueryAvailabilityByDateRequest(int requestId, String facilityName, List<LocalDate> dates) {
+        byte[] nameBytes = facilityName.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 2 + nameBytes.length + 4 * dates.size(); // short (nameLen) + nameBytes + int (epoch day) * dates.size();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payloadLength).order(ByteOrder.BIG_ENDIAN);
+        marshalHeaderIntoBuffer(buffer, requestId, OperationType.QUERY_AVAILABILITY, (short) payloadLength, ProtocolConstants.FLAG_ABSOLUTE_DATES);
+
+        buffer.putShort((short) nameBytes.length);
+        buffer.put(nameBytes);
+        for (LocalDate date : dates) {
+            buffer.putInt((int) date.toEpochDay());
+        }
+        return buffer.array();
+    }
+
     public static byte[] marshalBookFacilityRequest(int requestId, String facilityName, LocalDateTime startTime, LocalDateTime endTime) {
+        return marshalBookFacilityRequest(requestId, facilityName, startTime, endTime, false);
+    }
+
+    // With absoluteDates the times carry their epoch day instead of their day of the week, so the server books exactly
+    // those dates rather than the next occurrence of the weekdays
+    public static byte[] marshalBookFacilityRequest(int requestId, String facilityName, LocalDateTime startTime, LocalDateTime endTime, boolean absoluteDates) {
         byte[] nameBytes = facilityName.getBytes(StandardCharsets.UTF_8);
         int payloadLength = 2 + nameBytes.length + 3 * 4 + 3 * 4; // short (nameLen) + nameBytes + 3 ints (startTime) + 3 ints (endTime)
         ByteBuffer buffer = ByteBuffer.allocate(8 + payloadLength).order(ByteOrder.BIG_ENDIAN);
-        marshalHeaderIntoBuffer(buffer, requestId, OperationType.BOOK_FACILITY, (short) payloadLength);
+        marshalHeaderIntoBuffer(buffer, requestId, OperationType.BOOK_FACILITY, (short) payloadLength,
+                absoluteDates ? ProtocolConstants.FLAG_ABSOLUTE_DATES : (byte) 0);
 
         buffer.putShort((short) nameBytes.length);
         buffer.put(nameBytes);
-        marshalDateTime(buffer, startTime);
-        marshalDateTime(buffer, endTime);
+        marshalDateTime(buffer, startTime, absoluteDates);
+        marshalDateTime(buffer, endTime, absoluteDates);
         return buffer.array();
     }
 
@@ -101,6 +135,12 @@ public class Marshaller {
         return buffer.array();
     }
 
+    public static byte[] marshalGetServerMetricsRequest(int requestId) {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+        marshalHeaderIntoBuffer(buffer, requestId, OperationType.GET_SERVER_METRICS, (short) 0); // No payload
+        return buffer.array();
+    }
+
     public static byte[] marshalExtendBookingRequest(int requestId, String confirmationId, int extendMinutes) {
         byte[] confirmationIdBytes = confirmationId.getBytes(StandardCharsets.UTF_8);
         int payloadLength = 2 + confirmationIdBytes.length + 4; // short (confirmationIdLen) + confirmationIdBytes + int (extendMinutes)
@@ -113,37 +153,132 @@ public class Marshaller {
         return buffer.array();
     }
 
+    // Up to MAX_BATCH_ITEMS book, change and extend items for one facility, applied under one facility lock:
+    // short (nameLen) + nameBytes + byte (mode, BATCH_ALL_OR_NOTHING) + short (itemCount) + items, where each item is a
+    // byte (type) followed by 2 * 3 ints (start and end time) for BOOK, or by the confirmation ID as two longs and an
+    // int (minutes) for CHANGE and EXTEND. With absoluteDates the times carry their epoch day, as for single bookings.
+    public static byte[] marshalBatchBookingRequest(int requestId, String facilityName, boolean allOrNothing, List<BatchItem> items, boolean absoluteDates) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + batchBookingPayloadLength(facilityName, items)).order(ByteOrder.BIG_ENDIAN);
+        writeBatchBookingRequest(buffer, requestId, facilityName, allOrNothing, items,
+                absoluteDates ? ProtocolConstants.FLAG_ABSOLUTE_DATES : (byte) 0);
+        return buffer.array();
+    }
+
+    // Reply payload of a batch: short (itemCount) + one result per item, in request order. Each result is a byte
+    // (status) followed by the new confirmation ID as two longs for BOOKED, or by a length-prefixed reason of at most
+    // MAX_BATCH_REASON_BYTES for FAILED.
+    public static byte[] marshalBatchBookingReply(List<BatchItemResult> results) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + results.size() * (1 + 2 + ProtocolConstants.MAX_BATCH_REASON_BYTES));
+        buffer.putShort((short) results.size());
+        for (BatchItemResult result : results) {
+            buffer.put(result.getStatus());
+            if (result.getStatus() == BatchItemResult.BOOKED) {
+                buffer.putLong(result.getBookingId().getMostSignificantBits());
+                buffer.putLong(result.getBookingId().getLeastSignificantBits());
+            } else if (result.getStatus() == BatchItemResult.FAILED) {
+                putTruncatedString(buffer, result.getReason(), ProtocolConstants.MAX_BATCH_REASON_BYTES);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
     public static byte[] marshalAvailabilityUpdate(String facilityName, byte[] availabilityData) { // For Monitor updates
+        return marshalAvailabilityUpdate(facilityName, availabilityData, (byte) 0);
+    }
+
+    public static byte[] marshalAvailabilityUpdate(String facilityName, byte[] availabilityData, byte flags) {
         byte[] nameBytes = facilityName.getBytes(StandardCharsets.UTF_8);
         int payloadLength = 2 + nameBytes.length + availabilityData.length; // short (nameLen) + nameBytes + availabilityData
         ByteBuffer buffer = ByteBuffer.allocate(8 + payloadLength).order(ByteOrder.BIG_ENDIAN);
         // Request ID -1 for server-initiated callbacks (Monitor Updates)
-        marshalHeaderIntoBuffer(buffer, -1, OperationType.MONITOR_AVAILABILITY, (short) payloadLength);
+        marshalHeaderIntoBuffer(buffer, -1, OperationType.MONITOR_AVAILABILITY, (short) payloadLength, flags);
         buffer.putShort((short) nameBytes.length);
         buffer.put(nameBytes);
         buffer.put(availabilityData);
         return buffer.array();
     }
 
+    // Compact alternative to the text grid, sent when the client sets FLAG_BINARY_AVAILABILITY:
+    // byte (slotMinutes) + byte (dayCount) + dayCount * (int (day, 1-7) + bitmap), where bit i of the bitmap
+    // (byte i / 8, least significant bit first) is set if slot i of the day is booked.
+    // dayBitmaps is indexed by DayOfWeek.getValue() - 1.
+    public static byte[] marshalAvailabilityBitmap(int slotMinutes, List<DayOfWeek> days, byte[][] dayBitmaps) {
+        int bitmapLength = availabilityBitmapLength(slotMinutes);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + days.size() * (4 + bitmapLength)).order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) slotMinutes);
+        buffer.put((byte) days.size());
+        for (DayOfWeek day : days) {
+            buffer.putInt(day.getValue());
+            buffer.put(dayBitmaps[day.getValue() - 1], 0, bitmapLength);
+        }
+        return buffer.array();
+    }
+
+    // Same encoding for explicit dates, sent with FLAG_ABSOLUTE_DATES: each day is an epoch day instead of 1-7.
+    // bitmaps holds one bitmap per date, in the same order.
+    public static byte[] marshalAvailabilityBitmapForDates(int slotMinutes, List<LocalDate> dates, List<byte[]> bitmaps) {
+        int bitmapLength = availabilityBitmapLength(slotMinutes);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + dates.size() * (4 + bitmapLength)).order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) slotMinutes);
+        buffer.put((byte) dates.size());
+        for (int i = 0; i < dates.size(); i++) {
+            buffer.putInt((int) dates.get(i).toEpochDay());
+            buffer.put(bitmaps.get(i), 0, bitmapLength);
+        }
+        return buffer.array();
+    }
+
+    public static int availabilityBitmapLength(int slotMinutes) {
+        int slotsPerDay = 24 * 60 / slotMinutes;
+        return (slotsPerDay + 7) / 8;
+    }
+
+    // Sets the header flags of an already marshalled message, e.g. to ask for binary availability
+    public static void setFlags(byte[] message, byte flags) {
+        message[ProtocolConstants.HEADER_SIZE - 1] = flags;
+    }
+
+    // Sets header flags in addition to those already set, e.g. FLAG_ABSOLUTE_DATES
+    public static void addFlags(byte[] message, byte flags) {
+        message[ProtocolConstants.HEADER_SIZE - 1] |= flags;
+    }
+
 
     // --- Unmarshalling ---
 
     public static MessageHeader unmarshalHeader(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 0, 8).order(ByteOrder.BIG_ENDIAN); // Header is always first 8 bytes
+        return unmarshalHeader(ByteBuffer.wrap(message, 0, ProtocolConstants.HEADER_SIZE));
+    }
+
+    // The ByteBuffer overloads read a message from message.position() to message.limit() without moving the
+    // caller's position, so a received buffer can be decoded in place instead of being copied into a byte[] first.
+    public static MessageHeader unmarshalHeader(ByteBuffer message) {
+        ByteBuffer buffer = message.duplicate().order(ByteOrder.BIG_ENDIAN); // Header is always first 8 bytes
         int requestId = buffer.getInt();
         OperationType operationType = OperationType.fromCode(buffer.get());
         short payloadLength = buffer.getShort();
-        byte simulateLossByte = buffer.get();
-        return new MessageHeader(requestId, operationType, payloadLength, simulateLossByte);
+        byte flags = buffer.get();
+        return new MessageHeader(requestId, operationType, payloadLength, flags);
     }
 
     public static QueryAvailabilityRequestData unmarshalQueryAvailabilityRequest(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 8, message.length - 8).order(ByteOrder.BIG_ENDIAN); // Skip header
+        return unmarshalQueryAvailabilityRequest(ByteBuffer.wrap(message));
+    }
+
+    public static QueryAvailabilityRequestData unmarshalQueryAvailabilityRequest(ByteBuffer message) {
+        ByteBuffer buffer = payloadOf(message);
         short nameLength = buffer.getShort();
         byte[] nameBytes = new byte[nameLength];
         buffer.get(nameBytes);
         String facilityName = new String(nameBytes, StandardCharsets.UTF_8);
 
+        if (hasAbsoluteDates(message)) {
+            List<LocalDate> dates = new ArrayList<>();
+            while (buffer.hasRemaining()) {
+                dates.add(LocalDate.ofEpochDay(buffer.getInt()));
+            }
+            return new QueryAvailabilityRequestData(facilityName, null, dates);
+        }
         List<DayOfWeek> days = new ArrayList<>();
         while (buffer.hasRemaining()) { // Read remaining bytes as days
             days.add(DayOfWeek.of(buffer.getInt()));
@@ -152,19 +287,28 @@ public class Marshaller {
     }
 
     public static BookFacilityRequestData unmarshalBookFacilityRequest(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 8, message.length - 8).order(ByteOrder.BIG_ENDIAN);
+        return unmarshalBookFacilityRequest(ByteBuffer.wrap(message));
+    }
+
+    public static BookFacilityRequestData unmarshalBookFacilityRequest(ByteBuffer message) {
+        ByteBuffer buffer = payloadOf(message);
         short nameLength = buffer.getShort();
         byte[] nameBytes = new byte[nameLength];
         buffer.get(nameBytes);
         String facilityName = new String(nameBytes, StandardCharsets.UTF_8);
 
-        LocalDateTime startTime = unmarshalDateTime(buffer);
-        LocalDateTime endTime = unmarshalDateTime(buffer);
+        boolean absoluteDates = hasAbsoluteDates(message);
+        LocalDateTime startTime = unmarshalDateTime(buffer, absoluteDates);
+        LocalDateTime endTime = unmarshalDateTime(buffer, absoluteDates);
         return new BookFacilityRequestData(facilityName, startTime, endTime);
     }
 
     public static ChangeBookingRequestData unmarshalChangeBookingRequest(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 8, message.length - 8).order(ByteOrder.BIG_ENDIAN);
+        return unmarshalChangeBookingRequest(ByteBuffer.wrap(message));
+    }
+
+    public static ChangeBookingRequestData unmarshalChangeBookingRequest(ByteBuffer message) {
+        ByteBuffer buffer = payloadOf(message);
         short confirmationIdLength = buffer.getShort();
         byte[] confirmationIdBytes = new byte[confirmationIdLength];
         buffer.get(confirmationIdBytes);
@@ -174,7 +318,11 @@ public class Marshaller {
     }
 
     public static MonitorAvailabilityRequestData unmarshalMonitorAvailabilityRequest(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 8, message.length - 8).order(ByteOrder.BIG_ENDIAN);
+        return unmarshalMonitorAvailabilityRequest(ByteBuffer.wrap(message));
+    }
+
+    public static MonitorAvailabilityRequestData unmarshalMonitorAvailabilityRequest(ByteBuffer message) {
+        ByteBuffer buffer = payloadOf(message);
         short nameLength = buffer.getShort();
         byte[] nameBytes = new byte[nameLength];
         buffer.get(nameBytes);
@@ -184,7 +332,11 @@ public class Marshaller {
     }
 
     public static ExtendBookingRequestData unmarshalExtendBookingRequest(byte[] message) {
-        ByteBuffer buffer = ByteBuffer.wrap(message, 8, message.length - 8).order(ByteOrder.BIG_ENDIAN);
+        return unmarshalExtendBookingRequest(ByteBuffer.wrap(message));
+    }
+
+    public static ExtendBookingRequestData unmarshalExtendBookingRequest(ByteBuffer message) {
+        ByteBuffer buffer = payloadOf(message);
         short confirmationIdLength = buffer.getShort();
         byte[] confirmationIdBytes = new byte[confirmationIdLength];
         buffer.get(confirmationIdBytes);
@@ -193,6 +345,442 @@ public class Marshaller {
         return new ExtendBookingRequestData(confirmationId, extendMinutes);
     }
 
+    public static BatchBookingRequestData unmarshalBatchBookingRequest(byte[] message) {
+        return unmarshalBatchBookingRequest(ByteBuffer.wrap(message));
+    }
+
+    public static BatchBookingRequestData unmarshalBatchBookingRequest(ByteBuffer message) {
+        return readBatchBookingRequest(message, null);
+    }
+
+    public static List<BatchItemResult> unmarshalBatchBookingReply(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.BIG_ENDIAN);
+        int count = buffer.getShort() & 0xffff;
+        List<BatchItemResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte status = buffer.get();
+            switch (status) {
+                case BatchItemResult.BOOKED:
+                    results.add(BatchItemResult.booked(new UUID(buffer.getLong(), buffer.getLong())));
+                    break;
+                case BatchItemResult.APPLIED:
+                    results.add(BatchItemResult.applied());
+                    break;
+                case BatchItemResult.FAILED:
+                    byte[] reasonBytes = new byte[buffer.getShort() & 0xffff];
+                    buffer.get(reasonBytes);
+                    results.add(BatchItemResult.failed(new String(reasonBytes, StandardCharsets.UTF_8)));
+                    break;
+                case BatchItemResult.NOT_APPLIED:
+                    results.add(BatchItemResult.notApplied());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown batch result status: " + status);
+            }
+        }
+        return results;
+    }
+
+
+    public static AvailabilityUpdateData unmarshalAvailabilityUpdate(byte[] message) {
+        MessageHeader header = unmarshalHeader(message);
+        ByteBuffer buffer = ByteBuffer.wrap(message, 8, header.getPayloadLength()).order(ByteOrder.BIG_ENDIAN);
+        short nameLength = buffer.getShort();
+        byte[] nameBytes = new byte[nameLength];
+        buffer.get(nameBytes);
+        String facilityName = new String(nameBytes, StandardCharsets.UTF_8);
+        byte[] availabilityData = new byte[buffer.remaining()];
+        buffer.get(availabilityData);
+        return new AvailabilityUpdateData(facilityName, availabilityData, header.getBinaryAvailability());
+    }
+
+    public static AvailabilityBitmapData unmarshalAvailabilityBitmap(byte[] data, int offset, int length) {
+        return unmarshalAvailabilityBitmap(data, offset, length, false);
+    }
+
+    // absoluteDates is whether the reply carried FLAG_ABSOLUTE_DATES, i.e. the days are epoch days
+    public static AvailabilityBitmapData unmarshalAvailabilityBitmap(byte[] data, int offset, int length, boolean absoluteDates) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(ByteOrder.BIG_ENDIAN);
+        int slotMinutes = buffer.get() & 0xff;
+        int dayCount = buffer.get() & 0xff;
+        int bitmapLength = availabilityBitmapLength(slotMinutes);
+        List<DayOfWeek> days = new ArrayList<>(dayCount);
+        List<LocalDate> dates = absoluteDates ? new ArrayList<>(dayCount) : null;
+        List<byte[]> bitmaps = new ArrayList<>(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            if (absoluteDates) {
+                LocalDate date = LocalDate.ofEpochDay(buffer.getInt());
+                dates.add(date);
+                days.add(date.getDayOfWeek());
+            } else {
+                days.add(DayOfWeek.of(buffer.getInt()));
+            }
+            byte[] bitmap = new byte[bitmapLength];
+            buffer.get(bitmap);
+            bitmaps.add(bitmap);
+        }
+        return new AvailabilityBitmapData(slotMinutes, days, dates, bitmaps);
+    }
+
+
+    // --- In-place Marshalling/Unmarshalling ---
+    // write* methods encode into a caller-supplied buffer at its position and advance it; they throw
+    // BufferOverflowException if the message does not fit. read* methods decode the message between the
+    // buffer's position and limit with absolute gets and leave the position alone. Buffers must be big-endian
+    // (the default). Names are resolved through a NameTable and confirmation IDs are parsed straight from
+    // their bytes, so a request for a known facility is decoded without copying any bytes or building Strings.
+
+    public static void writeHeader(ByteBuffer out, int requestId, OperationType operationType, int payloadLength, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, operationType, (short) payloadLength, flags);
+    }
+
+    public static void writeReply(ByteBuffer out, int requestId, OperationType operationType, byte[] payload, byte flags) {
+        int payloadLength = payload != null ? payload.length : 0;
+        marshalHeaderIntoBuffer(out, requestId, operationType, (short) payloadLength, flags);
+        if (payload != null) {
+            out.put(payload);
+        }
+    }
+
+    public static void writeErrorReply(ByteBuffer out, int requestId, OperationType operationType, String errorMessage) {
+        marshalHeaderIntoBuffer(out, requestId, operationType, (short) utf8Length(errorMessage), (byte) 0);
+        putUtf8(out, errorMessage);
+    }
+
+    public static void writeQueryAvailabilityRequest(ByteBuffer out, int requestId, String facilityName, List<DayOfWeek> days, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.QUERY_AVAILABILITY, (short) (2 + utf8Length(facilityName) + 4 * days.size()), flags);
+        putString(out, facilityName);
+        for (int i = 0; i < days.size(); i++) {
+            out.putInt(days.get(i).getValue());
+        }
+    }
+
+    public static void writeQueryAvailabilityByDateRequest(ByteBuffer out, int requestId, String facilityName, List<LocalDate> dates, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.QUERY_AVAILABILITY, (short) (2 + utf8Length(facilityName) + 4 * dates.size()),
+                (byte) (flags | ProtocolConstants.FLAG_ABSOLUTE_DATES));
+        putString(out, facilityName);
+        for (int i = 0; i < dates.size(); i++) {
+            out.putInt((int) dates.get(i).toEpochDay());
+        }
+    }
+
+    // Times are encoded with their epoch day when flags include FLAG_ABSOLUTE_DATES
+    public static void writeBookFacilityRequest(ByteBuffer out, int requestId, String facilityName, LocalDateTime startTime, LocalDateTime endTime, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.BOOK_FACILITY, (short) (2 + utf8Length(facilityName) + 3 * 4 + 3 * 4), flags);
+        putString(out, facilityName);
+        boolean absoluteDates = (flags & ProtocolConstants.FLAG_ABSOLUTE_DATES) != 0;
+        marshalDateTime(out, startTime, absoluteDates);
+        marshalDateTime(out, endTime, absoluteDates);
+    }
+
+    public static void writeChangeBookingRequest(ByteBuffer out, int requestId, String confirmationId, int offsetMinutes, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.CHANGE_BOOKING, (short) (2 + utf8Length(confirmationId) + 4), flags);
+        putString(out, confirmationId);
+        out.putInt(offsetMinutes);
+    }
+
+    public static void writeMonitorAvailabilityRequest(ByteBuffer out, int requestId, String facilityName, int monitorIntervalMinutes, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.MONITOR_AVAILABILITY, (short) (2 + utf8Length(facilityName) + 4), flags);
+        putString(out, facilityName);
+        out.putInt(monitorIntervalMinutes);
+    }
+
+    public static void writeGetServerStatusRequest(ByteBuffer out, int requestId, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.GET_SERVER_STATUS, (short) 0, flags);
+    }
+
+    public static void writeGetServerMetricsRequest(ByteBuffer out, int requestId, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.GET_SERVER_METRICS, (short) 0, flags);
+    }
+
+    public static void writeExtendBookingRequest(ByteBuffer out, int requestId, String confirmationId, int extendMinutes, byte flags) {
+        marshalHeaderIntoBuffer(out, requestId, OperationType.EXTEND_BOOKING, (short) (2 + utf8Length(confirmationId) + 4), flags);
+        putString(out, confirmationId);
+        out.putInt(extendMinutes);
+    }
+
+    // Items must fit MAX_BATCH_MESSAGE_SIZE, see marshalBatchBookingRequest
+    public static void writeBatchBookingRequest(ByteBuffer out, int requestId, String facilityName, boolean allOrNothing, List<BatchItem> items, byte flags) {
+        if (items.size() > ProtocolConstants.MAX_BATCH_ITEMS) {
+            throw new IllegalArgumentException("A batch holds at most " + ProtocolConstants.MAX_BATCH_ITEMS + " items.");
+        }
+        marshalHeaderIntoBuffer(out, requestId, OperationType.BATCH_BOOKING, (short) batchBookingPayloadLength(facilityName, items), flags);
+        putString(out, facilityName);
+        out.put(allOrNothing ? BATCH_ALL_OR_NOTHING : 0);
+        out.putShort((short) items.size());
+        boolean absoluteDates = (flags & ProtocolConstants.FLAG_ABSOLUTE_DATES) != 0;
+        for (int i = 0; i < items.size(); i++) {
+            BatchItem item = items.get(i);
+            out.put(item.getType());
+            if (item.getType() == BatchItem.BOOK) {
+                marshalDateTime(out, item.getStartTime(), absoluteDates);
+                marshalDateTime(out, item.getEndTime(), absoluteDates);
+            } else {
+                out.putLong(item.getBookingId().getMostSignificantBits());
+                out.putLong(item.getBookingId().getLeastSignificantBits());
+                out.putInt(item.getMinutes());
+            }
+        }
+    }
+
+    public static void writeAvailabilityUpdate(ByteBuffer out, String facilityName, byte[] availabilityData, byte flags) {
+        // Request ID -1 for server-initiated callbacks (Monitor Updates)
+        marshalHeaderIntoBuffer(out, -1, OperationType.MONITOR_AVAILABILITY, (short) (2 + utf8Length(facilityName) + availabilityData.length), flags);
+        putString(out, facilityName);
+        out.put(availabilityData);
+    }
+
+    public static int readRequestId(ByteBuffer message) {
+        return message.getInt(message.position());
+    }
+
+    public static OperationType readOperationType(ByteBuffer message) {
+        return OperationType.fromCode(message.get(message.position() + 4));
+    }
+
+    public static byte readFlags(ByteBuffer message) {
+        return message.get(message.position() + ProtocolConstants.HEADER_SIZE - 1);
+    }
+
+    // The facility name query, book, monitor and batch requests start with, e.g. for routing them to a shard
+    public static String readFacilityName(ByteBuffer message) {
+        return readName(message, message.position() + ProtocolConstants.HEADER_SIZE, null);
+    }
+
+    public static QueryAvailabilityRequestData readQueryAvailabilityRequest(ByteBuffer message, NameTable names) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        String facilityName = readName(message, offset, names);
+        offset += 2 + (message.getShort(offset) & 0xffff);
+        if (hasAbsoluteDates(message)) {
+            List<LocalDate> dates = new ArrayList<>((message.limit() - offset) / 4);
+            for (; offset + 4 <= message.limit(); offset += 4) {
+                dates.add(LocalDate.ofEpochDay(message.getInt(offset)));
+            }
+            return new QueryAvailabilityRequestData(facilityName, null, dates);
+        }
+        List<DayOfWeek> days = new ArrayList<>((message.limit() - offset) / 4);
+        for (; offset + 4 <= message.limit(); offset += 4) { // Read remaining bytes as days
+            days.add(DayOfWeek.of(message.getInt(offset)));
+        }
+        return new QueryAvailabilityRequestData(facilityName, days);
+    }
+
+    public static BookFacilityRequestData readBookFacilityRequest(ByteBuffer message, NameTable names) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        String facilityName = readName(message, offset, names);
+        offset += 2 + (message.getShort(offset) & 0xffff);
+        boolean absoluteDates = hasAbsoluteDates(message);
+        LocalDateTime startTime = readDateTime(message, offset, absoluteDates);
+        LocalDateTime endTime = readDateTime(message, offset + 12, absoluteDates);
+        return new BookFacilityRequestData(facilityName, startTime, endTime);
+    }
+
+    public static ChangeBookingRequestData readChangeBookingRequest(ByteBuffer message) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        UUID confirmationId = readUuid(message, offset);
+        int offsetMinutes = message.getInt(offset + 2 + (message.getShort(offset) & 0xffff));
+        return new ChangeBookingRequestData(confirmationId, offsetMinutes);
+    }
+
+    public static MonitorAvailabilityRequestData readMonitorAvailabilityRequest(ByteBuffer message, NameTable names) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        String facilityName = readName(message, offset, names);
+        int monitorIntervalMinutes = message.getInt(offset + 2 + (message.getShort(offset) & 0xffff));
+        return new MonitorAvailabilityRequestData(facilityName, monitorIntervalMinutes);
+    }
+
+    public static ExtendBookingRequestData readExtendBookingRequest(ByteBuffer message) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        UUID confirmationId = readUuid(message, offset);
+        int extendMinutes = message.getInt(offset + 2 + (message.getShort(offset) & 0xffff));
+        return new ExtendBookingRequestData(confirmationId, extendMinutes);
+    }
+
+    public static BatchBookingRequestData readBatchBookingRequest(ByteBuffer message, NameTable names) {
+        int offset = message.position() + ProtocolConstants.HEADER_SIZE;
+        String facilityName = readName(message, offset, names);
+        offset += 2 + (message.getShort(offset) & 0xffff);
+        boolean allOrNothing = (message.get(offset) & BATCH_ALL_OR_NOTHING) != 0;
+        int count = message.getShort(offset + 1) & 0xffff;
+        offset += 3;
+        if (count > ProtocolConstants.MAX_BATCH_ITEMS) {
+            throw new IllegalArgumentException("A batch holds at most " + ProtocolConstants.MAX_BATCH_ITEMS + " items.");
+        }
+        boolean absoluteDates = hasAbsoluteDates(message);
+        List<BatchItem> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = message.get(offset);
+            switch (type) {
+                case BatchItem.BOOK:
+                    items.add(BatchItem.book(readDateTime(message, offset + 1, absoluteDates), readDateTime(message, offset + 13, absoluteDates)));
+                    offset += 1 + 2 * 12;
+                    break;
+                case BatchItem.CHANGE:
+                case BatchItem.EXTEND:
+                    UUID bookingId = new UUID(message.getLong(offset + 1), message.getLong(offset + 9));
+                    int minutes = message.getInt(offset + 17);
+                    items.add(type == BatchItem.CHANGE ? BatchItem.change(bookingId, minutes) : BatchItem.extend(bookingId, minutes));
+                    offset += 1 + 16 + 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown batch item type: " + type);
+            }
+        }
+        return new BatchBookingRequestData(facilityName, allOrNothing, items);
+    }
+
+    // Length-prefixed name at offset; names missing from the table (e.g. unknown facilities) are decoded normally
+    private static String readName(ByteBuffer message, int offset, NameTable names) {
+        int length = message.getShort(offset) & 0xffff;
+        if (offset + 2 + length > message.limit()) {
+            throw new IndexOutOfBoundsException("Name extends past the end of the message");
+        }
+        String name = names != null ? names.lookup(message, offset + 2, length) : null;
+        if (name != null) {
+            return name;
+        }
+        byte[] nameBytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            nameBytes[i] = message.get(offset + 2 + i);
+        }
+        return new String(nameBytes, StandardCharsets.UTF_8);
+    }
+
+    // Length-prefixed confirmation ID at offset, in the canonical 8-4-4-4-12 hex form
+    private static UUID readUuid(ByteBuffer message, int offset) {
+        int length = message.getShort(offset) & 0xffff;
+        if (length != 36) {
+            throw new IllegalArgumentException("Invalid confirmation ID format.");
+        }
+        int start = offset + 2;
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        for (int i = 0; i < 36; i++) {
+            byte b = message.get(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (b != '-') {
+                    throw new IllegalArgumentException("Invalid confirmation ID format.");
+                }
+                continue;
+            }
+            int digit = HEX_DIGITS[b & 0xff];
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid confirmation ID format.");
+            }
+            if (i < 18) {
+                mostSigBits = (mostSigBits << 4) | digit;
+            } else {
+                leastSigBits = (leastSigBits << 4) | digit;
+            }
+        }
+        return new UUID(mostSigBits, leastSigBits);
+    }
+
+    private static byte[] hexDigits() {
+        byte[] digits = new byte[256];
+        Arrays.fill(digits, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            digits['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            digits['a' + i] = (byte) (10 + i);
+            digits['A' + i] = (byte) (10 + i);
+        }
+        return digits;
+    }
+
+    private static LocalDateTime readDateTime(ByteBuffer message, int offset, boolean absoluteDates) {
+        int day = message.getInt(offset);
+        int hour = message.getInt(offset + 4);
+        int minute = message.getInt(offset + 8);
+        return absoluteDates ? LocalDate.ofEpochDay(day).atTime(hour, minute) : dateTimeOf(DayOfWeek.of(day), hour, minute);
+    }
+
+    private static boolean hasAbsoluteDates(ByteBuffer message) {
+        return (readFlags(message) & ProtocolConstants.FLAG_ABSOLUTE_DATES) != 0;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        out.putShort((short) utf8Length(value));
+        putUtf8(out, value);
+    }
+
+    // Cut at a character boundary when longer than maxBytes in UTF-8
+    private static void putTruncatedString(ByteBuffer out, String value, int maxBytes) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length > maxBytes) {
+            length = maxBytes;
+            while (length > 0 && (bytes[length] & 0xc0) == 0x80) { // bytes[length] would continue the last character
+                length--;
+            }
+        }
+        out.putShort((short) length);
+        out.put(bytes, 0, length);
+    }
+
+    private static int batchBookingPayloadLength(String facilityName, List<BatchItem> items) {
+        int length = 2 + utf8Length(facilityName) + 1 + 2; // short (nameLen) + nameBytes + byte (mode) + short (itemCount)
+        for (int i = 0; i < items.size(); i++) {
+            length += items.get(i).getType() == BatchItem.BOOK ? 1 + 2 * 12 : 1 + 16 + 4;
+        }
+        return length;
+    }
+
+    private static int utf8Length(CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Encodes without the intermediate byte[] of String.getBytes; lone surrogates become '?' as with getBytes
+    private static void putUtf8(ByteBuffer out, CharSequence value) {
+        int i = 0;
+        if (out.hasArray()) {
+            // ASCII prefix straight into the backing array, skipping the per-byte bounds checks of put()
+            byte[] array = out.array();
+            int position = out.arrayOffset() + out.position();
+            int end = Math.min(value.length(), out.remaining());
+            while (i < end && value.charAt(i) < 0x80) {
+                array[position++] = (byte) value.charAt(i++);
+            }
+            out.position(position - out.arrayOffset());
+        }
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xc0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xf0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xe0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
 
     // --- Helper Marshalling/Unmarshalling Methods ---
 
@@ -201,24 +789,42 @@ public class Marshaller {
     }
 
     private static void marshalHeaderIntoBuffer(ByteBuffer buffer, int requestId, OperationType operationType, short payloadLength, boolean simulateLoss) {
+        byte simulateLossByte = simulateLoss ? ProtocolConstants.FLAG_SIMULATE_LOSS : (byte) 0;
+        marshalHeaderIntoBuffer(buffer, requestId, operationType, payloadLength, simulateLossByte);
+    }
+
+    private static void marshalHeaderIntoBuffer(ByteBuffer buffer, int requestId, OperationType operationType, short payloadLength, byte flags) {
         buffer.putInt(requestId);
         buffer.put(operationType.getCode());
         buffer.putShort(payloadLength);
-        byte simulateLossByte = simulateLoss ? (byte) 1 : (byte) 0;
-        buffer.put(simulateLossByte);
+        buffer.put(flags);
     }
 
-    private static void marshalDateTime(ByteBuffer buffer, LocalDateTime dateTime) {
-        buffer.putInt(dateTime.getDayOfWeek().getValue()); // DayOfWeek as int (1-7)
+    // View of the payload that follows the header, positioned at its first byte
+    private static ByteBuffer payloadOf(ByteBuffer message) {
+        ByteBuffer buffer = message.duplicate().order(ByteOrder.BIG_ENDIAN);
+        buffer.position(buffer.position() + ProtocolConstants.HEADER_SIZE); // Skip header
+        return buffer;
+    }
+
+    private static void marshalDateTime(ByteBuffer buffer, LocalDateTime dateTime, boolean absoluteDates) {
+        if (absoluteDates) {
+            buffer.putInt((int) dateTime.toLocalDate().toEpochDay()); // Days since 1970-01-01
+        } else {
+            buffer.putInt(dateTime.getDayOfWeek().getValue()); // DayOfWeek as int (1-7)
+        }
         buffer.putInt(dateTime.getHour());
         buffer.putInt(dateTime.getMinute());
     }
 
-    private static LocalDateTime unmarshalDateTime(ByteBuffer buffer) {
-        DayOfWeek dayOfWeek = DayOfWeek.of(buffer.getInt());
+    private static LocalDateTime unmarshalDateTime(ByteBuffer buffer, boolean absoluteDates) {
+        int day = buffer.getInt();
         int hour = buffer.getInt();
         int minute = buffer.getInt();
+        return absoluteDates ? LocalDate.ofEpochDay(day).atTime(hour, minute) : dateTimeOf(DayOfWeek.of(day), hour, minute);
+    }
 
+    private static LocalDateTime dateTimeOf(DayOfWeek dayOfWeek, int hour, int minute) {
         // Create a base LocalDateTime using today's date at the specified time
         LocalDateTime base = LocalDateTime.now().withHour(hour).withMinute(minute).withSecond(0).withNano(0);
         // Adjust to the next or same occurrence of the given day
@@ -232,10 +838,16 @@ public class Marshaller {
     public static class QueryAvailabilityRequestData {
         private final String facilityName;
         private final List<DayOfWeek> days;
+        private final List<LocalDate> dates; // Set instead of days when the request carried FLAG_ABSOLUTE_DATES
 
         public QueryAvailabilityRequestData(String facilityName, List<DayOfWeek> days) {
+            this(facilityName, days, null);
+        }
+
+        public QueryAvailabilityRequestData(String facilityName, List<DayOfWeek> days, List<LocalDate> dates) {
             this.facilityName = facilityName;
             this.days = days;
+            this.dates = dates;
         }
 
         public String getFacilityName() {
@@ -245,6 +857,14 @@ public class Marshaller {
         public List<DayOfWeek> getDays() {
             return days;
         }
+
+        public List<LocalDate> getDates() {
+            return dates;
+        }
+
+        public boolean hasDates() {
+            return dates != null;
+        }
     }
 
     public static class BookFacilityRequestData {
@@ -273,15 +893,27 @@ public class Marshaller {
 
     public static class ChangeBookingRequestData {
         private final String confirmationId;
+        private final UUID confirmationUuid; // Set when decoded by readChangeBookingRequest
         private final int offsetMinutes;
 
         public ChangeBookingRequestData(String confirmationId, int offsetMinutes) {
             this.confirmationId = confirmationId;
+            this.confirmationUuid = null;
+            this.offsetMinutes = offsetMinutes;
+        }
+
+        public ChangeBookingRequestData(UUID confirmationUuid, int offsetMinutes) {
+            this.confirmationId = null;
+            this.confirmationUuid = confirmationUuid;
             this.offsetMinutes = offsetMinutes;
         }
 
         public String getConfirmationId() {
-            return confirmationId;
+            return confirmationId != null ? confirmationId : confirmationUuid.toString();
+        }
+
+        public UUID getConfirmationUuid() {
+            return confirmationUuid != null ? confirmationUuid : UUID.fromString(confirmationId);
         }
 
         public int getOffsetMinutes() {
@@ -309,19 +941,256 @@ public class Marshaller {
 
     public static class ExtendBookingRequestData {
         private final String confirmationId;
+        private final UUID confirmationUuid; // Set when decoded by readExtendBookingRequest
         private final int extendMinutes;
 
         public ExtendBookingRequestData(String confirmationId, int extendMinutes) {
             this.confirmationId = confirmationId;
+            this.confirmationUuid = null;
+            this.extendMinutes = extendMinutes;
+        }
+
+        public ExtendBookingRequestData(UUID confirmationUuid, int extendMinutes) {
+            this.confirmationId = null;
+            this.confirmationUuid = confirmationUuid;
             this.extendMinutes = extendMinutes;
         }
 
         public String getConfirmationId() {
-            return confirmationId;
+            return confirmationId != null ? confirmationId : confirmationUuid.toString();
+        }
+
+        public UUID getConfirmationUuid() {
+            return confirmationUuid != null ? confirmationUuid : UUID.fromString(confirmationId);
         }
 
         public int getExtendMinutes() {
             return extendMinutes;
         }
     }
-}
\ No newline at end of file
+
+    public static class BatchItem {
+        public static final byte BOOK = 1;
+        public static final byte CHANGE = 2; // Shifts start and end by minutes
+        public static final byte EXTEND = 3; // Shifts the end by minutes
+
+        private final byte type;
+        private final LocalDateTime startTime; // BOOK only
+        private final LocalDateTime endTime; // BOOK only
+        private final UUID bookingId; // CHANGE and EXTEND only
+        private final int minutes; // CHANGE and EXTEND only
+
+        private BatchItem(byte type, LocalDateTime startTime, LocalDateTime endTime, UUID bookingId, int minutes) {
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.bookingId = bookingId;
+            this.minutes = minutes;
+        }
+
+        public static BatchItem book(LocalDateTime startTime, LocalDateTime endTime) {
+            return new BatchItem(BOOK, startTime, endTime, null, 0);
+        }
+
+        public static BatchItem change(UUID bookingId, int offsetMinutes) {
+            return new BatchItem(CHANGE, null, null, bookingId, offsetMinutes);
+        }
+
+        public static BatchItem extend(UUID bookingId, int extendMinutes) {
+            return new BatchItem(EXTEND, null, null, bookingId, extendMinutes);
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public LocalDateTime getStartTime() {
+            return startTime;
+        }
+
+        public LocalDateTime getEndTime() {
+            return endTime;
+        }
+
+        public UUID getBookingId() {
+            return bookingId;
+        }
+
+        public int getMinutes() {
+            return minutes;
+        }
+    }
+
+    public static class BatchItemResult {
+        public static final byte BOOKED = 0;
+        public static final byte APPLIED = 1; // A change or extension took effect
+        public static final byte FAILED = 2;
+        public static final byte NOT_APPLIED = 3; // All-or-nothing batch in which another item failed
+
+        private final byte status;
+        private final UUID bookingId; // BOOKED only
+        private final String reason; // FAILED only
+
+        private BatchItemResult(byte status, UUID bookingId, String reason) {
+            this.status = status;
+            this.bookingId = bookingId;
+            this.reason = reason;
+        }
+
+        public static BatchItemResult booked(UUID bookingId) {
+            return new BatchItemResult(BOOKED, bookingId, null);
+        }
+
+        public static BatchItemResult applied() {
+            return new BatchItemResult(APPLIED, null, null);
+        }
+
+        public static BatchItemResult failed(String reason) {
+            return new BatchItemResult(FAILED, null, reason);
+        }
+
+        public static BatchItemResult notApplied() {
+            return new BatchItemResult(NOT_APPLIED, null, null);
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public UUID getBookingId() {
+            return bookingId;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            switch (status) {
+                case BOOKED:
+                    return "Booked, confirmation ID: " + bookingId;
+                case APPLIED:
+                    return "Applied";
+                case FAILED:
+                    return "Failed: " + reason;
+                default:
+                    return "Not applied";
+            }
+        }
+    }
+
+    public static class BatchBookingRequestData {
+        private final String facilityName;
+        private final boolean allOrNothing;
+        private final List<BatchItem> items;
+
+        public BatchBookingRequestData(String facilityName, boolean allOrNothing, List<BatchItem> items) {
+            this.facilityName = facilityName;
+            this.allOrNothing = allOrNothing;
+            this.items = items;
+        }
+
+        public String getFacilityName() {
+            return facilityName;
+        }
+
+        public boolean isAllOrNothing() {
+            return allOrNothing;
+        }
+
+        public List<BatchItem> getItems() {
+            return items;
+        }
+    }
+
+    public static class AvailabilityUpdateData {
+        private final String facilityName;
+        private final byte[] availabilityData;
+        private final boolean binary;
+
+        public AvailabilityUpdateData(String facilityName, byte[] availabilityData, boolean binary) {
+            this.facilityName = facilityName;
+            this.availabilityData = availabilityData;
+            this.binary = binary;
+        }
+
+        public String getFacilityName() {
+            return facilityName;
+        }
+
+        public byte[] getAvailabilityData() {
+            return availabilityData;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+    }
+
+    public static class AvailabilityBitmapData {
+        private final int slotMinutes;
+        private final List<DayOfWeek> days;
+        private final List<LocalDate> dates; // Null unless the reply carried FLAG_ABSOLUTE_DATES
+        private final List<byte[]> bitmaps;
+
+        public AvailabilityBitmapData(int slotMinutes, List<DayOfWeek> days, List<byte[]> bitmaps) {
+            this(slotMinutes, days, null, bitmaps);
+        }
+
+        public AvailabilityBitmapData(int slotMinutes, List<DayOfWeek> days, List<LocalDate> dates, List<byte[]> bitmaps) {
+            this.slotMinutes = slotMinutes;
+            this.days = days;
+            this.dates = dates;
+            this.bitmaps = bitmaps;
+        }
+
+        public int getSlotMinutes() {
+            return slotMinutes;
+        }
+
+        public List<DayOfWeek> getDays() {
+            return days;
+        }
+
+        public List<LocalDate> getDates() {
+            return dates;
+        }
+
+        public boolean isSlotBooked(int dayIndex, int slot) {
+            return (bitmaps.get(dayIndex)[slot >>> 3] & (1 << (slot & 7))) != 0;
+        }
+
+        // An hour is available only if every slot inside it is available
+        public boolean isHourAvailable(int dayIndex, int hour) {
+            int slotsPerHour = 60 / slotMinutes;
+            for (int slot = hour * slotsPerHour; slot < (hour + 1) * slotsPerHour; slot++) {
+                if (isSlotBooked(dayIndex, slot)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Renders the same grid the server sends in text form
+        @Override
+        public String toString() {
+            StringBuilder availabilityInfo = new StringBuilder("Availability:\n");
+            for (int dayIndex = 0; dayIndex < days.size(); dayIndex++) {
+                if (dates != null) {
+                    availabilityInfo.append(dates.get(dayIndex)).append(' ');
+                }
+                availabilityInfo.append(days.get(dayIndex)).append(":\n     ");
+                for (int hour = 0; hour < 24; hour++) {
+                    availabilityInfo.append(hour < 10 ? "0" : "").append(hour).append(' ');
+                }
+                availabilityInfo.append("\n     ");
+                for (int hour = 0; hour < 24; hour++) {
+                    availabilityInfo.append(isHourAvailable(dayIndex, hour) ? " O " : " X ");
+                }
+                availabilityInfo.append("\n");
+            }
+            return availabilityInfo.toString();
+        }
+    }
+}
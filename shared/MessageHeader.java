@@ -1,18 +1,19 @@
 package shared;
 
 import shared.constants.OperationType;
+import shared.constants.ProtocolConstants;
 
 public class MessageHeader {
     private int requestId;
     private OperationType operationType;
     private short payloadLength;
-    private boolean simulateLoss;
+    private byte flags;
 
-    public MessageHeader(int requestId, OperationType operationType, short payloadLength, byte simulateLossByte) {
+    public MessageHeader(int requestId, OperationType operationType, short payloadLength, byte flags) {
         this.requestId = requestId;
         this.operationType = operationType;
         this.payloadLength = payloadLength;
-        this.simulateLoss = simulateLossByte != (byte) 0;
+        this.flags = flags;
     }
 
     public int getRequestId() {
@@ -27,8 +28,20 @@ public class MessageHeader {
         return payloadLength;
     }
 
+    public byte getFlags() {
+        return flags;
+    }
+
     public boolean getSimulateLoss() {
-        return simulateLoss;
+        return (flags & ProtocolConstants.FLAG_SIMULATE_LOSS) != 0;
+    }
+
+    public boolean getBinaryAvailability() {
+        return (flags & ProtocolConstants.FLAG_BINARY_AVAILABILITY) != 0;
+    }
+
+    public boolean getAbsoluteDates() {
+        return (flags & ProtocolConstants.FLAG_ABSOLUTE_DATES) != 0;
     }
 
     @Override
@@ -37,6 +50,7 @@ public class MessageHeader {
                 "requestId=" + requestId +
                 ", operationType=" + operationType +
                 ", payloadLength=" + payloadLength +
+                ", flags=" + flags +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+// A fixed set of names (e.g. facility names) that can be looked up straight from their UTF-8 bytes in a buffer.
+// Matching ignores ASCII case and returns the canonical String, so decoding a known name allocates nothing.
+public final class NameTable {
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final String[] names;
+    private final byte[][] encodedNames;
+    private final int[] slots; // Open addressing, index into names plus one, 0 = empty
+    private final int mask;
+
+    public NameTable(Collection<String> names) {
+        this.names = names.toArray(new String[0]);
+        this.encodedNames = new byte[this.names.length][];
+        int tableSize = Integer.highestOneBit(Math.max(2, this.names.length) * 2 - 1) << 1; // At most half full
+        this.slots = new int[tableSize];
+        this.mask = tableSize - 1;
+        for (int i = 0; i < this.names.length; i++) {
+            byte[] encoded = this.names[i].getBytes(StandardCharsets.UTF_8);
+            encodedNames[i] = encoded;
+            int slot = hash(ByteBuffer.wrap(encoded), 0, encoded.length) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    // The name stored at buffer[offset, offset + length), or null if it is not in the table.
+    // Reads with absolute gets, so the buffer's position is not changed.
+    public String lookup(ByteBuffer buffer, int offset, int length) {
+        int slot = hash(buffer, offset, length) & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            if (matches(encodedNames[index], buffer, offset, length)) {
+                return names[index];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean matches(byte[] name, ByteBuffer buffer, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerAscii(name[i]) != toLowerAscii(buffer.get(offset + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buffer, int offset, int length) {
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ toLowerAscii(buffer.get(offset + i))) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int toLowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+}
@@ -0,0 +1,181 @@
+package shared;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+// Static partition of the facilities over several server processes (shards) by consistent hashing. Each shard owns
+// VIRTUAL_NODES points on a 64-bit ring, placed by hashing its id, and a facility belongs to the shard of the first
+// point at or after the hash of its normalized name. Adding a shard therefore only moves the facilities that land
+// on its new points, and because points come from ids rather than addresses a shard can move to another host
+// without moving any facility.
+//
+// Config file: one shard per line, "<id> <host> <port>"; blank lines and lines starting with '#' are skipped.
+// Servers and clients of one cluster must read the same file.
+public final class ShardRing {
+    public static final int VIRTUAL_NODES = 128;
+    public static final int MAX_SHARD_ID = 0xffff; // Booking ids carry the shard id in their top 16 bits
+
+    private static final long FNV64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV64_PRIME = 0x100000001b3L;
+
+    public static final class Shard {
+        private final int id;
+        private final InetSocketAddress address;
+
+        public Shard(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + id + " at " + address.getHostString() + ":" + address.getPort();
+        }
+    }
+
+    private final List<Shard> shards; // By id
+    private final long[] points; // Sorted
+    private final Shard[] owners; // Owner of each point
+
+    public ShardRing(List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A shard ring needs at least one shard");
+        }
+        List<Shard> byId = new ArrayList<>(shards);
+        byId.sort(Comparator.comparingInt(Shard::getId));
+        this.shards = Collections.unmodifiableList(byId);
+
+        long[][] entries = new long[byId.size() * VIRTUAL_NODES][];
+        int n = 0;
+        for (int s = 0; s < byId.size(); s++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                entries[n++] = new long[]{hash("shard-" + byId.get(s).getId() + "#" + v), s};
+            }
+        }
+        // Ties (practically impossible) go to the lower shard id, so every node agrees on the owner
+        Arrays.sort(entries, Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+        this.points = new long[entries.length];
+        this.owners = new Shard[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = byId.get((int) entries[i][1]);
+        }
+    }
+
+    public static ShardRing load(Path file) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        boolean[] seen = new boolean[MAX_SHARD_ID + 1];
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IOException("Expected \"<id> <host> <port>\" on line " + lineNumber + ": " + line);
+                }
+                int id;
+                int port;
+                try {
+                    id = Integer.parseInt(fields[0]);
+                    port = Integer.parseInt(fields[2]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid shard id or port on line " + lineNumber + ": " + line);
+                }
+                if (id < 0 || id > MAX_SHARD_ID) {
+                    throw new IOException("Shard id must be between 0 and " + MAX_SHARD_ID + " on line " + lineNumber);
+                }
+                if (port <= 0 || port > 0xffff) {
+                    throw new IOException("Invalid port on line " + lineNumber + ": " + port);
+                }
+                if (seen[id]) {
+                    throw new IOException("Duplicate shard id on line " + lineNumber + ": " + id);
+                }
+                seen[id] = true;
+                InetSocketAddress address = new InetSocketAddress(fields[1], port);
+                if (address.isUnresolved()) {
+                    throw new IOException("Unknown host on line " + lineNumber + ": " + fields[1]);
+                }
+                shards.add(new Shard(id, address));
+            }
+        }
+        if (shards.isEmpty()) {
+            throw new IOException("Cluster config has no shards: " + file);
+        }
+        return new ShardRing(shards);
+    }
+
+    // Facility names are matched ignoring case on the servers, so they are hashed in lower case
+    public Shard shardOf(String facilityName) {
+        long hash = hash(facilityName.toLowerCase(Locale.ROOT));
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index]; // Past the last point wraps around to the first
+    }
+
+    // Null if the ring has no shard with this id
+    public Shard getShard(int id) {
+        for (Shard shard : shards) {
+            if (shard.getId() == id) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    // A random (version 4) UUID whose top 16 bits are replaced by the shard id, leaving 106 random bits. A client
+    // holding only the confirmation ID can tell which shard has the booking: the ID starts with the shard id in hex.
+    public static UUID newBookingId(int shardId) {
+        UUID random = UUID.randomUUID();
+        return new UUID((random.getMostSignificantBits() & 0x0000ffffffffffffL) | ((long) shardId << 48),
+                random.getLeastSignificantBits());
+    }
+
+    public static int shardIdOf(UUID bookingId) {
+        return (int) (bookingId.getMostSignificantBits() >>> 48);
+    }
+
+    // FNV-1a over the UTF-8 bytes, then MurmurHash3's finalizer to spread the bits over the whole ring
+    static long hash(String key) {
+        long hash = FNV64_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV64_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe1a85ec3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -3,6 +3,34 @@ package shared.constants;
 public class ArgumentConstants {
     public static final String PORT = "-port";
     public static final String SEMANTICS = "-semantics";
+    public static final String WORKERS = "-workers";
+    public static final String WORKER_TYPE = "-worker-type";
+    public static final String CHANNELS = "-channels";
+    public static final String SLOT_MINUTES = "-slot-minutes";
+    public static final String HORIZON_DAYS = "-horizon-days";
+    public static final String HISTORY_TTL = "-history-ttl";
+    public static final String HISTORY_SIZE = "-history-size";
+    public static final String DEDUP_FINGERPRINT = "-dedup-fingerprint";
+    public static final String REPLY_CACHE_SIZE = "-reply-cache-size";
+    public static final String MONITOR_DEBOUNCE = "-monitor-debounce";
+    public static final String FANOUT_WORKERS = "-fanout-workers";
+    public static final String FANOUT_QUEUE = "-fanout-queue";
+    public static final String CATALOG = "-catalog";
+    public static final String AVAILABILITY_FILE = "-availability-file";
+    public static final String DATA_DIR = "-data-dir";
+    public static final String FSYNC = "-fsync";
+    public static final String FSYNC_DELAY = "-fsync-delay";
+    public static final String SNAPSHOT_EVERY = "-snapshot-every";
+    public static final String LOG_LEVEL = "-log-level";
+    public static final String METRICS_FILE = "-metrics-file";
+    public static final String METRICS_INTERVAL = "-metrics-interval";
+    public static final String CLUSTER = "-cluster";
+    public static final String SHARD = "-shard";
+    public static final String REPLICATE_TO = "-replicate-to";
+    public static final String REPLICATION_ACK = "-replication-ack";
+    public static final String REPLICATION_BATCH = "-replication-batch";
+    public static final String REPLICATION_TIMEOUT = "-replication-timeout";
+    public static final String STANDBY = "-standby";
 
     public enum Semantics {
         AT_LEAST_ONCE("at-least-once"),
@@ -27,4 +55,52 @@ public class ArgumentConstants {
             throw new IllegalArgumentException("Illegal semantics argument: " + text);
         }
     }
+
+    public enum WorkerType {
+        PLATFORM("platform"),
+        VIRTUAL("virtual");
+
+        public final String value;
+
+        WorkerType(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        public static WorkerType fromString(String text) {
+            for (WorkerType t : WorkerType.values()) {
+                if (t.value.equalsIgnoreCase(text)) {
+                    return t;
+                }
+            }
+            throw new IllegalArgumentException("Illegal worker type argument: " + text);
+        }
+    }
+
+    public enum ReplicationAck {
+        ASYNC("async"),
+        SEMI_SYNC("semi-sync");
+
+        public final String value;
+
+        ReplicationAck(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        public static ReplicationAck fromString(String text) {
+            for (ReplicationAck a : ReplicationAck.values()) {
+                if (a.value.equalsIgnoreCase(text)) {
+                    return a;
+                }
+            }
+            throw new IllegalArgumentException("Illegal replication ack argument: " + text);
+        }
+    }
 }
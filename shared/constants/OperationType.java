@@ -6,7 +6,9 @@ public enum OperationType {
     CHANGE_BOOKING((byte) 3),
     MONITOR_AVAILABILITY((byte) 4),
     GET_SERVER_STATUS((byte) 5), // Idempotent
-    EXTEND_BOOKING((byte) 6);     // Non-Idempotent
+    EXTEND_BOOKING((byte) 6),     // Non-Idempotent
+    BATCH_BOOKING((byte) 7),      // Non-Idempotent
+    GET_SERVER_METRICS((byte) 8); // Idempotent
 
     private final byte code;
 
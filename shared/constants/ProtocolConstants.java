@@ -3,4 +3,18 @@ package shared.constants;
 public class ProtocolConstants {
     public static final int SERVER_PORT = 2222;
     public static final int MAX_MESSAGE_SIZE = 1024; // Maximum UDP packet size is ~64KB, 1KB should be sufficient for this project
+    public static final int HEADER_SIZE = 8;
+
+    // Batch bookings carry up to MAX_BATCH_ITEMS items, so they need larger datagrams than the other operations.
+    // A batch reply can outgrow its request, since each failed item carries a reason of up to MAX_BATCH_REASON_BYTES.
+    public static final int MAX_BATCH_ITEMS = 256;
+    public static final int MAX_BATCH_REASON_BYTES = 120; // Keeps MAX_BATCH_REPLY_SIZE within the header's short payload length
+    public static final int MAX_BATCH_MESSAGE_SIZE = 8 * 1024;
+    public static final int MAX_BATCH_REPLY_SIZE = HEADER_SIZE + 2 + MAX_BATCH_ITEMS * (1 + 2 + MAX_BATCH_REASON_BYTES);
+
+    // Bits of the last header byte. Older clients only ever send 0 or 1 there, i.e. simulate loss or not.
+    public static final byte FLAG_SIMULATE_LOSS = 0x01;
+    public static final byte FLAG_BINARY_AVAILABILITY = 0x02; // Request: client accepts it. Reply: payload uses it.
+    // Days in the payload are epoch days (days since 1970-01-01) instead of days of the week (1-7)
+    public static final byte FLAG_ABSOLUTE_DATES = 0x04;
 }
\ No newline at end of file